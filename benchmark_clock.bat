@@ -0,0 +1,17 @@
+@echo off
+echo Compiling Clock Benchmark...
+javac -cp "lib\mysql-connector-j-9.2.0.jar" -sourcepath "src\main\java" -d "bin" -encoding UTF-8 "src\main\java\com\electricity\test\ClockBenchmark.java"
+
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation Failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo Running Logical Clock Benchmark (Lamport vs HLC)...
+echo.
+java -cp "bin;lib\mysql-connector-j-9.2.0.jar" com.electricity.test.ClockBenchmark
+
+echo.
+pause
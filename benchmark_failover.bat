@@ -0,0 +1,17 @@
+@echo off
+echo Compiling Failover Benchmark...
+javac -cp "lib\mysql-connector-j-9.2.0.jar" -sourcepath "src\main\java" -d "bin" -encoding UTF-8 "src\main\java\com\electricity\test\FailoverBenchmark.java"
+
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation Failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo Running Leader Failover Benchmark (3 servers, leader killed 10 times)...
+echo.
+java -Delectricity.lease.ms=1000 -cp "bin;lib\mysql-connector-j-9.2.0.jar" com.electricity.test.FailoverBenchmark
+
+echo.
+pause
@@ -0,0 +1,17 @@
+@echo off
+echo Compiling District Load Generator...
+javac -cp "lib\mysql-connector-j-9.2.0.jar" -sourcepath "src\main\java" -d "bin" -encoding UTF-8 "src\main\java\com\electricity\test\LoadGenerator.java"
+
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation Failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo Running District Load Generator (5000 districts against 127.0.0.1:9000 for 60s, outage storm at 20s)...
+echo.
+java -Delectricity.load.outageStorm=20:0.2 -cp "bin;lib\mysql-connector-j-9.2.0.jar" com.electricity.test.LoadGenerator 127.0.0.1:9000 5000 60
+
+echo.
+pause
@@ -0,0 +1,17 @@
+@echo off
+echo Compiling Mutex Benchmark...
+javac -cp "lib\mysql-connector-j-9.2.0.jar" -sourcepath "src\main\java" -d "bin" -encoding UTF-8 "src\main\java\com\electricity\test\MutexBenchmark.java"
+
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation Failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo Running Token Mutex Benchmark (N = 3, 5, 7, 9)...
+echo.
+java -cp "bin;lib\mysql-connector-j-9.2.0.jar" com.electricity.test.MutexBenchmark
+
+echo.
+pause
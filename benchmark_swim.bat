@@ -0,0 +1,17 @@
+@echo off
+echo Compiling SWIM Simulation...
+javac -cp "lib\mysql-connector-j-9.2.0.jar" -sourcepath "src\main\java" -d "bin" -encoding UTF-8 "src\main\java\com\electricity\test\SwimSimulation.java"
+
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation Failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo Running SWIM Membership Simulation (N = 10 to 500, 1%% packet loss)...
+echo.
+java -cp "bin;lib\mysql-connector-j-9.2.0.jar" com.electricity.test.SwimSimulation
+
+echo.
+pause
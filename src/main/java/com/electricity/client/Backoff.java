@@ -0,0 +1,31 @@
+package com.electricity.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decorrelated jitter backoff: each delay is random between the base and
+ * three times the previous delay, capped. Clients that failed at the same
+ * moment (e.g. a whole feeder coming back after an outage) drift apart
+ * instead of retrying in lockstep.
+ */
+public class Backoff {
+    private final long baseMs;
+    private final long capMs;
+    private long previous;
+
+    public Backoff(long baseMs, long capMs) {
+        this.baseMs = baseMs;
+        this.capMs = capMs;
+        this.previous = baseMs;
+    }
+
+    public synchronized long next() {
+        long upper = Math.max(baseMs + 1, previous * 3);
+        previous = Math.min(capMs, ThreadLocalRandom.current().nextLong(baseMs, upper));
+        return previous;
+    }
+
+    public synchronized void reset() {
+        previous = baseMs;
+    }
+}
@@ -0,0 +1,64 @@
+package com.electricity.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Last good HQ endpoints (host:port, most recent first), kept in a small
+ * file per district so a restarted client can reconnect straight away
+ * instead of waiting for a discovery beacon.
+ *
+ * File: hq-endpoints-<nodeId>.txt in -Delectricity.client.cacheDir (default:
+ * working directory). Written to a temp file and moved into place, so a
+ * power cut mid-write never leaves a half-written list.
+ */
+public class EndpointCache {
+    private static final int MAX_ENDPOINTS = 5;
+
+    private final Path file;
+
+    public EndpointCache(String nodeId) {
+        this.file = Paths.get(System.getProperty("electricity.client.cacheDir", "."),
+                "hq-endpoints-" + nodeId.replaceAll("[^A-Za-z0-9_.-]", "_") + ".txt");
+    }
+
+    public synchronized List<String> load() {
+        List<String> endpoints = new ArrayList<>();
+        try {
+            if (Files.exists(file)) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (line.lastIndexOf(':') > 0 && !endpoints.contains(line))
+                        endpoints.add(line);
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable cache: fall back to discovery
+        }
+        return endpoints;
+    }
+
+    /**
+     * Move endpoint to the front of the list and persist it.
+     */
+    public synchronized void recordSuccess(String endpoint) {
+        List<String> endpoints = load();
+        endpoints.remove(endpoint);
+        endpoints.add(0, endpoint);
+        while (endpoints.size() > MAX_ENDPOINTS)
+            endpoints.remove(endpoints.size() - 1);
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, endpoints, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not save HQ endpoint cache: " + e.getMessage());
+        }
+    }
+}
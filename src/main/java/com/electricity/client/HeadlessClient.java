@@ -2,15 +2,19 @@ package com.electricity.client;
 
 import com.electricity.service.DiscoveryService;
 import com.electricity.client.web.ClientWebServer;
+import com.electricity.model.ServerLoad;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
@@ -25,12 +29,50 @@ public class HeadlessClient {
     private Thread listenerThread;
     private Thread heartbeatThread;
     private DiscoveryService discoveryService;
-    private List<String> logs = Collections.synchronizedList(new ArrayList<>());
-
+    private volatile String redirectTarget; // host:port from ERR|MOVED, followed once the socket closes
+    private volatile int redirectsInARow = 0; // reset once a message is acknowledged
+    private volatile boolean userDisconnected = false;
+    private final EndpointCache endpointCache;
+    private final Backoff backoff = new Backoff(BACKOFF_BASE_MS, BACKOFF_CAP_MS);
+    private final Deque<String> endpoints = new ArrayDeque<>(); // HQs to try, in order
+    private final Object connectorLock = new Object();
+    private Thread connectorThread;
+    private final OutboundQueue outbox;
+    // Sent on the current connection, awaiting a response (HQ answers in order)
+    private final Deque<OutboundQueue.Entry> inFlight = new ArrayDeque<>();
+    private Thread drainThread;
+    private volatile boolean retryPause = false;
+    private final ReportingPolicy reportingPolicy = new ReportingPolicy(REPORT_INTERVAL_SEC);
+    private final VoltageAnalyzer analyzer = new VoltageAnalyzer(WINDOW_SEC * SAMPLE_HZ);
+    // Simulated meter: voltage drifts around nominal, with the odd sag lasting ~30s
+    private final java.util.Random meter = new java.util.Random();
+    private double voltage = VoltageAnalyzer.NOMINAL_V;
+    private boolean sagging = false;
+    private long samples = 0;
+    private final LogRing logs = new LogRing(LOG_CAPACITY);
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int LOG_CAPACITY = 256;
+    private static final long BACKOFF_BASE_MS = 500;
+    private static final long BACKOFF_CAP_MS = 30000;
+    private static final int DISCOVERY_POLL_MS = 1000;
+    // ERR|MOVED followed at once this many times in a row; after that, back off between hops
+    private static final int MAX_REDIRECTS = 3;
+    // How long to keep listening for other servers after the first one is heard
+    private static final long SELECTION_WINDOW_MS = 1500;
+    // Queued messages written per flush without waiting for their responses
+    private static final int DRAIN_WINDOW = Integer.getInteger("electricity.client.drainWindow", 64);
+    private static final long RETRY_PAUSE_MS = 1000;
+    // Meter sampled locally at this rate; HQ only gets summaries every REPORT_INTERVAL_SEC and alerts
+    private static final int SAMPLE_HZ = Integer.getInteger("electricity.client.sampleHz", 1);
+    private static final int REPORT_INTERVAL_SEC = 10;
+    private static final int WINDOW_SEC = Integer.getInteger("electricity.client.windowSec", 10);
     private static final DateTimeFormatter DF = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
 
     public HeadlessClient(String nodeId) {
         this.nodeId = nodeId;
+        this.endpointCache = new EndpointCache(nodeId);
+        this.outbox = new OutboundQueue(nodeId);
     }
 
     public static void main(String[] args) {
@@ -68,27 +110,44 @@ public class HeadlessClient {
         String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss"));
         String entry = "[" + time + "] " + msg;
         System.out.println(entry);
-        logs.add(entry);
-        // Keep logs size manageable
-        if (logs.size() > 50)
-            logs.remove(0);
+        logs.append(entry);
     }
 
-    public String getLogsJson() {
-        StringBuilder sb = new StringBuilder("[");
-        synchronized (logs) {
-            boolean first = true;
-            for (String l : logs) {
-                if (!first)
-                    sb.append(",");
-                sb.append("\"").append(l.replace("\"", "\\\"")).append("\"");
-                first = false;
-            }
+    /**
+     * Log lines newer than the dashboard's cursor:
+     * {"last": seq, "logs": ["...", ...]} (oldest first). The next poll
+     * passes "last" back as after.
+     */
+    public String getLogsJson(long after) {
+        if (after > logs.getLastSeq())
+            after = 0; // cursor from before a client restart: start over
+        List<LogRing.Entry> entries = logs.after(after);
+        long last = entries.isEmpty() ? Math.max(after, 0) : entries.get(entries.size() - 1).getSeq();
+        StringBuilder sb = new StringBuilder(64 + entries.size() * 64);
+        sb.append("{\"last\": ").append(last).append(", \"logs\": [");
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0)
+                sb.append(",");
+            appendJsonString(sb, entries.get(i).getText());
         }
-        sb.append("]");
+        sb.append("]}");
         return sb.toString();
     }
 
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+
     public boolean isConnected() {
         return connected;
     }
@@ -97,47 +156,31 @@ public class HeadlessClient {
         return nodeId;
     }
 
+    /**
+     * Try this HQ first (discovery result, redirect or manual choice).
+     */
     public void connectToHQ(String ip, int port) {
-        new Thread(() -> {
-            while (!connected && !Thread.currentThread().isInterrupted()) {
-                try {
-                    log("Connecting to Utility HQ (" + ip + ":" + port + ")...");
-                    if (socket != null && !socket.isClosed())
-                        socket.close();
-
-                    socket = new Socket(ip, port);
-                    out = new PrintStream(socket.getOutputStream());
-                    in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                    // Simple Handshake
-                    out.println("AUTH|GRID_SEC_2025");
-                    String resp = in.readLine();
-
-                    if ("AUTH_OK".equals(resp)) {
-                        log("Connected to Central Authority.");
-                        connected = true;
-                        startListener();
-                        startAutoReport();
-                        break; // Exit retry loop
-                    } else {
-                        log("HQ rejected connection: " + resp);
-                        closeSocket();
-                        Thread.sleep(5000); // Wait before retry
-                    }
-                } catch (Exception e) {
-                    log("HQ Unreachable (" + e.getMessage() + "). Retrying in 5s...");
-                    try {
-                        Thread.sleep(5000);
-                    } catch (InterruptedException ie) {
-                    }
-                }
-            }
-        }).start();
+        userDisconnected = false;
+        addEndpoint(ip + ":" + port, true);
+        ensureConnector();
     }
 
+    /**
+     * Connect on start: cached endpoints are tried at once, while multicast
+     * discovery runs in parallel and adds what it finds to the list.
+     */
     public void startAutoDiscovery() {
         if (connected)
             return;
+        userDisconnected = false;
+        List<String> cached = endpointCache.load();
+        if (!cached.isEmpty()) {
+            log("Reconnecting to cached HQ endpoint(s) " + cached + ", discovery running in parallel");
+            for (String endpoint : cached) {
+                addEndpoint(endpoint, false);
+            }
+            ensureConnector();
+        }
         log("Scanning for Utility HQ Signal (Multicast)...");
 
         new Thread(() -> {
@@ -145,42 +188,215 @@ public class HeadlessClient {
                 java.net.InetAddress group = java.net.InetAddress.getByName("230.0.0.1");
                 socket.joinGroup(group);
                 byte[] buf = new byte[256];
+                ServerSelector selector = new ServerSelector();
+                long chooseAt = Long.MAX_VALUE;
 
+                // Listen a little past the first eligible beacon, so we can compare servers
                 while (!connected && !Thread.currentThread().isInterrupted()) {
+                    long now = System.currentTimeMillis();
+                    if (now >= chooseAt) {
+                        ServerLoad chosen = selector.choose();
+                        log("Found " + selector.eligible().size() + " Utility HQ server(s), chose " + chosen);
+                        for (ServerLoad other : selector.eligible()) {
+                            addEndpoint(other.getAddress(), false);
+                        }
+                        connectToHQ(chosen.getHost(), chosen.getPort());
+                        break;
+                    }
+                    // Wake up now and then to notice a cached endpoint got us connected
+                    socket.setSoTimeout((int) Math.max(1, Math.min(DISCOVERY_POLL_MS, chooseAt - now)));
                     java.net.DatagramPacket packet = new java.net.DatagramPacket(buf, buf.length);
-                    socket.receive(packet);
+                    try {
+                        socket.receive(packet);
+                    } catch (java.net.SocketTimeoutException timeout) {
+                        continue;
+                    }
                     String msg = new String(packet.getData(), 0, packet.getLength());
-                    // Msg: HELLO|ServerId|TcpPort|IsLeader
-                    String[] parts = msg.split("\\|");
-                    if (parts.length >= 4 && "HELLO".equals(parts[0])) {
-                        boolean isLeader = Boolean.parseBoolean(parts[3]);
-                        if (isLeader) {
-                            String ip = packet.getAddress().getHostAddress();
-                            int port = Integer.parseInt(parts[2]);
-                            log("Found Utility HQ at " + ip + ":" + port);
-                            connectToHQ(ip, port);
-                            break;
-                        }
+                    // Msg: HELLO|ServerId|TcpPort|IsLeader[|conns|queueDepth|p99Ms]
+                    ServerLoad load = ServerLoad.fromHello(msg.split("\\|"), packet.getAddress().getHostAddress(),
+                            System.currentTimeMillis());
+                    if (load != null && load.isEligible()) {
+                        selector.offer(load);
+                        if (chooseAt == Long.MAX_VALUE)
+                            chooseAt = System.currentTimeMillis() + SELECTION_WINDOW_MS;
                     }
                 }
                 socket.leaveGroup(group);
             } catch (Exception e) {
                 log("Auto-discovery failed: " + e.getMessage());
-                // Fallback to local
+                // Fallback to local, behind anything already known
                 log("Fallback: searching local...");
-                connectToHQ("127.0.0.1", 9000);
+                addEndpoint("127.0.0.1:9000", false);
+                ensureConnector();
+            }
+        }, "hq-discovery").start();
+    }
+
+    private void addEndpoint(String endpoint, boolean preferred) {
+        synchronized (endpoints) {
+            endpoints.remove(endpoint);
+            if (preferred)
+                endpoints.addFirst(endpoint);
+            else
+                endpoints.addLast(endpoint);
+        }
+        synchronized (connectorLock) {
+            connectorLock.notifyAll(); // cut a backoff wait short
+        }
+    }
+
+    /**
+     * One connector thread at a time walks the endpoint list.
+     */
+    private void ensureConnector() {
+        synchronized (connectorLock) {
+            if (connectorThread != null && connectorThread.isAlive())
+                return;
+            connectorThread = new Thread(this::connectLoop, "hq-connector");
+            connectorThread.start();
+        }
+    }
+
+    /**
+     * Try every known HQ in order; after a full pass with no luck wait a
+     * decorrelated-jitter backoff (cut short when a new endpoint turns up).
+     * Redirects are followed at once up to MAX_REDIRECTS in a row, so servers
+     * that disagree about who owns us cannot bounce us around in a tight loop.
+     */
+    private void connectLoop() {
+        try {
+            while (!connected && !userDisconnected) {
+                if (redirectsInARow > MAX_REDIRECTS) {
+                    long wait = backoff.next();
+                    log("Redirected " + redirectsInARow + " times in a row. Following in " + wait + "ms...");
+                    synchronized (connectorLock) {
+                        connectorLock.wait(wait);
+                    }
+                    if (connected || userDisconnected)
+                        return;
+                }
+                List<String> pass;
+                synchronized (endpoints) {
+                    pass = new ArrayList<>(endpoints);
+                }
+                boolean redirected = false;
+                for (String endpoint : pass) {
+                    if (connected || userDisconnected)
+                        return;
+                    String result = tryConnect(endpoint);
+                    if ("OK".equals(result))
+                        return;
+                    if ("MOVED".equals(result)) {
+                        redirected = true;
+                        break;
+                    }
+                }
+                if (redirected || connected || userDisconnected)
+                    continue;
+
+                // Nothing known yet: wait for discovery rather than backing off
+                long wait = pass.isEmpty() ? DISCOVERY_POLL_MS : backoff.next();
+                if (!pass.isEmpty())
+                    log("No Utility HQ reachable. Retrying in " + wait + "ms...");
+                synchronized (connectorLock) {
+                    connectorLock.wait(wait);
+                }
             }
-        }).start();
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * One connection attempt: OK, MOVED (target queued first) or FAILED.
+     */
+    private String tryConnect(String endpoint) {
+        int colon = endpoint.lastIndexOf(':');
+        String ip = endpoint.substring(0, colon);
+        int port = Integer.parseInt(endpoint.substring(colon + 1));
+        try {
+            log("Connecting to Utility HQ (" + endpoint + ")...");
+            if (socket != null && !socket.isClosed())
+                socket.close();
+
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(ip, port), CONNECT_TIMEOUT_MS);
+            out = new PrintStream(new BufferedOutputStream(socket.getOutputStream(), 16384));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // Simple Handshake (node id lets a partitioned HQ redirect us to our owner)
+            out.println("AUTH|GRID_SEC_2025|" + nodeId);
+            out.flush();
+            String resp = in.readLine();
+
+            if (resp != null && resp.startsWith("ERR|MOVED|")) {
+                closeSocket();
+                String target = resp.substring("ERR|MOVED|".length());
+                redirectsInARow++;
+                log("Redirected to owning HQ " + target);
+                addEndpoint(target, true);
+                return "MOVED";
+            } else if ("AUTH_OK".equals(resp)) {
+                log("Connected to Central Authority.");
+                resetInFlight();
+                connected = true;
+                backoff.reset();
+                endpointCache.recordSuccess(endpoint);
+                addEndpoint(endpoint, true); // first to retry if this connection drops
+                reportingPolicy.force(); // HQ gets a fresh reading on every (re)connect
+                if (outbox.size() > 0)
+                    log("Delivering " + outbox.size() + " queued message(s) (" + outbox.pendingOutages() + " outage)");
+                startListener();
+                startAutoReport();
+                ensureDrainer();
+                return "OK";
+            } else {
+                log("HQ rejected connection: " + resp);
+                closeSocket();
+                return "FAILED";
+            }
+        } catch (Exception e) {
+            log("HQ Unreachable (" + e.getMessage() + ")");
+            closeSocket();
+            return "FAILED";
+        }
+    }
+
+    /**
+     * ERR|MOVED|host:port - reconnect to the HQ server that owns this district.
+     */
+    private void followRedirect(String moved) {
+        redirectsInARow++;
+        String target = moved.substring("ERR|MOVED|".length());
+        int colon = target.lastIndexOf(':');
+        log("Redirected to owning HQ " + target);
+        connectToHQ(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
     }
 
     public void disconnect() {
-        // No discovery service to stop
+        userDisconnected = true;
         if (heartbeatThread != null)
             heartbeatThread.interrupt();
-        closeSocket();
+        dropConnection();
         log("Disconnected.");
     }
 
+    private void dropConnection() {
+        closeSocket();
+        resetInFlight();
+    }
+
+    /**
+     * Whatever was sent on a dead connection is unacknowledged: send it again.
+     */
+    private void resetInFlight() {
+        synchronized (inFlight) {
+            inFlight.clear();
+            outbox.releaseAll();
+            inFlight.notifyAll();
+        }
+    }
+
     private void closeSocket() {
         connected = false;
         try {
@@ -195,32 +411,121 @@ public class HeadlessClient {
             try {
                 String line;
                 while (connected && (line = in.readLine()) != null) {
-                    log("Central: " + line);
+                    if (line.startsWith("ERR|MOVED|")) {
+                        // HQ membership changed and another server owns us now
+                        log("Central: " + line);
+                        redirectTarget = line;
+                        break;
+                    }
+                    settle(line);
                 }
             } catch (Exception e) {
                 if (connected)
                     log("Lost connection to HQ: " + e.getMessage());
             } finally {
                 if (connected)
-                    disconnect();
+                    dropConnection();
+                String moved = redirectTarget;
+                if (moved != null) {
+                    redirectTarget = null;
+                    followRedirect(moved);
+                } else if (!userDisconnected) {
+                    // Same HQ first, then the rest of the list, with backoff
+                    log("Reconnecting...");
+                    ensureConnector();
+                }
             }
         });
         listenerThread.start();
     }
 
+    /**
+     * Response to the oldest in-flight message: acknowledged messages leave
+     * the outbox, transient failures are sent again after a pause.
+     */
+    private void settle(String line) {
+        OutboundQueue.Entry e;
+        boolean last;
+        synchronized (inFlight) {
+            e = inFlight.poll();
+            last = inFlight.isEmpty();
+            inFlight.notifyAll();
+        }
+        if (e == null) {
+            log("Central: " + line);
+            return;
+        }
+        if (line.startsWith("OK|")) {
+            // Includes OK|ACK_...|DUP: an earlier copy got in before the connection dropped
+            outbox.ack(e);
+            redirectsInARow = 0;
+            if (e.isOutage() || last)
+                log("Central: " + line);
+        } else if (line.contains("BadFormat") || line.startsWith("ERR|UnknownType")) {
+            outbox.ack(e); // will never be accepted
+            log("Central: " + line + " - dropped " + e.getMessage());
+        } else {
+            outbox.release(e);
+            retryPause = true;
+            log("Central: " + line + " - will retry");
+        }
+    }
+
+    private void ensureDrainer() {
+        synchronized (inFlight) {
+            if (drainThread != null && drainThread.isAlive())
+                return;
+            drainThread = new Thread(this::drainLoop, "outbox-drain");
+            drainThread.setDaemon(true);
+            drainThread.start();
+        }
+    }
+
+    /**
+     * Pipelined delivery: up to DRAIN_WINDOW queued messages (outages first)
+     * are written in one flush, and more follow as responses come back.
+     */
+    private void drainLoop() {
+        try {
+            while (true) {
+                if (retryPause) {
+                    retryPause = false;
+                    Thread.sleep(RETRY_PAUSE_MS);
+                }
+                List<OutboundQueue.Entry> batch;
+                PrintStream o;
+                synchronized (inFlight) {
+                    while (!connected || inFlight.size() >= DRAIN_WINDOW || !outbox.hasSendable())
+                        inFlight.wait(DISCOVERY_POLL_MS);
+                    batch = outbox.nextBatch(DRAIN_WINDOW - inFlight.size());
+                    inFlight.addAll(batch);
+                    o = out;
+                }
+                for (OutboundQueue.Entry e : batch) {
+                    o.println(e.getMessage());
+                }
+                o.flush(); // a dead socket shows up in the listener, which requeues the batch
+                if (batch.size() == 1)
+                    log("Sent: " + batch.get(0).getMessage());
+                else
+                    log("Sent " + batch.size() + " queued messages (" + outbox.size() + " in outbox)");
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
     private void startAutoReport() {
+        if (heartbeatThread != null && heartbeatThread.isAlive())
+            return;
+        // Keeps reading while HQ is unreachable: the readings wait in the outbox
         heartbeatThread = new Thread(() -> {
-            log("Auto-reporting started (every 10s)...");
+            log("Auto-reporting started (sampling at " + SAMPLE_HZ + " Hz, summary every " + REPORT_INTERVAL_SEC
+                    + "s, keepalive " + reportingPolicy.getKeepaliveSec() + "s)...");
             try {
-                // Initial delay
-                Thread.sleep(1000);
-                if (connected)
-                    sendReport();
-
-                while (connected && !Thread.currentThread().isInterrupted()) {
-                    Thread.sleep(10000);
-                    if (connected)
-                        sendReport();
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(1000L / SAMPLE_HZ);
+                    sample();
                 }
             } catch (InterruptedException e) {
                 log("Auto-reporting stopped.");
@@ -230,25 +535,65 @@ public class HeadlessClient {
         heartbeatThread.start();
     }
 
-    public void sendReport() {
-        if (!connected)
-            return;
-        // Logic: REPORT|NodeId|Voltage|PowerState
-        // PowerState: NORMAL, LOW, OFF
-        double voltage = 220.0 + (Math.random() * 10 - 5); // 215-225V
-        String state = "NORMAL";
-        if (Math.random() < 0.1) {
-            voltage = 180;
-            state = "LOW";
+    /**
+     * Manual report: always sent.
+     */
+    public synchronized void sendReport() {
+        reportingPolicy.force();
+        report();
+    }
+
+    /**
+     * Read the meter into the analyzer. Sag / swell transitions go to HQ at
+     * once as ANOMALY alerts; the rest only as periodic summaries.
+     */
+    private synchronized void sample() {
+        if (sagging) {
+            sagging = meter.nextDouble() >= 0.03;
+            voltage = sagging ? 180.0 + meter.nextGaussian() * 2 : VoltageAnalyzer.NOMINAL_V;
+        } else if (meter.nextDouble() < 0.0005) {
+            sagging = true;
+            voltage = 180.0;
+        } else {
+            voltage += (VoltageAnalyzer.NOMINAL_V - voltage) * 0.01 + meter.nextGaussian() * 0.13;
         }
 
-        String msg = String.format("REPORT|%s|%.1f|%s", nodeId, voltage, state);
-        send(msg);
+        long now = System.currentTimeMillis();
+        String anomaly = analyzer.add(voltage, now);
+        if (anomaly != null) {
+            sendAnomaly(anomaly, analyzer.describe(voltage, now));
+            report(); // state changed: the policy sends the summary now
+        } else if (++samples % ((long) REPORT_INTERVAL_SEC * SAMPLE_HZ) == 0) {
+            report();
+        }
     }
 
-    public void sendOutage(String type) {
-        if (!connected)
+    /**
+     * Window summary (mean voltage, analyzed state), if the reporting policy
+     * says it is worth sending.
+     */
+    private void report() {
+        double mean = analyzer.mean();
+        String powerState = analyzer.getState();
+        long now = System.currentTimeMillis();
+        if (reportingPolicy.decide(mean, powerState, now) == null)
             return;
+        reportingPolicy.sent(mean, powerState, now);
+        // REPORT|NodeId|Voltage|PowerState|KeepaliveSec
+        String msg = String.format("REPORT|%s|%.1f|%s|%d", nodeId, mean, powerState,
+                reportingPolicy.getKeepaliveSec());
+        send(msg, false);
+    }
+
+    private void sendAnomaly(String kind, String detail) {
+        String eventId = UUID.randomUUID().toString();
+        String ts = LocalDateTime.now().format(DF);
+        // ANOMALY|EventId|NodeId|SAG_START..SWELL_END|Timestamp|Detail (same layout as OUTAGE)
+        log("Detected " + kind + " (" + detail + ")");
+        send(String.format("ANOMALY|%s|%s|%s|%s|%s", eventId, nodeId, kind, ts, detail), true);
+    }
+
+    public void sendOutage(String type) {
         String eventId = UUID.randomUUID().toString();
         String ts = LocalDateTime.now().format(DF);
 
@@ -258,13 +603,19 @@ public class HeadlessClient {
         } else {
             msg = String.format("OUTAGE|%s|%s|OUTAGE_END|%s|restored", eventId, nodeId, ts);
         }
-        send(msg);
+        send(msg, true);
     }
 
-    private void send(String msg) {
-        if (out != null) {
-            out.println(msg);
-            log("Sent: " + msg);
+    /**
+     * Every message goes through the outbox, so nothing is lost while HQ is
+     * unreachable; the drain thread delivers it once connected.
+     */
+    private void send(String msg, boolean outage) {
+        outbox.enqueue(msg, outage);
+        if (!connected)
+            log("Queued (HQ offline, " + outbox.size() + " in outbox): " + msg);
+        synchronized (inFlight) {
+            inFlight.notifyAll();
         }
     }
 }
@@ -0,0 +1,91 @@
+package com.electricity.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity log buffer for the client dashboard, lock-free for both
+ * the writers (any client thread) and the HTTP pollers.
+ *
+ * - Every entry gets a sequence number (1, 2, 3...) from an AtomicLong.
+ *   The entry lands in slot seq % capacity, overwriting the entry one lap
+ *   older, but never a newer one: a writer preempted for a whole lap
+ *   drops its entry rather than leave a stale slot behind for readers.
+ * - after(seq) returns only the entries newer than the caller's cursor, so
+ *   a poll costs the number of new lines, not the size of the log.
+ * - A reader stops at a slot whose writer has claimed a number but not yet
+ *   stored the entry. It never skips a line that is still being written;
+ *   it picks it up on the next poll.
+ */
+public class LogRing {
+
+    public static final class Entry {
+        private final long seq;
+        private final String text;
+
+        Entry(long seq, String text) {
+            this.seq = seq;
+            this.text = text;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicLong lastSeq = new AtomicLong(0);
+
+    /**
+     * capacity is rounded up to a power of two.
+     */
+    public LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public long append(String text) {
+        long seq = lastSeq.incrementAndGet();
+        Entry entry = new Entry(seq, text);
+        int slot = (int) (seq & mask);
+        while (true) {
+            Entry current = slots.get(slot);
+            // A writer a lap ahead stored first (we were preempted): ours is already overwritten
+            if (current != null && current.seq > seq)
+                return seq;
+            if (slots.compareAndSet(slot, current, entry))
+                return seq;
+        }
+    }
+
+    /**
+     * Entries with seq > after, oldest first. Anything overwritten since
+     * the caller last polled is skipped.
+     */
+    public List<Entry> after(long after) {
+        long last = lastSeq.get();
+        long from = Math.max(after + 1, last - mask);
+        List<Entry> result = new ArrayList<>((int) Math.max(0, last - from + 1));
+        for (long seq = from; seq <= last; seq++) {
+            Entry e = slots.get((int) (seq & mask));
+            if (e == null || e.seq < seq)
+                break; // claimed but not yet written
+            if (e.seq == seq)
+                result.add(e);
+            // e.seq > seq: a writer lapped us, this one is gone
+        }
+        return result;
+    }
+
+    public long getLastSeq() {
+        return lastSeq.get();
+    }
+}
@@ -0,0 +1,347 @@
+package com.electricity.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store-and-forward queue for a district's outbound messages.
+ *
+ * Every REPORT / OUTAGE is written to an append-only segment file before it
+ * is sent, and removed only when HQ acknowledges it, so readings taken while
+ * the HQ link is down (or the client restarts) are delivered later.
+ *
+ * Segment records, one per line:
+ *   A|seq|O-or-R|enqueuedAtMillis|message   - appended entry (O = outage, R = report)
+ *   D|seq                                   - entry acknowledged (or dropped)
+ * On start the file is replayed. Once it is past COMPACT_BYTES and mostly
+ * dead records, it is rewritten with only the pending entries (temp file +
+ * atomic move); a queue that keeps draining to empty costs one rewrite per
+ * COMPACT_BYTES of traffic, not one per acknowledgement.
+ *
+ * Bounded at -Delectricity.client.outboxMax entries (default 10000):
+ * - outages always go first and are synced to disk on append
+ * - once the queue is COALESCE_FRACTION full, a new report replaces the
+ *   pending report from the same COALESCE_INTERVAL_MS interval
+ * - when full, the oldest report is dropped (even one in flight, whose
+ *   late ACK is then ignored); outages are dropped only when nothing else
+ *   is left
+ */
+public class OutboundQueue {
+    private static final int MAX_ENTRIES = Integer.getInteger("electricity.client.outboxMax", 10000);
+    private static final double COALESCE_FRACTION = 0.8;
+    private static final long COALESCE_INTERVAL_MS = 60000;
+    private static final long COMPACT_BYTES = 1 << 20;
+
+    public static final class Entry {
+        final long seq;
+        final boolean outage;
+        final long enqueuedAt;
+        final String message;
+        boolean inFlight;
+
+        Entry(long seq, boolean outage, long enqueuedAt, String message) {
+            this.seq = seq;
+            this.outage = outage;
+            this.enqueuedAt = enqueuedAt;
+            this.message = message;
+        }
+
+        String record() {
+            return "A|" + seq + "|" + (outage ? "O" : "R") + "|" + enqueuedAt + "|" + message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public boolean isOutage() {
+            return outage;
+        }
+    }
+
+    private final Path file;
+    // Insertion-ordered: oldest first within each class
+    private final LinkedHashMap<Long, Entry> outages = new LinkedHashMap<>();
+    private final LinkedHashMap<Long, Entry> reports = new LinkedHashMap<>();
+    private FileOutputStream segment;
+    private Writer writer;
+    private long nextSeq = 1;
+    private long segmentBytes = 0; // written to the segment file so far
+    private long liveBytes = 0; // of that, the A| records still pending
+    private long coalesced = 0;
+    private long dropped = 0;
+
+    public OutboundQueue(String nodeId) {
+        this.file = Paths.get(System.getProperty("electricity.client.cacheDir", "."),
+                "outbox-" + nodeId.replaceAll("[^A-Za-z0-9_.-]", "_") + ".log");
+        replay();
+        openSegment();
+    }
+
+    /**
+     * Queue a message for delivery. Returns false only if the disk write failed.
+     */
+    public synchronized boolean enqueue(String message, boolean outage) {
+        long now = System.currentTimeMillis();
+        if (!outage && size() >= MAX_ENTRIES * COALESCE_FRACTION) {
+            // Near capacity: keep only the latest report per interval
+            Entry last = lastPending(reports);
+            if (last != null && last.enqueuedAt / COALESCE_INTERVAL_MS == now / COALESCE_INTERVAL_MS) {
+                remove(last);
+                coalesced++;
+            }
+        }
+        if (size() >= MAX_ENTRIES) {
+            // Prefer one still waiting to be sent; if all are in flight, the oldest anyway
+            LinkedHashMap<Long, Entry> from = reports.isEmpty() ? outages : reports;
+            Entry victim = firstPending(from);
+            if (victim == null)
+                victim = from.values().iterator().next();
+            remove(victim);
+            dropped++;
+            System.err.println("[OUTBOX] Full, dropped oldest " + (victim.outage ? "outage" : "report"));
+        }
+
+        Entry e = new Entry(nextSeq++, outage, now, message);
+        (outage ? outages : reports).put(e.seq, e);
+        String record = e.record();
+        liveBytes += record.length() + 1;
+        boolean written = append(record, outage);
+        maybeCompact();
+        return written;
+    }
+
+    /**
+     * Up to max entries not already in flight, outages first, oldest first.
+     * They are marked in flight until ack() or release().
+     */
+    public synchronized List<Entry> nextBatch(int max) {
+        List<Entry> batch = new ArrayList<>();
+        collect(outages, batch, max);
+        collect(reports, batch, max);
+        return batch;
+    }
+
+    private static void collect(Map<Long, Entry> from, List<Entry> batch, int max) {
+        for (Entry e : from.values()) {
+            if (batch.size() >= max)
+                return;
+            if (!e.inFlight) {
+                e.inFlight = true;
+                batch.add(e);
+            }
+        }
+    }
+
+    /**
+     * HQ accepted it (or rejected it for good): forget it.
+     */
+    public synchronized void ack(Entry e) {
+        remove(e);
+        maybeCompact();
+    }
+
+    /**
+     * Not delivered: send again later.
+     */
+    public synchronized void release(Entry e) {
+        e.inFlight = false;
+    }
+
+    /**
+     * Connection lost: everything in flight goes back to pending.
+     */
+    public synchronized void releaseAll() {
+        for (Entry e : outages.values())
+            e.inFlight = false;
+        for (Entry e : reports.values())
+            e.inFlight = false;
+    }
+
+    public synchronized int size() {
+        return outages.size() + reports.size();
+    }
+
+    public synchronized int pendingOutages() {
+        return outages.size();
+    }
+
+    public synchronized boolean hasSendable() {
+        for (Entry e : outages.values())
+            if (!e.inFlight)
+                return true;
+        for (Entry e : reports.values())
+            if (!e.inFlight)
+                return true;
+        return false;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private void remove(Entry e) {
+        if ((e.outage ? outages : reports).remove(e.seq) != null) {
+            liveBytes -= e.record().length() + 1;
+            append("D|" + e.seq, false);
+        }
+    }
+
+    private static Entry firstPending(LinkedHashMap<Long, Entry> entries) {
+        for (Entry e : entries.values()) {
+            if (!e.inFlight)
+                return e;
+        }
+        return null;
+    }
+
+    private static Entry lastPending(LinkedHashMap<Long, Entry> entries) {
+        Entry last = null;
+        for (Entry e : entries.values()) {
+            if (!e.inFlight)
+                last = e;
+        }
+        return last;
+    }
+
+    private boolean append(String record, boolean sync) {
+        try {
+            writer.write(record);
+            writer.write('\n');
+            writer.flush();
+            segmentBytes += record.length() + 1;
+            if (sync)
+                segment.getFD().sync(); // outages must survive a power cut
+            return true;
+        } catch (IOException e) {
+            System.err.println("[OUTBOX] Write failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void replay() {
+        if (!Files.exists(file))
+            return;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                try {
+                    if (line.startsWith("A|")) {
+                        String[] f = line.split("\\|", 5);
+                        Entry e = new Entry(Long.parseLong(f[1]), "O".equals(f[2]), Long.parseLong(f[3]), f[4]);
+                        (e.outage ? outages : reports).put(e.seq, e);
+                        nextSeq = Math.max(nextSeq, e.seq + 1);
+                    } else if (line.startsWith("D|")) {
+                        long seq = Long.parseLong(line.substring(2));
+                        if (outages.remove(seq) == null)
+                            reports.remove(seq);
+                    }
+                } catch (RuntimeException torn) {
+                    // Last line cut short by a crash: ignore it
+                }
+            }
+            for (Entry e : pendingInOrder())
+                liveBytes += e.record().length() + 1;
+            if (size() > 0)
+                System.out.println("[OUTBOX] Recovered " + size() + " undelivered message(s) (" + outages.size()
+                        + " outage)");
+        } catch (IOException e) {
+            System.err.println("[OUTBOX] Could not read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void openSegment() {
+        try {
+            segment = new FileOutputStream(file.toFile(), true);
+            writer = new OutputStreamWriter(segment, StandardCharsets.UTF_8);
+            segmentBytes = sizeOnDisk();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open outbox " + file, e);
+        }
+    }
+
+    private long sizeOnDisk() {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Compact once the segment is big and at least half of it is dead.
+     */
+    private void maybeCompact() {
+        if (segmentBytes > COMPACT_BYTES && liveBytes * 2 < segmentBytes)
+            compact();
+    }
+
+    /**
+     * Rewrite the segment with only the pending entries. The new file is
+     * forced to disk before it replaces the old one, and the directory
+     * after, so a power cut never leaves fewer outages on disk than before.
+     */
+    private void compact() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile());
+                Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (Iterator<Entry> it = pendingInOrder().iterator(); it.hasNext();) {
+                Entry e = it.next();
+                w.write(e.record() + "\n");
+            }
+            w.flush();
+            out.getChannel().force(true);
+        } catch (IOException e) {
+            System.err.println("[OUTBOX] Compaction failed: " + e.getMessage());
+            return;
+        }
+        try {
+            writer.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+        } catch (IOException e) {
+            System.err.println("[OUTBOX] Compaction failed: " + e.getMessage());
+        }
+        openSegment();
+    }
+
+    /**
+     * Make the rename durable. Not every platform lets a directory be
+     * opened (Windows): there the move is as durable as it gets.
+     */
+    private void syncDirectory() {
+        Path dir = file.toAbsolutePath().getParent();
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+
+    private List<Entry> pendingInOrder() {
+        List<Entry> all = new ArrayList<>(outages.values());
+        all.addAll(reports.values());
+        all.sort((a, b) -> Long.compare(a.seq, b.seq));
+        return all;
+    }
+}
@@ -0,0 +1,86 @@
+package com.electricity.client;
+
+/**
+ * Decides which voltage samples are worth a REPORT.
+ *
+ * The district samples its meter every few seconds, but in deadband mode
+ * (the default) only sends when:
+ * - the power state changed (sent at once)
+ * - voltage moved at least -Delectricity.report.deadbandV (default 2.0V)
+ *   from the last value sent
+ * - -Delectricity.report.keepaliveSec (default 120) passed since the last
+ *   send, so HQ still hears from a quiet district
+ * - force() was called (first report after (re)connecting, manual report)
+ *
+ * The keepalive goes out with every REPORT so HQ knows how long silence is
+ * normal for this district. -Delectricity.report.mode=periodic restores
+ * the old behaviour of reporting every sample.
+ */
+public class ReportingPolicy {
+    private static final double DEADBAND_V = Double
+            .parseDouble(System.getProperty("electricity.report.deadbandV", "2.0"));
+    private static final int KEEPALIVE_SEC = Integer.getInteger("electricity.report.keepaliveSec", 120);
+    private static final boolean PERIODIC = "periodic"
+            .equalsIgnoreCase(System.getProperty("electricity.report.mode", "deadband"));
+
+    private final int sampleIntervalSec;
+    private boolean forced = true;
+    private double lastVoltage;
+    private String lastState;
+    private long lastSentAt;
+    private long samples = 0;
+    private long sent = 0;
+
+    public ReportingPolicy(int sampleIntervalSec) {
+        this.sampleIntervalSec = sampleIntervalSec;
+    }
+
+    /**
+     * Why this sample should be sent (FORCED, STATE, DELTA, KEEPALIVE,
+     * PERIODIC), or null to skip it.
+     */
+    public synchronized String decide(double voltage, String state, long now) {
+        samples++;
+        if (forced)
+            return "FORCED";
+        if (PERIODIC)
+            return "PERIODIC";
+        if (!state.equals(lastState))
+            return "STATE";
+        if (Math.abs(voltage - lastVoltage) >= DEADBAND_V)
+            return "DELTA";
+        if (now - lastSentAt >= KEEPALIVE_SEC * 1000L)
+            return "KEEPALIVE";
+        return null;
+    }
+
+    public synchronized void sent(double voltage, String state, long now) {
+        forced = false;
+        lastVoltage = voltage;
+        lastState = state;
+        lastSentAt = now;
+        sent++;
+    }
+
+    /**
+     * Send the next sample whatever it is.
+     */
+    public synchronized void force() {
+        forced = true;
+    }
+
+    /**
+     * Longest silence HQ should treat as healthy.
+     */
+    public int getKeepaliveSec() {
+        return PERIODIC ? sampleIntervalSec : Math.max(KEEPALIVE_SEC, sampleIntervalSec);
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+}
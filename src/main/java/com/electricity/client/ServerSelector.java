@@ -0,0 +1,47 @@
+package com.electricity.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.electricity.model.ServerLoad;
+
+/**
+ * Picks the HQ server to connect to from the discovery beacons heard.
+ *
+ * Eligible servers are those advertising IsLeader=true (every ingest server
+ * in headless mode). Among the eligible servers heard within FRESH_MS, the
+ * choice is power of two choices on the advertised load, so a crowd of
+ * districts starting together spreads out instead of all connecting to
+ * the first server that happened to beacon.
+ */
+public class ServerSelector {
+    private static final long FRESH_MS = 30000;
+
+    private final Map<Integer, ServerLoad> servers = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    public void offer(ServerLoad load) {
+        if (load != null)
+            servers.put(load.getServerId(), load);
+    }
+
+    public List<ServerLoad> eligible() {
+        long now = System.currentTimeMillis();
+        List<ServerLoad> list = new ArrayList<>();
+        for (ServerLoad s : servers.values()) {
+            if (s.isEligible() && now - s.getHeardAt() <= FRESH_MS)
+                list.add(s);
+        }
+        return list;
+    }
+
+    /**
+     * The server to use, or null if no eligible server has been heard.
+     */
+    public ServerLoad choose() {
+        return ServerLoad.powerOfTwo(eligible(), random);
+    }
+}
@@ -0,0 +1,132 @@
+package com.electricity.client;
+
+/**
+ * Streaming analysis of the district's voltage samples, done on the client
+ * so HQ only receives summaries and alerts.
+ *
+ * - Keeps the last N samples in a primitive ring buffer.
+ * - Maintains the running sum and sum of squares. Mean and variance cost
+ *   O(1) per sample, with no rescans and no boxing.
+ * - Sums are kept relative to NOMINAL_V, so the sum of squares stays small
+ *   and variance does not lose precision to cancellation.
+ * - Sag / swell follow the usual per-unit bands:
+ *   - a sag starts below 0.90 pu and ends above 0.92 pu;
+ *   - a swell starts above 1.10 pu and ends below 1.08 pu.
+ *   The hysteresis stops a reading hovering on a threshold from flapping.
+ *
+ * add() returns SAG_START, SAG_END, SWELL_START or SWELL_END when a sample
+ * crosses a band, otherwise null.
+ */
+public class VoltageAnalyzer {
+    public static final double NOMINAL_V = 220.0;
+    private static final double SAG_ENTER_PU = 0.90;
+    private static final double SAG_EXIT_PU = 0.92;
+    private static final double SWELL_ENTER_PU = 1.10;
+    private static final double SWELL_EXIT_PU = 1.08;
+
+    private final double[] ring;
+    private int next = 0;
+    private int count = 0;
+    private double sum = 0; // of (v - NOMINAL_V)
+    private double sumSq = 0;
+
+    private String state = "NORMAL"; // NORMAL, LOW (sag), HIGH (swell)
+    private long episodeStartedAt;
+    private double episodeExtreme;
+    private long episodeSamples;
+
+    public VoltageAnalyzer(int windowSize) {
+        this.ring = new double[windowSize];
+    }
+
+    public synchronized String add(double voltage, long now) {
+        double d = voltage - NOMINAL_V;
+        if (count == ring.length) {
+            double old = ring[next];
+            sum -= old;
+            sumSq -= old * old;
+        } else {
+            count++;
+        }
+        ring[next] = d;
+        next = (next + 1) % ring.length;
+        sum += d;
+        sumSq += d * d;
+
+        double pu = voltage / NOMINAL_V;
+        switch (state) {
+            case "LOW":
+                episodeSamples++;
+                episodeExtreme = Math.min(episodeExtreme, voltage);
+                if (pu > SAG_EXIT_PU) {
+                    state = "NORMAL";
+                    return "SAG_END";
+                }
+                return null;
+            case "HIGH":
+                episodeSamples++;
+                episodeExtreme = Math.max(episodeExtreme, voltage);
+                if (pu < SWELL_EXIT_PU) {
+                    state = "NORMAL";
+                    return "SWELL_END";
+                }
+                return null;
+            default:
+                if (pu < SAG_ENTER_PU) {
+                    startEpisode("LOW", voltage, now);
+                    return "SAG_START";
+                }
+                if (pu > SWELL_ENTER_PU) {
+                    startEpisode("HIGH", voltage, now);
+                    return "SWELL_START";
+                }
+                return null;
+        }
+    }
+
+    private void startEpisode(String newState, double voltage, long now) {
+        state = newState;
+        episodeStartedAt = now;
+        episodeExtreme = voltage;
+        episodeSamples = 1;
+    }
+
+    public synchronized double mean() {
+        return count == 0 ? NOMINAL_V : NOMINAL_V + sum / count;
+    }
+
+    public synchronized double variance() {
+        if (count < 2)
+            return 0;
+        double m = sum / count;
+        // Population variance of the window; clamp the rounding error at zero
+        return Math.max(0, sumSq / count - m * m);
+    }
+
+    public double stddev() {
+        return Math.sqrt(variance());
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Power state implied by the samples: NORMAL, LOW or HIGH.
+     */
+    public synchronized String getState() {
+        return state;
+    }
+
+    /**
+     * Detail for an anomaly alert: the sample that triggered it, the
+     * episode's extreme and length, and the window statistics.
+     */
+    public synchronized String describe(double voltage, long now) {
+        StringBuilder sb = new StringBuilder(String.format("v=%.1f", voltage));
+        if (episodeSamples > 0)
+            sb.append(String.format(",extreme=%.1f,duration=%ds", episodeExtreme, (now - episodeStartedAt) / 1000));
+        sb.append(String.format(",mean=%.1f,sd=%.2f,n=%d", mean(), stddev(), count));
+        return sb.toString();
+    }
+}
@@ -28,6 +28,7 @@ public class ClientWebServer {
             server.createContext("/", new StaticHandler());
             server.createContext("/api/status", new StatusHandler());
             server.createContext("/api/action", new ActionHandler());
+            server.createContext("/api/logs", new LogsHandler());
             server.setExecutor(null);
             server.start();
             System.out.println("Client Web Dashboard running at http://localhost:" + port + "/client/");
@@ -80,16 +81,36 @@ public class ClientWebServer {
     class StatusHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange t) throws IOException {
-            String json = String.format("{\"connected\": %b, \"nodeId\": \"%s\", \"logs\": %s}",
+            String json = String.format("{\"connected\": %b, \"nodeId\": \"%s\"}",
                     client.isConnected(),
-                    client.getNodeId(),
-                    client.getLogsJson());
+                    client.getNodeId());
 
             t.getResponseHeaders().set("Content-Type", "application/json");
             send(t, 200, json);
         }
     }
 
+    /**
+     * GET /api/logs?after=seq - only the log lines the page has not seen yet.
+     */
+    class LogsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            long after = 0;
+            String query = t.getRequestURI().getQuery();
+            if (query != null && query.contains("after=")) {
+                try {
+                    after = Long.parseLong(query.split("after=")[1].split("&")[0]);
+                } catch (NumberFormatException e) {
+                    send(t, 400, "Bad cursor");
+                    return;
+                }
+            }
+            t.getResponseHeaders().set("Content-Type", "application/json");
+            send(t, 200, client.getLogsJson(after));
+        }
+    }
+
     class ActionHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange t) throws IOException {
@@ -132,9 +153,10 @@ public class ClientWebServer {
     }
 
     private void send(HttpExchange t, int code, String body) throws IOException {
-        t.sendResponseHeaders(code, body.length());
+        byte[] bytes = body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        t.sendResponseHeaders(code, bytes.length);
         OutputStream os = t.getResponseBody();
-        os.write(body.getBytes());
+        os.write(bytes);
         os.close();
     }
 }
@@ -27,6 +27,30 @@ public class DBInitializer {
                 }
             }
 
+            // Upgrade databases created before events carried an HLC timestamp
+            try {
+                stmt.execute("ALTER TABLE electricity.events ADD COLUMN hlc BIGINT");
+                System.out.println("Added events.hlc column");
+            } catch (Exception e) {
+                // Column already exists
+            }
+
+            // Upgrade databases created before deadband reporting
+            try {
+                stmt.execute("ALTER TABLE electricity.nodes ADD COLUMN keepalive_sec INT");
+                System.out.println("Added nodes.keepalive_sec column");
+            } catch (Exception e) {
+                // Column already exists
+            }
+
+            // Upgrade databases created before paged dashboard queries
+            try {
+                stmt.execute("CREATE INDEX idx_nodes_status ON electricity.nodes(status, node_id)");
+                System.out.println("Added nodes.idx_nodes_status index");
+            } catch (Exception e) {
+                // Index already exists
+            }
+
             try {
                 System.out.println("Granting remote access...");
                 try {
@@ -0,0 +1,118 @@
+package com.electricity.model;
+
+/**
+ * Replicated state of one district node.
+ *
+ * Immutable; a newer report produces a new record. Records are ordered by
+ * (timestamp, origin) for last-writer-wins merging, where timestamp is a
+ * hybrid logical clock value and origin the id of the server that wrote it.
+ * keepaliveSec (the district's longest normal silence, 0 = reports every
+ * sample) travels with the record, so it merges with the report it came in.
+ */
+public class NodeRecord {
+    private final String nodeId;
+    private final String status;
+    private final String load;
+    private final String power;
+    private final String transformer;
+    private final String lastSeen;
+    private final long timestamp;
+    private final int origin;
+    private final int keepaliveSec;
+
+    public NodeRecord(String nodeId, String status, String load, String power, String transformer,
+            String lastSeen, long timestamp, int origin) {
+        this(nodeId, status, load, power, transformer, lastSeen, timestamp, origin, 0);
+    }
+
+    public NodeRecord(String nodeId, String status, String load, String power, String transformer,
+            String lastSeen, long timestamp, int origin, int keepaliveSec) {
+        this.nodeId = nodeId;
+        this.status = status;
+        this.load = load;
+        this.power = power;
+        this.transformer = transformer;
+        this.lastSeen = lastSeen;
+        this.timestamp = timestamp;
+        this.origin = origin;
+        this.keepaliveSec = keepaliveSec;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getLoad() {
+        return load;
+    }
+
+    public String getPower() {
+        return power;
+    }
+
+    public String getTransformer() {
+        return transformer;
+    }
+
+    public String getLastSeen() {
+        return lastSeen;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getOrigin() {
+        return origin;
+    }
+
+    public int getKeepaliveSec() {
+        return keepaliveSec;
+    }
+
+    /**
+     * Last-writer-wins order: higher timestamp wins, origin id breaks ties.
+     */
+    public boolean isNewerThan(NodeRecord other) {
+        if (other == null)
+            return true;
+        if (timestamp != other.timestamp)
+            return timestamp > other.timestamp;
+        return origin > other.origin;
+    }
+
+    public String[] toRow() {
+        return new String[] { nodeId, status, load, power, transformer, lastSeen };
+    }
+
+    /**
+     * Wire form: fields joined by ',' with '%', '|', ',' and ';' escaped.
+     */
+    public String encode() {
+        return esc(nodeId) + "," + esc(status) + "," + esc(load) + "," + esc(power) + "," + esc(transformer) + ","
+                + esc(lastSeen) + "," + timestamp + "," + origin + "," + keepaliveSec;
+    }
+
+    public static NodeRecord decode(String s) {
+        String[] f = s.split(",", -1);
+        if (f.length < 8)
+            throw new IllegalArgumentException("bad node record: " + s);
+        // keepaliveSec is absent in records from servers that predate it
+        return new NodeRecord(unesc(f[0]), unesc(f[1]), unesc(f[2]), unesc(f[3]), unesc(f[4]), unesc(f[5]),
+                Long.parseLong(f[6]), Integer.parseInt(f[7]), f.length > 8 ? Integer.parseInt(f[8]) : 0);
+    }
+
+    private static String esc(String s) {
+        if (s == null)
+            return "";
+        return s.replace("%", "%25").replace("|", "%7C").replace(",", "%2C").replace(";", "%3B");
+    }
+
+    private static String unesc(String s) {
+        return s.replace("%3B", ";").replace("%2C", ",").replace("%7C", "|").replace("%25", "%");
+    }
+}
@@ -0,0 +1,122 @@
+package com.electricity.model;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Load figures an HQ server advertises in its discovery beacon:
+ * HELLO|ServerId|TcpPort|IsLeader|connections|ingestQueueDepth|p99IngestMs
+ *
+ * Older servers send only the first four fields; their load reads as zero.
+ */
+public class ServerLoad {
+    // A queued ingest request costs more than an idle connection
+    private static final double QUEUE_WEIGHT = 10.0;
+    private static final double P99_MS_PER_POINT = 10.0;
+
+    private final int serverId;
+    private final String host;
+    private final int port;
+    private final boolean eligible;
+    private final int connections;
+    private final int queueDepth;
+    private final long p99Ms;
+    private final long heardAt;
+
+    public ServerLoad(int serverId, String host, int port, boolean eligible, int connections, int queueDepth,
+            long p99Ms, long heardAt) {
+        this.serverId = serverId;
+        this.host = host;
+        this.port = port;
+        this.eligible = eligible;
+        this.connections = connections;
+        this.queueDepth = queueDepth;
+        this.p99Ms = p99Ms;
+        this.heardAt = heardAt;
+    }
+
+    /**
+     * Parse a split HELLO beacon, or null if it is not one.
+     */
+    public static ServerLoad fromHello(String[] parts, String host, long now) {
+        if (parts.length < 4 || !"HELLO".equals(parts[0]))
+            return null;
+        try {
+            boolean load = parts.length >= 7;
+            return new ServerLoad(Integer.parseInt(parts[1]), host, Integer.parseInt(parts[2]),
+                    Boolean.parseBoolean(parts[3]),
+                    load ? Integer.parseInt(parts[4]) : 0,
+                    load ? Integer.parseInt(parts[5]) : 0,
+                    load ? Long.parseLong(parts[6]) : 0, now);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Single figure to compare servers by; lower is less loaded.
+     */
+    public double score() {
+        return connections + QUEUE_WEIGHT * queueDepth + p99Ms / P99_MS_PER_POINT;
+    }
+
+    /**
+     * Power of two choices: sample two candidates at random and keep the less
+     * loaded one. Spreads load almost as well as always picking the minimum,
+     * without every client stampeding to the same server on stale figures.
+     */
+    public static ServerLoad powerOfTwo(List<ServerLoad> candidates, Random random) {
+        if (candidates.isEmpty())
+            return null;
+        ServerLoad a = candidates.get(random.nextInt(candidates.size()));
+        if (candidates.size() == 1)
+            return a;
+        ServerLoad b;
+        do {
+            b = candidates.get(random.nextInt(candidates.size()));
+        } while (b == a);
+        return b.score() < a.score() ? b : a;
+    }
+
+    public int getServerId() {
+        return serverId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isEligible() {
+        return eligible;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getP99Ms() {
+        return p99Ms;
+    }
+
+    public long getHeardAt() {
+        return heardAt;
+    }
+
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public String toString() {
+        return "Server " + serverId + " (" + getAddress() + ", conns=" + connections + ", queue=" + queueDepth
+                + ", p99=" + p99Ms + "ms)";
+    }
+}
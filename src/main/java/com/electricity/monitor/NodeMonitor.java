@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import com.electricity.db.DBConnection;
 import com.electricity.model.NodeState;
+import com.electricity.service.StateVersion;
 
 /**
  * CORE CONCEPT: Leader-Based Failure Detection with Uncertainty
@@ -20,6 +21,9 @@ import com.electricity.model.NodeState;
  */
 public class NodeMonitor implements Runnable {
 
+    // Deadband clients are silent up to keepalive_sec: the thresholds count from there
+    private static final String QUIET = "(COALESCE(keepalive_sec, 0) + ";
+
     private volatile boolean active = false;
 
     public void setActive(boolean active) {
@@ -48,13 +52,14 @@ public class NodeMonitor implements Runnable {
 
                     // STEP 1: Mark nodes as SUSPECTED if missed one heartbeat
                     String suspectSQL = "UPDATE nodes SET status='SUSPECTED' " +
-                            "WHERE last_seen < (NOW() - INTERVAL " + NodeState.SUSPECT_THRESHOLD + " SECOND) " +
-                            "AND last_seen >= (NOW() - INTERVAL " + NodeState.OFFLINE_THRESHOLD + " SECOND) " +
+                            "WHERE last_seen < (NOW() - INTERVAL " + QUIET + NodeState.SUSPECT_THRESHOLD + ") SECOND) " +
+                            "AND last_seen >= (NOW() - INTERVAL " + QUIET + NodeState.OFFLINE_THRESHOLD + ") SECOND) " +
                             "AND status='ONLINE'";
 
                     try (PreparedStatement ps = conn.prepareStatement(suspectSQL)) {
                         int suspected = ps.executeUpdate();
                         if (suspected > 0) {
+                            StateVersion.bump();
                             System.out.println(
                                     "[Monitor] " + suspected + " node(s) now SUSPECTED (missed heartbeat)");
                         }
@@ -62,15 +67,16 @@ public class NodeMonitor implements Runnable {
 
                     // STEP 2: Mark nodes as OFFLINE if suspected long enough
                     String offlineSQL = "UPDATE nodes SET status='OFFLINE' " +
-                            "WHERE last_seen < (NOW() - INTERVAL " + NodeState.OFFLINE_THRESHOLD + " SECOND) " +
+                            "WHERE last_seen < (NOW() - INTERVAL " + QUIET + NodeState.OFFLINE_THRESHOLD + ") SECOND) " +
                             "AND (status='ONLINE' OR status='SUSPECTED')";
 
                     try (PreparedStatement ps = conn.prepareStatement(offlineSQL)) {
                         int offline = ps.executeUpdate();
                         if (offline > 0) {
+                            StateVersion.bump();
                             System.out.println(
                                     "[Monitor] " + offline + " node(s) confirmed OFFLINE (no heartbeat for " +
-                                            NodeState.OFFLINE_THRESHOLD + "s)");
+                                            NodeState.OFFLINE_THRESHOLD + "s past keepalive)");
                         }
                     }
 
@@ -82,6 +88,7 @@ public class NodeMonitor implements Runnable {
                     try (PreparedStatement ps = conn.prepareStatement(recoveredSQL)) {
                         int recovered = ps.executeUpdate();
                         if (recovered > 0) {
+                            StateVersion.bump();
                             System.out.println("[Monitor] " + recovered + " node(s) RECOVERED from failure!");
                         }
                     }
@@ -92,8 +99,8 @@ public class NodeMonitor implements Runnable {
                             "AND last_seen < (NOW() - INTERVAL 5 SECOND)"; // After 5s, consider fully recovered
 
                     try (PreparedStatement ps = conn.prepareStatement(normalizeSQL)) {
-                        ps.executeUpdate();
-                        // Silent - this is just housekeeping
+                        if (ps.executeUpdate() > 0)
+                            StateVersion.bump(); // Silent - this is just housekeeping
                     }
 
                 } catch (SQLException e) {
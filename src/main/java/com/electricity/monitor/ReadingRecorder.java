@@ -0,0 +1,238 @@
+package com.electricity.monitor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.electricity.db.DBConnection;
+
+/**
+ * Voltage history: every district report this server ingests, kept at three
+ * resolutions so a chart over any range reads a bounded number of rows.
+ *
+ * - node_readings: raw reports, kept -Delectricity.history.rawDays (2)
+ * - node_readings_1m: per-minute min / max / sum / count, kept
+ *   -Delectricity.history.minuteDays (35)
+ * - node_readings_1h: per-hour, kept -Delectricity.history.hourDays (400)
+ *
+ * record() only queues: ingest never waits on the history tables. A
+ * writer thread drains the queue every FLUSH_MS and writes one transaction
+ * per batch: the raw rows, then the rollups. Rollups are summed per
+ * (node, bucket) in memory first, so each node costs one upsert per bucket
+ * per flush, not one per reading. When the queue is full, readings are
+ * dropped and counted rather than slowing ingest down.
+ */
+public class ReadingRecorder {
+
+    /**
+     * A resolution of the history, finest first.
+     */
+    public enum Tier {
+        RAW("node_readings", 1, Long.getLong("electricity.history.rawDays", 2)),
+        MINUTE("node_readings_1m", 60_000L, Long.getLong("electricity.history.minuteDays", 35)),
+        HOUR("node_readings_1h", 3_600_000L, Long.getLong("electricity.history.hourDays", 400));
+
+        private final String table;
+        private final long widthMs;
+        private final long retentionMs;
+
+        Tier(String table, long widthMs, long retentionDays) {
+            this.table = table;
+            this.widthMs = widthMs;
+            this.retentionMs = TimeUnit.DAYS.toMillis(retentionDays);
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public long getWidthMs() {
+            return widthMs;
+        }
+
+        public long getRetentionMs() {
+            return retentionMs;
+        }
+    }
+
+    private static final int QUEUE_MAX = Integer.getInteger("electricity.history.queueMax", 100000);
+    private static final int BATCH_MAX = 5000;
+    private static final long FLUSH_MS = 1000;
+    private static final long PRUNE_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int PRUNE_CHUNK = 10000;
+
+    private static final ReadingRecorder SHARED = new ReadingRecorder();
+
+    private static final class Reading {
+        final String nodeId;
+        final long ts;
+        final double voltage;
+        final String powerState;
+
+        Reading(String nodeId, long ts, double voltage, String powerState) {
+            this.nodeId = nodeId;
+            this.ts = ts;
+            this.voltage = voltage;
+            this.powerState = powerState;
+        }
+    }
+
+    private static final class Rollup {
+        int samples;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum;
+
+        void add(double v) {
+            samples++;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+        }
+    }
+
+    private final BlockingQueue<Reading> queue = new ArrayBlockingQueue<>(QUEUE_MAX);
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean started = false;
+    private long written = 0;
+    private long lastPruneAt = 0;
+
+    public static ReadingRecorder shared() {
+        return SHARED;
+    }
+
+    /**
+     * Queue one reading (ts in epoch ms). Starts the writer on first use.
+     */
+    public void record(String nodeId, long ts, double voltage, String powerState) {
+        if (!started)
+            start();
+        if (!queue.offer(new Reading(nodeId, ts, voltage, powerState))) {
+            long n = dropped.incrementAndGet();
+            if (n == 1 || n % 10000 == 0)
+                System.err.println("[History] Queue full, " + n + " readings dropped so far");
+        }
+    }
+
+    private synchronized void start() {
+        if (started)
+            return;
+        Thread writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        started = true;
+    }
+
+    private void writeLoop() {
+        List<Reading> batch = new ArrayList<>(BATCH_MAX);
+        while (true) {
+            try {
+                Reading first = queue.poll(FLUSH_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    Thread.sleep(FLUSH_MS); // let a batch build up
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_MAX - 1);
+                    write(batch);
+                    batch.clear();
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastPruneAt >= PRUNE_INTERVAL_MS) {
+                    lastPruneAt = now;
+                    prune(now);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (SQLException e) {
+                System.err.println("[History] Dropped " + batch.size() + " readings: " + e.getMessage());
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Reading> batch) throws SQLException {
+        try (Connection conn = DBConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("INSERT IGNORE INTO node_readings "
+                    + "(node_id, ts, voltage, power_state) VALUES (?, ?, ?, ?)")) {
+                for (Reading r : batch) {
+                    ps.setString(1, r.nodeId);
+                    ps.setLong(2, r.ts);
+                    ps.setDouble(3, r.voltage);
+                    ps.setString(4, r.powerState);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            rollup(conn, Tier.MINUTE, batch);
+            rollup(conn, Tier.HOUR, batch);
+            conn.commit();
+        }
+        written += batch.size();
+        if (written % 100000 < batch.size())
+            System.out.println("[History] " + written + " readings recorded");
+    }
+
+    private static void rollup(Connection conn, Tier tier, List<Reading> batch) throws SQLException {
+        Map<String, Map<Long, Rollup>> buckets = new HashMap<>();
+        for (Reading r : batch) {
+            long bucket = r.ts - Math.floorMod(r.ts, tier.widthMs);
+            buckets.computeIfAbsent(r.nodeId, k -> new HashMap<>())
+                    .computeIfAbsent(bucket, k -> new Rollup())
+                    .add(r.voltage);
+        }
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + tier.table
+                + " (node_id, ts, samples, v_min, v_max, v_sum) VALUES (?, ?, ?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE samples = samples + VALUES(samples), v_min = LEAST(v_min, VALUES(v_min)), "
+                + "v_max = GREATEST(v_max, VALUES(v_max)), v_sum = v_sum + VALUES(v_sum)")) {
+            for (Map.Entry<String, Map<Long, Rollup>> node : buckets.entrySet()) {
+                for (Map.Entry<Long, Rollup> b : node.getValue().entrySet()) {
+                    Rollup r = b.getValue();
+                    ps.setString(1, node.getKey());
+                    ps.setLong(2, b.getKey());
+                    ps.setInt(3, r.samples);
+                    ps.setDouble(4, r.min);
+                    ps.setDouble(5, r.max);
+                    ps.setDouble(6, r.sum);
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Drop rows past each tier's retention, a chunk at a time so no single
+     * DELETE holds locks for long.
+     */
+    private void prune(long now) {
+        for (Tier tier : Tier.values()) {
+            try (Connection conn = DBConnection.getConnection();
+                    PreparedStatement ps = conn.prepareStatement(
+                            "DELETE FROM " + tier.table + " WHERE ts < ? LIMIT " + PRUNE_CHUNK)) {
+                ps.setLong(1, now - tier.retentionMs);
+                long total = 0;
+                int n;
+                do {
+                    n = ps.executeUpdate();
+                    total += n;
+                } while (n == PRUNE_CHUNK);
+                if (total > 0)
+                    System.out.println("[History] Pruned " + total + " rows from " + tier.table);
+            } catch (SQLException e) {
+                System.err.println("[History] Pruning " + tier.table + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,277 @@
+package com.electricity.network;
+
+import com.electricity.model.Peer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Long-lived, authenticated connection to one server peer.
+ *
+ * - Authenticates once with AUTH|SERVER_PEER instead of once per message
+ * - Outbound messages go into a bounded queue, so callers never block on I/O
+ * - A dedicated sender thread drains everything queued so far and writes it
+ *   with a single flush (one buffered write per batch)
+ * - Responses are read pipelined by a reader thread and handed to a callback
+ * - Lost connections are re-established with exponential backoff + jitter
+ *
+ * A write that fails part-way may already have delivered some of the batch,
+ * and that cannot be known from this side. So every line goes out as
+ * SEQ|n|message, numbered per channel, and the channel's key is sent with
+ * the AUTH line. After a reconnect the failed batch is resent as it was,
+ * and the receiver drops any n it has already delivered for that key
+ * (deliver()). A message reaches the peer at most once, and nothing from a
+ * failed batch is lost.
+ */
+public class PeerChannel {
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int MAX_BATCH = 512;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int AUTH_TIMEOUT_MS = 3000;
+    private static final int INITIAL_BACKOFF_MS = 200;
+    private static final int MAX_BACKOFF_MS = 10000;
+    private static final int MAX_SENDERS_TRACKED = 1024;
+
+    // Receiving side: channel key -> highest SEQ delivered from that channel
+    private static final Map<String, Long> delivered = Collections
+            .synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > MAX_SENDERS_TRACKED;
+                }
+            });
+
+    private final Peer peer;
+    private final BiConsumer<Peer, String> onResponse;
+    private final LinkedBlockingDeque<String> queue = new LinkedBlockingDeque<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batchesWritten = new AtomicLong();
+    // Identifies this channel to the receiver's duplicate filter (new per instance)
+    private final String key = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private long nextSeq = 1; // sender thread only
+
+    private volatile boolean running = false;
+    private volatile boolean connected = false;
+    private volatile Socket socket;
+    private Thread senderThread;
+
+    public PeerChannel(Peer peer, BiConsumer<Peer, String> onResponse) {
+        this.peer = peer;
+        this.onResponse = onResponse;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        senderThread = new Thread(this::senderLoop, "peer-channel-" + peer.getId());
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    /**
+     * Queue a message for the peer. Never blocks; returns false if the queue is
+     * full and the message had to be dropped.
+     */
+    public boolean send(String msg) {
+        if (queue.offerLast(msg))
+            return true;
+        long n = dropped.incrementAndGet();
+        if (n == 1 || n % 1000 == 0) {
+            System.err.println("  [CHANNEL] Queue to peer " + peer.getId() + " full, dropped " + n + " message(s)");
+        }
+        return false;
+    }
+
+    public void close() {
+        running = false;
+        closeSocket();
+        if (senderThread != null)
+            senderThread.interrupt();
+    }
+
+    public Peer getPeer() {
+        return peer;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    private void senderLoop() {
+        // Framed lines of the current batch. Kept across a reconnect if the
+        // write fails, so they are resent with the same SEQ numbers
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        List<String> drained = new ArrayList<>(MAX_BATCH);
+        int backoff = INITIAL_BACKOFF_MS;
+
+        while (running) {
+            try {
+                BufferedWriter out = connect();
+                backoff = INITIAL_BACKOFF_MS;
+
+                while (running) {
+                    if (batch.isEmpty()) {
+                        String first = queue.pollFirst(1, TimeUnit.SECONDS);
+                        if (first == null) {
+                            // Idle: notice a connection the reader already saw die
+                            if (!connected)
+                                throw new IOException("connection closed by peer");
+                            continue;
+                        }
+                        drained.add(first);
+                        queue.drainTo(drained, MAX_BATCH - 1);
+                        for (String m : drained) {
+                            batch.add("SEQ|" + nextSeq++ + "|" + m);
+                        }
+                        drained.clear();
+                    }
+
+                    for (String m : batch) {
+                        out.write(m);
+                        out.write('\n');
+                    }
+                    out.flush();
+                    batchesWritten.incrementAndGet();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                if (connected) {
+                    System.err.println("  [CHANNEL] Lost link to peer " + peer.getId() + ": " + e.getMessage());
+                }
+                closeSocket();
+                if (!running)
+                    break;
+                try {
+                    // Exponential backoff with jitter so peers don't reconnect in lockstep
+                    Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextInt(backoff / 2 + 1));
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+        closeSocket();
+    }
+
+    private BufferedWriter connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(peer.getHost(), peer.getPort()), CONNECT_TIMEOUT_MS);
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(AUTH_TIMEOUT_MS);
+
+            BufferedWriter out = new BufferedWriter(
+                    new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+
+            // Authenticate as server peer (once per connection)
+            out.write("AUTH|SERVER_PEER|" + key + "\n");
+            out.flush();
+            String authResponse = in.readLine();
+            if (authResponse == null || !authResponse.equals("AUTH_OK")) {
+                throw new IOException("auth rejected: " + authResponse);
+            }
+            s.setSoTimeout(0);
+
+            socket = s;
+            connected = true;
+            System.out.println("  [CHANNEL] Connected to peer " + peer.getId() + " at " + peer.getHost() + ":"
+                    + peer.getPort());
+            startReader(s, in);
+            return out;
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    private void startReader(Socket s, BufferedReader in) {
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (onResponse != null) {
+                        try {
+                            onResponse.accept(peer, line);
+                        } catch (Exception e) {
+                            System.err.println("  [CHANNEL] Response handler error: " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+                // Socket closed - sender will reconnect
+            } finally {
+                if (socket == s)
+                    connected = false;
+            }
+        }, "peer-reader-" + peer.getId());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Receiving side: the message carried by a line from the channel with
+     * this key, or null if that SEQ was already delivered (a resend after a
+     * reconnect). Lines without a SEQ frame pass through unchanged.
+     */
+    public static String deliver(String senderKey, String line) {
+        if (senderKey == null || !line.startsWith("SEQ|"))
+            return line;
+        int sep = line.indexOf('|', 4);
+        if (sep < 0)
+            return line;
+        long seq = Long.parseLong(line.substring(4, sep));
+        synchronized (delivered) {
+            Long highest = delivered.get(senderKey);
+            if (highest != null && seq <= highest)
+                return null;
+            delivered.put(senderKey, seq);
+        }
+        return line.substring(sep + 1);
+    }
+
+    private void closeSocket() {
+        connected = false;
+        Socket s = socket;
+        socket = null;
+        try {
+            if (s != null)
+                s.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -5,15 +5,28 @@ import java.net.*;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.electricity.db.DBConnection;
+import com.electricity.monitor.ReadingRecorder;
+import com.electricity.network.PeerChannel;
 import com.electricity.service.ElectionManager;
+import com.electricity.service.EventFeed;
+import com.electricity.service.StateVersion;
+import com.electricity.sync.HybridLogicalClock;
 
 public class ClientHandler implements Runnable {
 
     private Socket clientSocket;
     private int clientNumber;
     private ElectionManager electionManager;
+    private volatile PrintWriter out;
+    private volatile String districtId; // from AUTH or the last REPORT
+    private volatile boolean migrated = false;
+    private static final long REPLICATION_TIMEOUT_MS = 5000;
+    // Clock for servers running without a cluster (ElectionManager supplies the shared one)
+    private static final HybridLogicalClock STANDALONE_CLOCK = new HybridLogicalClock();
     private static final DateTimeFormatter DATETIME_PARSER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
 
     public ClientHandler(Socket socket, int clientNumber) {
@@ -33,36 +46,65 @@ public class ClientHandler implements Runnable {
         try (
                 BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
                 PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+            this.out = out;
 
             // 1. SECURITY: Authentication handshake
             String authLine = in.readLine();
             boolean isServerPeer = false;
 
-            if (authLine != null && authLine.equals("AUTH|SERVER_PEER")) {
+            String peerKey = null;
+            if (authLine != null && (authLine.equals("AUTH|SERVER_PEER") || authLine.startsWith("AUTH|SERVER_PEER|"))) {
                 if (electionManager == null) {
                     out.println("ERR|NO_ELECTION_SUPPORT");
                     return;
                 }
                 isServerPeer = true;
+                // AUTH|SERVER_PEER|key: a PeerChannel, whose SEQ frames are deduplicated per key
+                if (authLine.length() > "AUTH|SERVER_PEER|".length())
+                    peerKey = authLine.substring("AUTH|SERVER_PEER|".length());
                 out.println("AUTH_OK");
                 System.out.println("[Client #" + clientNumber + "] Server Peer Authenticated.");
-            } else if (authLine == null || !authLine.equals("AUTH|GRID_SEC_2025")) {
+            } else if (authLine == null || !(authLine.equals("AUTH|GRID_SEC_2025")
+                    || authLine.startsWith("AUTH|GRID_SEC_2025|"))) {
                 System.out.println("[Client #" + clientNumber + "] Authentication Failed. Closing.");
                 out.println("ERR|AUTH_FAILED");
                 return; // Close connection
             } else {
+                // AUTH|GRID_SEC_2025|nodeId: send the district to its owner straight away
+                String[] auth = authLine.split("\\|");
+                String moved = auth.length > 2 ? movedResponse(auth[2]) : null;
+                if (moved != null) {
+                    System.out.println("[Client #" + clientNumber + "] District " + auth[2] + " redirected: " + moved);
+                    out.println(moved);
+                    return;
+                }
+                if (auth.length > 2)
+                    districtId = auth[2];
                 out.println("AUTH_OK");
                 System.out.println("[Client #" + clientNumber + "] Authenticated successfully.");
+                LoadStats.clientConnected(this);
             }
 
             String line;
             while ((line = in.readLine()) != null) {
-                System.out.println("[Client #" + clientNumber + "] Received: " + line);
-
-                if (isServerPeer && electionManager != null) {
-                    String response = electionManager.processMessage(line);
+                if (isServerPeer && electionManager != null && line.equals("SNAPSHOT_REQ")) {
+                    // A joining server wants our state: stream it on this connection
+                    System.out.println("[Client #" + clientNumber + "] Streaming snapshot to joining peer");
+                    electionManager.streamSnapshot(clientSocket.getOutputStream());
+                } else if (isServerPeer && electionManager != null) {
+                    // Replication traffic is high-volume: not logged line by line
+                    line = PeerChannel.deliver(peerKey, line);
+                    if (line == null)
+                        continue; // resent after a reconnect, already handled
+                    String response;
+                    try {
+                        response = electionManager.processMessage(line);
+                    } catch (RuntimeException e) {
+                        response = "ERR|PEER|" + e.getMessage();
+                    }
                     out.println(response);
                 } else {
+                    System.out.println("[Client #" + clientNumber + "] Received: " + line);
                     String response = handleMessage(line);
                     out.println(response);
                 }
@@ -76,6 +118,9 @@ public class ClientHandler implements Runnable {
                 e.printStackTrace();
             }
         } finally {
+            LoadStats.clientDisconnected(this);
+            if (!migrated)
+                suspectOnDisconnect();
             try {
                 clientSocket.close();
             } catch (IOException ignored) {
@@ -94,12 +139,11 @@ public class ClientHandler implements Runnable {
         try {
             switch (type) {
                 case "REPORT":
-                    return handleReport(parts);
                 case "OUTAGE":
-                    return handleOutage(parts);
+                case "ANOMALY":
                 // Legacy support if needed, but REPORT is new standard
                 case "HEARTBEAT":
-                    return handleReportLegacy(parts);
+                    return ingest(type, parts);
                 default:
                     return "ERR|UnknownType";
             }
@@ -109,32 +153,80 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Ingest requests are counted in flight and timed for the load beacon.
+     */
+    private String ingest(String type, String[] parts) {
+        long start = System.nanoTime();
+        LoadStats.ingestStarted();
+        try {
+            switch (type) {
+                case "REPORT":
+                    return handleReport(parts);
+                case "OUTAGE":
+                case "ANOMALY":
+                    return handleOutage(parts);
+                default:
+                    return handleReportLegacy(parts);
+            }
+        } finally {
+            LoadStats.ingestFinished(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Ask this client to reconnect to a less loaded server (ERR|MOVED|host:port).
+     */
+    void migrate(String target) {
+        PrintWriter o = out;
+        if (o != null) {
+            System.out.println("[Client #" + clientNumber + "] Migrating client to " + target);
+            migrated = true;
+            o.println("ERR|MOVED|" + target);
+        }
+    }
+
     private String handleReport(String[] p) {
-        // REPORT|nodeId|voltage|powerState
+        // REPORT|nodeId|voltage|powerState[|keepaliveSec]
         if (p.length < 4)
             return "ERR|RPT|BadFormat";
 
         String nodeId = p[1];
+        String moved = movedResponse(nodeId);
+        if (moved != null)
+            return moved;
+        districtId = nodeId;
         double voltage = Double.parseDouble(p[2]); // new field
         String powerState = p[3];
+        // Deadband clients stay quiet up to their keepalive; older clients report every 10s
+        int keepaliveSec = p.length > 4 && !p[4].isEmpty() ? Integer.parseInt(p[4]) : 0;
         // We will store Voltage in 'last_load_percent' column (repurposed) or
         // 'transformer_health' as metadata
         // Let's store voltage in transformer_health as string "220.5V"
 
-        // Simulating Lamport Logical Clock (ordering events)
-        long logicalTime = System.currentTimeMillis();
-
         System.out.println("[Central Authority] Processing Report from District " + nodeId + " (Voltage: " + voltage
                 + "V, State: " + powerState + ")");
 
-        // Update Database (Central Truth)
+        if (electionManager != null) {
+            // Propose first: the database is written when the change is applied
+            // (by the leader), and we ACK only once it has been applied here
+            if (!awaitReplication(electionManager.replicateReport(nodeId, powerState, "0",
+                    String.format("%.1fV", voltage), keepaliveSec))) {
+                return "ERR|NOT_COMMITTED";
+            }
+            return "OK|ACK_REPORT";
+        }
+
+        // Standalone server: the only writer, update Database (Central Truth) directly
+        // Hybrid logical clock: causally ordered across servers, close to wall time
+        long logicalTime = HybridLogicalClock.physicalMillis(clock().now());
         try (Connection conn = DBConnection.getConnection()) {
-            String upsert = "INSERT INTO nodes (node_id, last_seen, last_power_state, last_load_percent, transformer_health, status) "
+            String upsert = "INSERT INTO nodes (node_id, last_seen, last_power_state, last_load_percent, transformer_health, keepalive_sec, status) "
                     +
-                    "VALUES (?, ?, ?, ?, ?, 'ONLINE') " +
+                    "VALUES (?, ?, ?, ?, ?, ?, 'ONLINE') " +
                     "ON DUPLICATE KEY UPDATE last_seen=VALUES(last_seen), last_power_state=VALUES(last_power_state), " +
-                    "transformer_health=VALUES(transformer_health), status='ONLINE'"; // last_load_percent
-                                                                                      // ignored/preserved
+                    "transformer_health=VALUES(transformer_health), keepalive_sec=VALUES(keepalive_sec), status='ONLINE'"; // last_load_percent
+                                                                                                                          // ignored/preserved
 
             try (PreparedStatement ps = conn.prepareStatement(upsert)) {
                 Timestamp now = new Timestamp(logicalTime);
@@ -143,8 +235,14 @@ public class ClientHandler implements Runnable {
                 ps.setString(3, powerState);
                 ps.setInt(4, 0); // Unused load
                 ps.setString(5, String.format("%.1fV", voltage));
+                if (keepaliveSec > 0)
+                    ps.setInt(6, keepaliveSec);
+                else
+                    ps.setNull(6, Types.INTEGER);
                 ps.executeUpdate();
             }
+            StateVersion.bump();
+            ReadingRecorder.shared().record(nodeId, logicalTime, voltage, powerState);
             return "OK|ACK_REPORT";
         } catch (SQLException e) {
             System.err.println("Database Write Error: " + e.getMessage());
@@ -166,37 +264,131 @@ public class ClientHandler implements Runnable {
         if (p.length < 6)
             return "ERR|OUTAGE|BadFormat";
         // OUTAGE|eventId|nodeId|eventType|timestamp|meta
+        // ANOMALY|eventId|nodeId|SAG_START/SAG_END/SWELL_START/SWELL_END|timestamp|detail
         // Just log and store. Server is authority.
         String eventId = p[1];
         String nodeId = p[2];
         String type = p[3];
+        String moved = movedResponse(nodeId);
+        if (moved != null)
+            return moved;
+
+        // Retransmitted after a lost ACK: acknowledge it again, explicitly, without storing it twice
+        String ack = "OK|ACK_" + p[0].trim().toUpperCase();
+        String duplicate = ack + "|DUP";
 
         System.out.println("[Central Authority] ALERT: District " + nodeId + " reported " + type);
+        long eventHlc = clock().now();
 
+        if (electionManager != null) {
+            if (electionManager.isKnownEvent(eventId))
+                return duplicate;
+            // Propose first; the event is stored and published when applied
+            if (!awaitReplication(electionManager.replicateOutage(eventId, nodeId, type, p[4], p[5], eventHlc))) {
+                return "ERR|NOT_COMMITTED";
+            }
+            return ack;
+        }
+
+        // Standalone server: store it directly
         try (Connection conn = DBConnection.getConnection()) {
+            if (eventStored(conn, eventId))
+                return duplicate;
             // Logic simplified: Just insert event
-            String insertEvent = "INSERT INTO events (event_id, node_id, event_type, timestamp, metadata) VALUES (?, ?, ?, ?, ?)";
+            String insertEvent = "INSERT INTO events (event_id, node_id, event_type, timestamp, metadata, hlc) VALUES (?, ?, ?, ?, ?, ?)";
             try (PreparedStatement ps = conn.prepareStatement(insertEvent)) {
                 ps.setString(1, eventId);
                 ps.setString(2, nodeId);
                 ps.setString(3, type);
-                ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                ps.setTimestamp(4, new Timestamp(HybridLogicalClock.physicalMillis(eventHlc)));
                 ps.setString(5, p[5]);
+                ps.setLong(6, eventHlc);
                 ps.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException raced) {
+                return duplicate; // another connection stored the same event just now
             }
 
             // Update node state
-            if (type.contains("START"))
-                updateNodeState(conn, nodeId, "OFF");
-            else if (type.contains("END"))
+            if (type.contains("END"))
                 updateNodeState(conn, nodeId, "NORMAL");
+            else if (type.startsWith("SAG"))
+                updateNodeState(conn, nodeId, "LOW");
+            else if (type.startsWith("SWELL"))
+                updateNodeState(conn, nodeId, "HIGH");
+            else if (type.contains("START"))
+                updateNodeState(conn, nodeId, "OFF");
+            StateVersion.bump();
 
-            return "OK|ACK_OUTAGE";
+            EventFeed.publish(String.join("|", p));
+            return ack;
         } catch (SQLException e) {
             return "ERR|DB|" + e.getMessage();
         }
     }
 
+    private HybridLogicalClock clock() {
+        return electionManager != null ? electionManager.getClock() : STANDALONE_CLOCK;
+    }
+
+    /**
+     * ERR|MOVED|host:port if another server owns this district (ring
+     * partitioning), otherwise null. A redirected client is leaving, not
+     * failing: its disconnect does not make the district SUSPECTED.
+     */
+    private String movedResponse(String nodeId) {
+        if (electionManager == null)
+            return null;
+        com.electricity.model.Peer owner = electionManager.redirectFor(nodeId);
+        if (owner == null)
+            return null;
+        migrated = true;
+        return "ERR|MOVED|" + owner.getHost() + ":" + owner.getPort();
+    }
+
+    private boolean awaitReplication(CompletableFuture<Boolean> replicated) {
+        try {
+            return replicated.get(REPLICATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * A dropped link is the earliest sign of trouble: with deadband reporting
+     * the next REPORT may be a keepalive away, so mark the district SUSPECTED
+     * now. Its first report after reconnecting (anywhere) sets it ONLINE.
+     * In a cluster the change is replicated like a report, so every cache
+     * sees it and only the leader writes the database.
+     */
+    private void suspectOnDisconnect() {
+        String nodeId = districtId;
+        if (nodeId == null)
+            return;
+        System.out.println("[Client #" + clientNumber + "] District " + nodeId + " disconnected, marking it SUSPECTED");
+        if (electionManager != null) {
+            electionManager.replicateSuspect(nodeId);
+            return;
+        }
+        try (Connection conn = DBConnection.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE nodes SET status='SUSPECTED' WHERE node_id = ? AND status='ONLINE'")) {
+            ps.setString(1, nodeId);
+            if (ps.executeUpdate() > 0)
+                StateVersion.bump();
+        } catch (SQLException e) {
+            // The monitor will catch it on keepalive expiry
+        }
+    }
+
+    private static boolean eventStored(Connection conn, String eventId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM events WHERE event_id = ?")) {
+            ps.setString(1, eventId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
     private void updateNodeState(Connection conn, String nodeId, String powerState) throws SQLException {
         String update = "UPDATE nodes SET last_power_state = ?, last_seen = NOW() WHERE node_id = ?";
         try (PreparedStatement ps = conn.prepareStatement(update)) {
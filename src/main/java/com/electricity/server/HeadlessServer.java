@@ -3,7 +3,9 @@ package com.electricity.server;
 import com.electricity.db.DBConnection;
 import com.electricity.monitor.NodeMonitor;
 import com.electricity.service.DiscoveryService;
+import com.electricity.service.MembershipTable;
 import com.electricity.service.ElectionManager;
+import com.electricity.service.SwimMembership;
 import com.electricity.model.Peer;
 import com.electricity.server.web.SimpleWebServer;
 
@@ -11,6 +13,8 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -23,6 +27,10 @@ public class HeadlessServer {
     private static ServerSocket serverSocket;
     private static ElectionManager electionManager;
     private static DiscoveryService discoveryService;
+    private static SimpleWebServer webServer;
+    private static SwimMembership swim;
+    private static LoadBalancer loadBalancer;
+    private static final int SWIM_PORT_OFFSET = 1000;
 
     public static void main(String[] args) {
         System.out.println("Starting Headless Distributed Server...");
@@ -53,7 +61,7 @@ public class HeadlessServer {
         DBConnection.configure(dbHost);
 
         // 2. Start Web Server (The Browser Interface)
-        SimpleWebServer webServer = new SimpleWebServer(webPort);
+        webServer = new SimpleWebServer(webPort);
         webServer.start();
 
         // 3. Start Core Server Logic
@@ -80,23 +88,67 @@ public class HeadlessServer {
                 serverSocket = ss;
                 System.out.println("Utility HQ Server (Central Authority) listening on port " + port);
 
-                // No ElectionManager needed for Central Authority
-                // No DiscoveryService needed (Clients connect directly to HQ)
+                // Peer servers (static config + discovery) share a persistent channel each,
+                // so client reports are replicated without a handshake per message
+                NodeMonitor monitor = new NodeMonitor();
+                electionManager = new ElectionManager(myId, monitor);
+                webServer.setElectionManager(electionManager); // dashboard reads from the replicated cache
+                addConfiguredPeers(peersStr);
+                boolean partitioned = "ring".equalsIgnoreCase(System.getProperty("electricity.partition", "none"));
+                if (partitioned) {
+                    // Every server takes clients; districts are redirected to their ring owner
+                    electionManager.enablePartitioning(new Peer(myId, advertisedHost(), port));
+                }
 
                 int clientCounter = 0;
 
+                // Server membership follows either the multicast beacon or SWIM
+                MembershipTable.Listener membershipListener = new MembershipTable.Listener() {
+                    @Override
+                    public void onJoin(Peer peer) {
+                        electionManager.addPeerIfNotExists(peer);
+                    }
+
+                    @Override
+                    public void onLeave(Peer peer) {
+                        electionManager.removePeer(peer.getId());
+                    }
+                };
+                boolean swimMode = "swim".equalsIgnoreCase(System.getProperty("electricity.membership", "multicast"));
+                if (swimMode) {
+                    startSwim(myId, port, peersStr, membershipListener);
+                }
+
                 // START DISCOVERY BEACON (Announce Presence)
                 // We broadcast "HELLO|ID|PORT|true" so clients can find us
-                DiscoveryService beacon = new DiscoveryService(myId, port, (peer) -> {
-                }, () -> true);
+                // (in SWIM mode the beacon is only for clients on the local segment)
+                DiscoveryService beacon = new DiscoveryService(myId, port, null, () -> true);
+                if (!swimMode)
+                    beacon.addMembershipListener(membershipListener);
+                beacon.setLoadSupplier(LoadStats::beaconFields);
+                if (!partitioned) {
+                    // Without a ring, shed clients to less loaded servers
+                    loadBalancer = new LoadBalancer(myId);
+                    beacon.setLoadListener(loadBalancer::onBeacon);
+                    loadBalancer.start();
+                }
+                discoveryService = beacon;
                 new Thread(beacon).start();
 
+                new Thread(monitor).start();
+                new Thread(() -> {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {
+                    }
+                    electionManager.startElection();
+                }).start();
+
                 while (running) {
                     try {
                         Socket socket = serverSocket.accept();
                         clientCounter++;
-                        // Pass null for elections - we are the Authority
-                        ClientHandler handler = new ClientHandler(socket, clientCounter, null);
+                        ClientHandler handler = new ClientHandler(socket, clientCounter, electionManager);
                         new Thread(handler).start();
                     } catch (SocketException se) {
                         if (running)
@@ -116,6 +168,65 @@ public class HeadlessServer {
         }).start();
     }
 
+    private static void addConfiguredPeers(String peersStr) {
+        // Format: id:host:port,id:host:port
+        if (peersStr == null || peersStr.isEmpty() || "none".equalsIgnoreCase(peersStr))
+            return;
+        for (String p : peersStr.split(",")) {
+            try {
+                String[] parts = p.trim().split(":");
+                if (parts.length == 3) {
+                    electionManager.addPeer(new Peer(Integer.parseInt(parts[0]), parts[1], Integer.parseInt(parts[2])));
+                }
+            } catch (Exception ex) {
+                System.err.println("Skipping invalid peer config: " + p);
+            }
+        }
+    }
+
+    /**
+     * SWIM membership over UDP on -Delectricity.swim.port (default TCP port +
+     * 1000). Seeds come from -Delectricity.swim.seeds=host:udpPort,... or,
+     * failing that, from the configured peers at their TCP port + 1000.
+     */
+    private static void startSwim(int myId, int port, String peersStr, MembershipTable.Listener listener)
+            throws IOException {
+        int swimPort = Integer.getInteger("electricity.swim.port", port + SWIM_PORT_OFFSET);
+        List<String> seeds = new ArrayList<>();
+        String seedConfig = System.getProperty("electricity.swim.seeds");
+        if (seedConfig != null) {
+            for (String seed : seedConfig.split(",")) {
+                if (!seed.trim().isEmpty())
+                    seeds.add(seed.trim());
+            }
+        } else if (peersStr != null && !"none".equalsIgnoreCase(peersStr)) {
+            for (String p : peersStr.split(",")) {
+                String[] parts = p.trim().split(":");
+                if (parts.length == 3)
+                    seeds.add(parts[1] + ":" + (Integer.parseInt(parts[2]) + SWIM_PORT_OFFSET));
+            }
+        }
+
+        SwimMembership.UdpTransport transport = new SwimMembership.UdpTransport(swimPort);
+        swim = new SwimMembership(myId, advertisedHost(), swimPort, port, transport, System.nanoTime());
+        swim.setSeeds(seeds);
+        swim.addListener(listener);
+        transport.start(swim);
+        new Thread(swim).start();
+        System.out.println("[SWIM] Membership on UDP port " + swimPort + ", seeds " + seeds);
+    }
+
+    private static String advertisedHost() {
+        String host = System.getProperty("electricity.advertiseHost");
+        if (host != null)
+            return host;
+        try {
+            return java.net.InetAddress.getLocalHost().getHostAddress();
+        } catch (IOException e) {
+            return "127.0.0.1";
+        }
+    }
+
     private static void shutdown() {
         System.out.println("Shutting down...");
         try {
@@ -123,6 +234,12 @@ public class HeadlessServer {
                 serverSocket.close();
             if (discoveryService != null)
                 discoveryService.stop();
+            if (swim != null)
+                swim.stop();
+            if (loadBalancer != null)
+                loadBalancer.stop();
+            if (electionManager != null)
+                electionManager.shutdown();
         } catch (IOException e) {
             e.printStackTrace();
         }
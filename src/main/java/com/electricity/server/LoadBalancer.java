@@ -0,0 +1,112 @@
+package com.electricity.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.electricity.model.ServerLoad;
+
+/**
+ * Spreads clients over the ingest servers.
+ *
+ * Every REBALANCE_MS the server compares its own connection count with the
+ * average over the servers it hears beacons from. If it holds noticeably more
+ * than its share (above avg * SLACK and at least MIN_EXCESS clients over), it
+ * tells the excess clients to migrate with ERR|MOVED|host:port, picking each
+ * target by power of two choices. Clients already follow MOVED (ring
+ * partitioning), so no new client protocol is needed.
+ *
+ * Not used with ring partitioning, where the ring decides who owns a district.
+ */
+public class LoadBalancer {
+    private static final long REBALANCE_MS = 5000;
+    private static final long PEER_LOAD_TTL_MS = 30000;
+    private static final double SLACK = Double.parseDouble(System.getProperty("electricity.balance.slack", "1.2"));
+    private static final int MIN_EXCESS = 2;
+    private static final int MAX_MOVES_PER_ROUND = 50;
+
+    private final int myId;
+    private final Map<Integer, ServerLoad> peers = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private volatile boolean running = true;
+    private long lastMigrationAt = 0;
+
+    public LoadBalancer(int myId) {
+        this.myId = myId;
+    }
+
+    /**
+     * Feed every HELLO heard on the discovery channel.
+     */
+    public void onBeacon(ServerLoad load) {
+        if (load.getServerId() != myId && load.isEligible())
+            peers.put(load.getServerId(), load);
+    }
+
+    public void start() {
+        Thread t = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(REBALANCE_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                rebalance();
+            }
+        }, "load-balancer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void rebalance() {
+        long now = System.currentTimeMillis();
+        peers.values().removeIf(p -> now - p.getHeardAt() > PEER_LOAD_TTL_MS);
+        List<ServerLoad> targets = new ArrayList<>(peers.values());
+        if (targets.isEmpty())
+            return;
+
+        int mine = LoadStats.getConnections();
+        int total = mine;
+        for (ServerLoad p : targets) {
+            total += p.getConnections();
+        }
+        double average = total / (double) (targets.size() + 1);
+        if (mine <= average * SLACK || mine - average < MIN_EXCESS)
+            return;
+
+        // Only servers clearly below us are worth moving to, and only on figures
+        // heard after our last round (otherwise we would shed the same excess twice)
+        targets.removeIf(p -> p.getConnections() >= mine - 1 || p.getHeardAt() <= lastMigrationAt);
+        if (targets.isEmpty())
+            return;
+
+        int moves = Math.min(MAX_MOVES_PER_ROUND, (int) Math.floor(mine - average));
+        System.out.println("[BALANCE] " + mine + " clients here, cluster average " + String.format("%.1f", average)
+                + ": migrating " + moves);
+
+        // Count our own moves against the targets, so one round does not pile onto one server
+        lastMigrationAt = now;
+        Map<Integer, Integer> assigned = new HashMap<>();
+        for (ClientHandler client : LoadStats.clients()) {
+            if (moves-- <= 0)
+                break;
+            List<ServerLoad> adjusted = new ArrayList<>();
+            for (ServerLoad p : targets) {
+                int extra = assigned.getOrDefault(p.getServerId(), 0);
+                adjusted.add(extra == 0 ? p
+                        : new ServerLoad(p.getServerId(), p.getHost(), p.getPort(), true, p.getConnections() + extra,
+                                p.getQueueDepth(), p.getP99Ms(), p.getHeardAt()));
+            }
+            ServerLoad target = ServerLoad.powerOfTwo(adjusted, random);
+            assigned.merge(target.getServerId(), 1, Integer::sum);
+            client.migrate(target.getAddress());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.electricity.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live ingest load of this server, advertised in the discovery beacon:
+ * - connected clients (districts, not peer servers)
+ * - ingest queue depth: REPORT / OUTAGE requests in progress
+ * - p99 ingest latency over the last LATENCY_SAMPLES requests
+ */
+public final class LoadStats {
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private static final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final long[] latencies = new long[LATENCY_SAMPLES];
+    private static final AtomicLong samples = new AtomicLong();
+
+    private LoadStats() {
+    }
+
+    static void clientConnected(ClientHandler handler) {
+        clients.add(handler);
+    }
+
+    static void clientDisconnected(ClientHandler handler) {
+        clients.remove(handler);
+    }
+
+    static void ingestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    static void ingestFinished(long nanos) {
+        inFlight.decrementAndGet();
+        latencies[(int) (samples.getAndIncrement() % LATENCY_SAMPLES)] = nanos;
+    }
+
+    static Collection<ClientHandler> clients() {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    public static int getConnections() {
+        return clients.size();
+    }
+
+    public static int getQueueDepth() {
+        return inFlight.get();
+    }
+
+    public static long getP99Millis() {
+        int n = (int) Math.min(samples.get(), LATENCY_SAMPLES);
+        if (n == 0)
+            return 0;
+        long[] copy = Arrays.copyOf(latencies, n);
+        Arrays.sort(copy);
+        return copy[Math.min(n - 1, (int) Math.ceil(n * 0.99) - 1)] / 1_000_000;
+    }
+
+    /**
+     * connections|queueDepth|p99Ms - appended to HELLO|id|port|leader.
+     */
+    public static String beaconFields() {
+        return getConnections() + "|" + getQueueDepth() + "|" + getP99Millis();
+    }
+}
@@ -6,15 +6,20 @@ import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.Vector;
 
 import com.electricity.service.ElectionManager;
 import com.electricity.service.DiscoveryService;
+import com.electricity.service.MembershipTable;
+import com.electricity.service.NodeQuery;
 import com.electricity.db.DBConnection;
 import com.electricity.monitor.NodeMonitor;
 import com.electricity.model.Peer;
 import com.electricity.server.ClientHandler;
+import com.electricity.server.LoadStats;
 
 public class ServerGUI extends JFrame {
     private JTextArea logArea;
@@ -31,6 +36,20 @@ public class ServerGUI extends JFrame {
     private volatile boolean running = false;
     private ElectionManager electionManager;
     private DiscoveryService discoveryService;
+    private static final long MAX_STALENESS_MS = Long.getLong("electricity.read.maxStalenessMs", 5000);
+    private static final int PAGE_SIZE = Integer.getInteger("electricity.gui.pageSize", 200);
+
+    // Dashboard paging (Swing thread writes, refresher thread reads)
+    private JComboBox<String> statusFilter;
+    private JTextField regionFilter;
+    private JButton prevButton;
+    private JButton nextButton;
+    private JLabel pageLabel;
+    private volatile String filterStatus;
+    private volatile String filterRegion;
+    private volatile String pageCursor; // null = first page
+    private volatile String nextCursor;
+    private final Deque<String> previousCursors = new ArrayDeque<>(); // "" = first page
 
     public ServerGUI() {
         setTitle("Electricity Monitoring Server");
@@ -91,9 +110,46 @@ public class ServerGUI extends JFrame {
         dashboardTable = new JTable(tableModel);
         dashboardTable.setFillsViewportHeight(true);
         JScrollPane tableScrollPane = new JScrollPane(dashboardTable);
-        tableScrollPane.setBorder(BorderFactory.createTitledBorder("Live Grid Status"));
 
-        splitPane.setTopComponent(tableScrollPane);
+        // Filters and paging: the table only ever holds one page of the fleet
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusFilter = new JComboBox<>(new String[] { "All", "ONLINE", "SUSPECTED", "OFFLINE" });
+        statusFilter.addActionListener(e -> applyFilters());
+        regionFilter = new JTextField(10);
+        regionFilter.addActionListener(e -> applyFilters());
+        prevButton = new JButton("< Prev");
+        prevButton.setEnabled(false);
+        prevButton.addActionListener(e -> {
+            if (!previousCursors.isEmpty()) {
+                String cursor = previousCursors.pop();
+                pageCursor = cursor.isEmpty() ? null : cursor;
+                refreshNow();
+            }
+        });
+        nextButton = new JButton("Next >");
+        nextButton.setEnabled(false);
+        nextButton.addActionListener(e -> {
+            if (nextCursor != null) {
+                previousCursors.push(pageCursor == null ? "" : pageCursor);
+                pageCursor = nextCursor;
+                refreshNow();
+            }
+        });
+        pageLabel = new JLabel();
+        filterPanel.add(new JLabel("Status:"));
+        filterPanel.add(statusFilter);
+        filterPanel.add(new JLabel("Region:"));
+        filterPanel.add(regionFilter);
+        filterPanel.add(prevButton);
+        filterPanel.add(nextButton);
+        filterPanel.add(pageLabel);
+
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.setBorder(BorderFactory.createTitledBorder("Live Grid Status"));
+        tablePanel.add(filterPanel, BorderLayout.NORTH);
+        tablePanel.add(tableScrollPane, BorderLayout.CENTER);
+
+        splitPane.setTopComponent(tablePanel);
 
         add(splitPane, BorderLayout.CENTER);
 
@@ -213,6 +269,17 @@ public class ServerGUI extends JFrame {
                 discoveryService = new DiscoveryService(myId, port, (peer) -> {
                     electionManager.addPeerIfNotExists(peer);
                 }, () -> electionManager.isLeader());
+                discoveryService.setLoadSupplier(LoadStats::beaconFields);
+                discoveryService.addMembershipListener(new MembershipTable.Listener() {
+                    @Override
+                    public void onJoin(Peer peer) {
+                    }
+
+                    @Override
+                    public void onLeave(Peer peer) {
+                        electionManager.removePeer(peer.getId());
+                    }
+                });
                 new Thread(discoveryService).start();
                 System.out.println("Discovery Service started.");
 
@@ -259,6 +326,8 @@ public class ServerGUI extends JFrame {
                 running = false;
                 if (discoveryService != null)
                     discoveryService.stop();
+                if (electionManager != null)
+                    electionManager.shutdown();
                 SwingUtilities.invokeLater(() -> {
                     startButton.setEnabled(true);
                     idField.setEnabled(true);
@@ -278,51 +347,80 @@ public class ServerGUI extends JFrame {
         while (running) {
             try {
                 Thread.sleep(2000); // Update every 2 seconds
-                // Fetch data from database instead of just in-memory cache
-                SwingUtilities.invokeLater(() -> updateTableFromDatabase());
+                refreshDashboard();
             } catch (Exception e) {
                 // ignore
             }
         }
     }
 
-    private void updateTableFromDatabase() {
-        try (java.sql.Connection conn = DBConnection.getConnection()) {
-            String query = "SELECT node_id, status, last_load_percent, last_power_state, transformer_health, " +
-                    "DATE_FORMAT(last_seen, '%H:%i:%s') as last_seen_time " +
-                    "FROM nodes ORDER BY node_id";
-
-            try (java.sql.Statement stmt = conn.createStatement();
-                    java.sql.ResultSet rs = stmt.executeQuery(query)) {
-
-                // Clear existing rows
-                tableModel.setRowCount(0);
-
-                // Add rows from database
-                while (rs.next()) {
-                    String nodeId = rs.getString("node_id");
-                    String status = rs.getString("status");
-                    String load = rs.getString("last_load_percent");
-                    String power = rs.getString("last_power_state");
-                    String transformer = rs.getString("transformer_health");
-                    String lastSeen = rs.getString("last_seen_time");
-
-                    tableModel.addRow(new Object[] {
-                            nodeId,
-                            status != null ? status : "UNKNOWN",
-                            load != null ? load : "0",
-                            power != null ? power : "unknown",
-                            transformer != null ? transformer : "unknown",
-                            lastSeen != null ? lastSeen : "never"
-                    });
+    private void applyFilters() {
+        String status = (String) statusFilter.getSelectedItem();
+        String region = regionFilter.getText().trim();
+        filterStatus = "All".equals(status) ? null : status;
+        filterRegion = region.isEmpty() ? null : region;
+        pageCursor = null;
+        previousCursors.clear();
+        refreshNow();
+    }
+
+    private void refreshNow() {
+        if (running)
+            new Thread(this::refreshDashboard).start();
+    }
+
+    /**
+     * Fetch the current page: from the replicated cache's indexes when fresh
+     * enough, with a keyset query on the database otherwise.
+     */
+    private void refreshDashboard() {
+        NodeQuery query = new NodeQuery().limit(PAGE_SIZE);
+        if (filterStatus != null)
+            query.status(filterStatus);
+        if (filterRegion != null)
+            query.region(filterRegion);
+        String cursor = pageCursor;
+        if (cursor != null)
+            query.cursor(cursor);
+
+        NodeQuery.Page page;
+        ElectionManager em = electionManager;
+        if (em != null && em.getCacheStalenessMs() <= MAX_STALENESS_MS) {
+            page = em.queryNodes(query);
+        } else {
+            try (java.sql.Connection conn = DBConnection.getConnection()) {
+                page = query.fetchFromDatabase(conn);
+            } catch (Exception e) {
+                // Database error - log it but don't crash the UI
+                if (e.getMessage() != null && !e.getMessage().contains("last packet sent successfully")) {
+                    System.err.println("[Dashboard] Error updating table: " + e.getMessage());
                 }
+                return;
             }
-        } catch (Exception e) {
-            // Database error - log it but don't crash the UI
-            if (e.getMessage() != null && !e.getMessage().contains("last packet sent successfully")) {
-                System.err.println("[Dashboard] Error updating table: " + e.getMessage());
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (cursor == pageCursor)
+                showPage(page); // else the user paged on meanwhile
+        });
+    }
+
+    /**
+     * Update the table in place, so unchanged cells are not repainted.
+     */
+    private void showPage(NodeQuery.Page page) {
+        java.util.List<String[]> rows = page.getRows();
+        tableModel.setRowCount(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            for (int c = 0; c < row.length; c++) {
+                if (!java.util.Objects.equals(tableModel.getValueAt(i, c), row[c]))
+                    tableModel.setValueAt(row[c], i, c);
             }
         }
+        nextCursor = page.getNextCursor();
+        nextButton.setEnabled(nextCursor != null);
+        prevButton.setEnabled(!previousCursors.isEmpty());
+        pageLabel.setText("Page " + (previousCursors.size() + 1) + " (" + rows.size() + " nodes)");
     }
 
     // Keep old method for compatibility, but now unused
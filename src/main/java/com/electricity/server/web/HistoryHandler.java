@@ -0,0 +1,191 @@
+package com.electricity.server.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import com.electricity.db.DBConnection;
+import com.electricity.monitor.ReadingRecorder.Tier;
+
+/**
+ * GET /api/nodes/{id}/history?from=&to=&points= - a district's voltage over
+ * time, downsampled on the server to at most `points` buckets.
+ *
+ * - from / to are epoch ms (default: the last 24 hours up to now);
+ *   points defaults to 300 and is capped at MAX_POINTS.
+ * - Each bucket is [t, min, avg, max, samples]. min/max keep sags and
+ *   swells visible however far the chart zooms out; an average alone would
+ *   smooth them away.
+ * - The data comes from the coarsest stored resolution whose buckets still
+ *   fit the requested ones and whose retention reaches back to `from` (see
+ *   ReadingRecorder). A month at 300 points reads ~720 hourly rows, and
+ *   MySQL does the bucketing in one primary-key range scan.
+ *
+ * Deadband clients only report changes, so a gap in the series means the
+ * voltage held steady (or the district was silent), not missing data.
+ */
+public class HistoryHandler implements HttpHandler {
+    private static final int DEFAULT_POINTS = 300;
+    private static final int MAX_POINTS = 2000;
+    private static final long DEFAULT_RANGE_MS = 24 * 3600_000L;
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        // /api/nodes/{id}/history
+        String path = t.getRequestURI().getRawPath();
+        String prefix = "/api/nodes/";
+        if (!path.startsWith(prefix) || !path.endsWith("/history")
+                || path.length() <= prefix.length() + "/history".length()) {
+            error(t, 404, "Not found");
+            return;
+        }
+        String nodeId = URLDecoder.decode(path.substring(prefix.length(), path.length() - "/history".length()),
+                StandardCharsets.UTF_8);
+
+        long now = System.currentTimeMillis();
+        long from;
+        long to;
+        int points;
+        try {
+            Map<String, String> q = params(t.getRequestURI().getRawQuery());
+            to = q.containsKey("to") ? Long.parseLong(q.get("to")) : now;
+            from = q.containsKey("from") ? Long.parseLong(q.get("from")) : to - DEFAULT_RANGE_MS;
+            points = q.containsKey("points") ? Integer.parseInt(q.get("points")) : DEFAULT_POINTS;
+        } catch (NumberFormatException e) {
+            error(t, 400, "from, to and points must be numbers");
+            return;
+        }
+        if (from >= to || points < 1) {
+            error(t, 400, "Need from < to and points > 0");
+            return;
+        }
+        points = Math.min(points, MAX_POINTS);
+
+        Tier tier = chooseTier(from, to, points, now);
+        long width = tier.getWidthMs();
+        // Buckets are whole multiples of the tier width and start on its grid,
+        // so every stored rollup falls in exactly one bucket
+        long bucketMs = Math.max(1, ceilDiv(ceilDiv(to - from, points), width) * width);
+        long start = from - Math.floorMod(from, width);
+
+        boolean raw = tier == Tier.RAW;
+        String sql = "SELECT (ts - ?) DIV ? AS b, "
+                + (raw ? "MIN(voltage), MAX(voltage), SUM(voltage), COUNT(*)"
+                        : "MIN(v_min), MAX(v_max), SUM(v_sum), SUM(samples)")
+                + " FROM " + tier.getTable() + " WHERE node_id = ? AND ts >= ? AND ts < ? GROUP BY b ORDER BY b";
+
+        long startedAt = System.nanoTime();
+        boolean sent = false;
+        try (Connection conn = DBConnection.getConnection();
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, start);
+            ps.setLong(2, bucketMs);
+            ps.setString(3, nodeId);
+            ps.setLong(4, start);
+            ps.setLong(5, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                t.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                t.getResponseHeaders().set("X-History-Source", tier.getTable());
+                OutputStream body = t.getResponseBody();
+                String accept = t.getRequestHeaders().getFirst("Accept-Encoding");
+                if (accept != null && accept.contains("gzip")) {
+                    t.getResponseHeaders().set("Content-Encoding", "gzip");
+                    body = new GZIPOutputStream(body);
+                }
+                t.sendResponseHeaders(200, 0);
+                sent = true;
+                try (JsonStreamWriter w = new JsonStreamWriter(body)) {
+                    w.beginObject()
+                            .field("node", nodeId)
+                            .field("from", from)
+                            .field("to", to)
+                            .field("bucketMs", bucketMs)
+                            .field("source", tier.getTable())
+                            .name("columns").beginArray()
+                            .value("t").value("min").value("avg").value("max").value("samples")
+                            .endArray()
+                            .name("points").beginArray();
+                    while (rs.next()) {
+                        long samples = rs.getLong(5);
+                        w.beginArray()
+                                .value(start + rs.getLong(1) * bucketMs)
+                                .value(round(rs.getDouble(2)))
+                                .value(round(rs.getDouble(4) / Math.max(1, samples)))
+                                .value(round(rs.getDouble(3)))
+                                .value(samples)
+                                .endArray();
+                    }
+                    w.endArray()
+                            .field("queryMs", (System.nanoTime() - startedAt) / 1_000_000)
+                            .endObject();
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[Web] History query for " + nodeId + " failed: " + e.getMessage());
+            if (sent)
+                t.close(); // mid-stream: cut the body short
+            else
+                error(t, 500, e.getMessage());
+        }
+    }
+
+    /**
+     * Coarsest tier whose width fits in a bucket and whose retention covers
+     * from. If a fine enough tier no longer reaches back that far, the
+     * finest tier that does is used. Failing that, the hourly tier, which
+     * keeps the most.
+     */
+    static Tier chooseTier(long from, long to, int points, long now) {
+        long bucket = ceilDiv(to - from, points);
+        Tier[] tiers = Tier.values();
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (tiers[i].getWidthMs() <= bucket && from >= now - tiers[i].getRetentionMs())
+                return tiers[i];
+        }
+        for (Tier tier : tiers) {
+            if (from >= now - tier.getRetentionMs())
+                return tier;
+        }
+        return Tier.HOUR;
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 10) / 10.0;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null)
+            return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && eq < pair.length() - 1)
+                params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void error(HttpExchange t, int status, String message) throws IOException {
+        byte[] body = ("{\"error\":\"" + SimpleWebServer.escape(message) + "\"}").getBytes(StandardCharsets.UTF_8);
+        t.getResponseHeaders().set("Content-Type", "application/json");
+        t.sendResponseHeaders(status, body.length);
+        try (OutputStream os = t.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
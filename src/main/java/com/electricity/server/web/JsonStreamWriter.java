@@ -0,0 +1,276 @@
+package com.electricity.server.web;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JSON encoder that writes UTF-8 straight to an OutputStream (typically a
+ * chunked HttpExchange body) instead of building the document in memory.
+ *
+ * - Encodes chars into a pooled 8KB byte buffer and writes it out when
+ *   full. Memory per response stays at one buffer however many rows go
+ *   out, and the client gets the first rows while the rest are produced.
+ * - Escapes per RFC 8259: quote, backslash and control characters. It
+ *   also escapes U+2028 / U+2029 (so the output is safe to embed in
+ *   script) and unpaired surrogates.
+ * - Commas are placed automatically. Callers only nest begin/end calls and
+ *   put name() before each value inside an object.
+ *
+ * Not thread-safe: one writer per response.
+ */
+public class JsonStreamWriter implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED = 32;
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos = 0;
+    // Bit n set: the container at depth n already holds an element (next one needs a comma)
+    private long nonEmpty = 0;
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonStreamWriter(OutputStream out) {
+        this.out = out;
+        byte[] b = pool.poll();
+        if (b != null)
+            pooled.decrementAndGet();
+        this.buf = b != null ? b : new byte[BUFFER_SIZE];
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    /**
+     * Member name inside an object; the next call writes its value.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String s) throws IOException {
+        separate();
+        if (s == null)
+            ascii("null");
+        else
+            string(s);
+        return this;
+    }
+
+    public JsonStreamWriter value(long n) throws IOException {
+        separate();
+        ascii(Long.toString(n));
+        return this;
+    }
+
+    /**
+     * NaN and infinities have no JSON form and are written as null.
+     */
+    public JsonStreamWriter value(double d) throws IOException {
+        separate();
+        ascii(Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d));
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean b) throws IOException {
+        separate();
+        ascii(b ? "true" : "false");
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        separate();
+        ascii("null");
+        return this;
+    }
+
+    public JsonStreamWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonStreamWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonStreamWriter field(String name, double value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /**
+     * Push what is buffered to the client (e.g. after the first rows).
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Flush, close the stream (ending a chunked body) and return the buffer
+     * to the pool.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buf == null)
+            return;
+        try {
+            drain();
+            out.close();
+        } finally {
+            if (pooled.incrementAndGet() <= MAX_POOLED)
+                pool.offer(buf);
+            else
+                pooled.decrementAndGet();
+            buf = null;
+        }
+    }
+
+    private JsonStreamWriter open(char bracket) throws IOException {
+        separate();
+        if (++depth >= MAX_DEPTH)
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        nonEmpty &= ~(1L << depth);
+        put((byte) bracket);
+        return this;
+    }
+
+    private JsonStreamWriter close(char bracket) throws IOException {
+        if (depth == 0)
+            throw new IllegalStateException("Unbalanced " + bracket);
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((nonEmpty & bit) != 0)
+            put((byte) ',');
+        nonEmpty |= bit;
+    }
+
+    private void string(String s) throws IOException {
+        put((byte) '"');
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    put((byte) c);
+                } else {
+                    escapeAscii(c);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c) || c == '\u2028' || c == '\u2029') {
+                unicodeEscape(c);
+            } else {
+                ensure(3);
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void escapeAscii(char c) throws IOException {
+        switch (c) {
+            case '"':
+                ascii("\\\"");
+                break;
+            case '\\':
+                ascii("\\\\");
+                break;
+            case '\n':
+                ascii("\\n");
+                break;
+            case '\r':
+                ascii("\\r");
+                break;
+            case '\t':
+                ascii("\\t");
+                break;
+            case '\b':
+                ascii("\\b");
+                break;
+            case '\f':
+                ascii("\\f");
+                break;
+            default:
+                unicodeEscape(c);
+        }
+    }
+
+    private void unicodeEscape(char c) throws IOException {
+        ensure(6);
+        buf[pos++] = '\\';
+        buf[pos++] = 'u';
+        buf[pos++] = HEX[(c >> 12) & 0xf];
+        buf[pos++] = HEX[(c >> 8) & 0xf];
+        buf[pos++] = HEX[(c >> 4) & 0xf];
+        buf[pos++] = HEX[c & 0xf];
+    }
+
+    private void ascii(String s) throws IOException {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (pos == buf.length)
+            drain();
+        buf[pos++] = b;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length)
+            drain();
+    }
+
+    private void drain() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.electricity.server.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import com.electricity.service.EventFeed;
+import com.electricity.service.StateVersion;
+
+/**
+ * GET /api/stream - Server-Sent Events push of the node table.
+ *
+ * Frames (each "event: <name>" plus one JSON "data:" line):
+ * - snapshot: {"source", "stalenessMs", "nodes": [...]} - full table, on
+ *   connect and whenever a subscriber fell too far behind
+ * - nodes: {"source", "stalenessMs", "changed": [...], "removed": [ids]}
+ * - event: {"id", "node", "type", "time", "meta"} - an outage / anomaly
+ * - ": ping" comment every KEEPALIVE_MS, so dead connections are noticed
+ *
+ * One publisher thread re-renders the table when StateVersion moves (or
+ * every REVALIDATE_MS, as status also ages with time). It diffs the new
+ * table against the last one and hands only the changes to subscribers,
+ * so the cost does not grow with the number of browsers.
+ *
+ * Every subscriber has its own sender thread and a bounded buffer:
+ * - Node changes coalesce per node id, so a slow browser gets the latest
+ *   value once rather than every intermediate one.
+ * - Past MAX_PENDING_NODES pending nodes, the buffer collapses into a
+ *   fresh snapshot.
+ * - Events keep the newest MAX_PENDING_EVENTS.
+ */
+public class NodeStream implements HttpHandler {
+    private static final long PUBLISH_INTERVAL_MS = 250;
+    private static final long REVALIDATE_MS = Long.getLong("electricity.web.revalidateMs", 1000);
+    private static final long KEEPALIVE_MS = 15000;
+    private static final int MAX_PENDING_NODES = 1024;
+    private static final int MAX_PENDING_EVENTS = 256;
+    private static final int SEEN_EVENTS = 1024;
+
+    private final Supplier<SimpleWebServer.NodeView> renderer;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // Last table handed to subscribers (null until rendered for them)
+    private SimpleWebServer.NodeView published;
+    private long publishedVersion = -1;
+    private long publishedAt = 0;
+    // Event ids already pushed: the same event can arrive by ingest and by replication
+    private final LinkedHashMap<String, Boolean> seenEvents = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_EVENTS;
+        }
+    };
+
+    public NodeStream(Supplier<SimpleWebServer.NodeView> renderer) {
+        this.renderer = renderer;
+    }
+
+    public void start() {
+        EventFeed.subscribe(this::onEvent);
+        Thread publisher = new Thread(this::publishLoop, "sse-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        t.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        t.getResponseHeaders().set("Cache-Control", "no-cache");
+        t.sendResponseHeaders(200, 0); // chunked, open until the browser goes away
+        Subscriber s = new Subscriber(t);
+        subscribers.add(s);
+        synchronized (this) {
+            notifyAll(); // render now if nobody was listening before
+        }
+        Thread sender = new Thread(s, "sse-" + t.getRemoteAddress());
+        sender.setDaemon(true);
+        sender.start();
+        // The exchange stays open: the sender thread writes to it from here on
+    }
+
+    private void publishLoop() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    wait(PUBLISH_INTERVAL_MS);
+                }
+                if (subscribers.isEmpty()) {
+                    synchronized (this) {
+                        published = null; // re-render for the next subscriber
+                    }
+                    continue;
+                }
+                long version = StateVersion.get();
+                long now = System.currentTimeMillis();
+                SimpleWebServer.NodeView previous;
+                synchronized (this) {
+                    previous = published;
+                }
+                if (previous != null && version == publishedVersion && now - publishedAt < REVALIDATE_MS)
+                    continue;
+
+                SimpleWebServer.NodeView view = renderer.get();
+                if (view.error != null)
+                    continue; // keep the last good table
+                synchronized (this) {
+                    published = view;
+                    publishedVersion = version;
+                    publishedAt = now;
+                }
+                if (previous == null)
+                    continue; // subscribers are all waiting for a snapshot
+
+                LinkedHashMap<String, String> changes = new LinkedHashMap<>();
+                for (Map.Entry<String, String> e : view.nodes.entrySet()) {
+                    if (!e.getValue().equals(previous.nodes.get(e.getKey())))
+                        changes.put(e.getKey(), e.getValue());
+                }
+                for (String id : previous.nodes.keySet()) {
+                    if (!view.nodes.containsKey(id))
+                        changes.put(id, null);
+                }
+                if (!changes.isEmpty()) {
+                    for (Subscriber s : subscribers) {
+                        s.offerNodes(changes);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("[SSE] Publish failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized SimpleWebServer.NodeView current() {
+        return published;
+    }
+
+    private void onEvent(String line) {
+        // OUTAGE|eventId|nodeId|type|timestamp|meta[|hlc]
+        String[] p = line.split("\\|", -1);
+        if (p.length < 6)
+            return;
+        synchronized (seenEvents) {
+            if (seenEvents.put(p[1], Boolean.TRUE) != null)
+                return;
+        }
+        String json = "{\"id\":\"" + SimpleWebServer.escape(p[1]) + "\",\"node\":\"" + SimpleWebServer.escape(p[2])
+                + "\",\"type\":\"" + SimpleWebServer.escape(p[3]) + "\",\"time\":\"" + SimpleWebServer.escape(p[4])
+                + "\",\"meta\":\"" + SimpleWebServer.escape(p[5]) + "\"}";
+        for (Subscriber s : subscribers) {
+            s.offerEvent(json);
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        // Coalesced: node id -> latest JSON (null = removed)
+        private final LinkedHashMap<String, String> pendingNodes = new LinkedHashMap<>();
+        private final ArrayDeque<String> pendingEvents = new ArrayDeque<>();
+        private boolean snapshot = true;
+
+        Subscriber(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        synchronized void offerNodes(Map<String, String> changes) {
+            pendingNodes.putAll(changes);
+            if (pendingNodes.size() > MAX_PENDING_NODES) {
+                pendingNodes.clear();
+                snapshot = true; // cheaper to start over than to catch up
+            }
+            notifyAll();
+        }
+
+        synchronized void offerEvent(String json) {
+            if (pendingEvents.size() == MAX_PENDING_EVENTS)
+                pendingEvents.poll();
+            pendingEvents.add(json);
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            try {
+                write("retry: 2000\n\n");
+                while (true) {
+                    boolean sendSnapshot;
+                    Map<String, String> nodes;
+                    List<String> events;
+                    synchronized (this) {
+                        long deadline = System.currentTimeMillis() + KEEPALIVE_MS;
+                        while (!snapshot && pendingNodes.isEmpty() && pendingEvents.isEmpty()) {
+                            long left = deadline - System.currentTimeMillis();
+                            if (left <= 0)
+                                break;
+                            wait(left);
+                        }
+                        sendSnapshot = snapshot;
+                        nodes = new LinkedHashMap<>(pendingNodes);
+                        events = new ArrayList<>(pendingEvents);
+                        pendingNodes.clear();
+                        pendingEvents.clear();
+                    }
+
+                    StringBuilder frame = new StringBuilder();
+                    if (sendSnapshot) {
+                        SimpleWebServer.NodeView view = awaitTable();
+                        synchronized (this) {
+                            snapshot = false;
+                        }
+                        frame.append("event: snapshot\ndata: {").append(header(view)).append(",\"nodes\":[")
+                                .append(String.join(",", view.nodes.values())).append("]}\n\n");
+                    } else if (!nodes.isEmpty()) {
+                        SimpleWebServer.NodeView view = current();
+                        List<String> changed = new ArrayList<>();
+                        List<String> removed = new ArrayList<>();
+                        for (Map.Entry<String, String> e : nodes.entrySet()) {
+                            if (e.getValue() != null)
+                                changed.add(e.getValue());
+                            else
+                                removed.add("\"" + SimpleWebServer.escape(e.getKey()) + "\"");
+                        }
+                        frame.append("event: nodes\ndata: {").append(header(view)).append(",\"changed\":[")
+                                .append(String.join(",", changed)).append("],\"removed\":[")
+                                .append(String.join(",", removed)).append("]}\n\n");
+                    }
+                    for (String e : events) {
+                        frame.append("event: event\ndata: ").append(e).append("\n\n");
+                    }
+                    write(frame.length() == 0 ? ": ping\n\n" : frame.toString());
+                }
+            } catch (IOException | InterruptedException e) {
+                // Browser went away
+            } finally {
+                subscribers.remove(this);
+                exchange.close();
+            }
+        }
+
+        private SimpleWebServer.NodeView awaitTable() throws InterruptedException {
+            SimpleWebServer.NodeView view;
+            while ((view = current()) == null) {
+                Thread.sleep(PUBLISH_INTERVAL_MS / 2);
+            }
+            return view;
+        }
+
+        private String header(SimpleWebServer.NodeView view) {
+            return view == null ? "\"source\":null"
+                    : "\"source\":\"" + view.source + "\",\"stalenessMs\":" + view.stalenessMs;
+        }
+
+        private void write(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+}
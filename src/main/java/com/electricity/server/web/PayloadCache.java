@@ -0,0 +1,169 @@
+package com.electricity.server.web;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import com.electricity.service.StateVersion;
+
+/**
+ * Rendered API responses, kept as ready-to-send bytes (plus a gzip copy for
+ * bodies over GZIP_MIN_BYTES), keyed by request and by StateVersion.
+ *
+ * - A request finds its entry current when the state version has not moved
+ *   and the entry is younger than -Delectricity.web.revalidateMs (default
+ *   1000). Derived fields such as SUSPECTED age with time, not only with
+ *   ingest. Current entries are served with no DB query and no
+ *   serialization.
+ * - The ETag is a CRC of the body, so a rebuild that comes out identical
+ *   keeps its ETag. A poll with a matching If-None-Match gets 304 with no
+ *   body.
+ */
+public class PayloadCache {
+    private static final long REVALIDATE_MS = Long.getLong("electricity.web.revalidateMs", 1000);
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * A body to cache, with any headers that go with it.
+     */
+    public static final class Rendered {
+        final String body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        public Rendered(String body) {
+            this.body = body;
+        }
+
+        public Rendered header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private static final class Payload {
+        final long version;
+        final long builtAt;
+        final byte[] body;
+        final byte[] gzipped;
+        final String etag;
+        final Map<String, String> headers;
+
+        Payload(long version, long builtAt, byte[] body, byte[] gzipped, String etag, Map<String, String> headers) {
+            this.version = version;
+            this.builtAt = builtAt;
+            this.body = body;
+            this.gzipped = gzipped;
+            this.etag = etag;
+            this.headers = headers;
+        }
+    }
+
+    // Access-ordered: least recently served entry goes first
+    private final LinkedHashMap<String, Payload> entries = new LinkedHashMap<String, Payload>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Payload> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private long hits = 0;
+    private long builds = 0;
+
+    /**
+     * Serve key from the cache, rendering it first if it is not current.
+     */
+    public void serve(HttpExchange t, String key, Supplier<Rendered> renderer) throws IOException {
+        Payload p = lookup(key, renderer);
+
+        Headers h = t.getResponseHeaders();
+        for (Map.Entry<String, String> e : p.headers.entrySet()) {
+            h.set(e.getKey(), e.getValue());
+        }
+        h.set("Content-Type", "application/json");
+        h.set("Cache-Control", "no-cache"); // browsers revalidate with If-None-Match every time
+        h.set("Vary", "Accept-Encoding");
+        String accept = t.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = p.gzipped != null && accept != null && accept.contains("gzip");
+        // Each encoding is its own representation, so it gets its own ETag
+        String etag = gzip ? p.etag.substring(0, p.etag.length() - 1) + "-gz\"" : p.etag;
+        h.set("ETag", etag);
+
+        if (matches(t.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            t.sendResponseHeaders(304, -1);
+            t.close();
+            return;
+        }
+
+        byte[] out = gzip ? p.gzipped : p.body;
+        if (gzip)
+            h.set("Content-Encoding", "gzip");
+        t.sendResponseHeaders(200, out.length);
+        try (OutputStream os = t.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    private synchronized Payload lookup(String key, Supplier<Rendered> renderer) throws IOException {
+        long version = StateVersion.get();
+        long now = System.currentTimeMillis();
+        Payload p = entries.get(key);
+        if (p != null && p.version == version && now - p.builtAt < REVALIDATE_MS) {
+            hits++;
+            return p;
+        }
+
+        Rendered r = renderer.get();
+        byte[] body = r.body.getBytes(StandardCharsets.UTF_8);
+        builds++;
+        if (p != null && Arrays.equals(p.body, body)) {
+            // Same bytes: keep the ETag and the gzip copy
+            p = new Payload(version, now, p.body, p.gzipped, p.etag, r.headers);
+        } else {
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length) + "\"";
+            p = new Payload(version, now, body, body.length >= GZIP_MIN_BYTES ? gzip(body) : null, etag, r.headers);
+        }
+        entries.put(key, p);
+        return p;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals("*"))
+                return true;
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getBuilds() {
+        return builds;
+    }
+}
@@ -3,33 +3,110 @@ package com.electricity.server.web;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.Headers;
 
 import com.electricity.db.DBConnection;
+import com.electricity.service.ElectionManager;
+import com.electricity.service.FleetAggregates;
+import com.electricity.service.NodeQuery;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Dashboard web server.
+ *
+ * /api/nodes is served from the server's replicated node-state cache when
+ * one is attached and no staler than -Delectricity.read.maxStalenessMs
+ * (default 5000), so every server - leader or follower - can answer
+ * dashboard reads without touching MySQL. Otherwise it falls back to the
+ * database. The X-Data-Source and X-Data-Staleness-Ms headers tell the
+ * browser which one it got.
+ *
+ * The rendered payload is cached as bytes (and gzip) per state version,
+ * with ETag / If-None-Match revalidation: see PayloadCache.
+ *
+ * /api/nodes?status=&region=&power=&prefix=&sort=&limit=&cursor= returns
+ * one page instead of the whole fleet, from the cache's secondary indexes
+ * (NodeIndex) or with a keyset query on the database. The next page's
+ * cursor comes back in X-Next-Cursor; see NodeQuery for the parameters.
+ *
+ * Past -Delectricity.web.streamMinNodes (default 5000) nodes, the unpaged
+ * list is no longer cached: it is streamed with chunked encoding through
+ * JsonStreamWriter, so memory does not grow with the fleet.
+ *
+ * /api/nodes/{id}/history serves a district's downsampled voltage history
+ * (see HistoryHandler).
+ *
+ * /api/summary returns per-region and fleet-wide status counts, active
+ * outages and min / avg voltage, so the dashboard's header widgets never
+ * need the node list. On the cache it reads counters kept up to date as
+ * nodes change (see FleetAggregates); on the database it runs one grouped
+ * query.
+ *
+ * /api/stream pushes the same data as Server-Sent Events: a snapshot, then
+ * only changed nodes and new outage events (see NodeStream).
+ *
+ * Requests run on a bounded pool of -Delectricity.web.threads workers
+ * (default 2 per core, at least 4) with up to -Delectricity.web.queue
+ * (default 256) waiting, so a long stream or history query does not hold up
+ * the rest. When both are full the accepting thread serves the request
+ * itself, which slows down accepting rather than dropping connections.
+ */
 public class SimpleWebServer {
+    private static final long MAX_STALENESS_MS = Long.getLong("electricity.read.maxStalenessMs", 5000);
+    // Above this many nodes the unpaged list is streamed instead of cached
+    private static final int STREAM_MIN_NODES = Integer.getInteger("electricity.web.streamMinNodes", 5000);
+    private static final int WORKER_THREADS = Integer.getInteger("electricity.web.threads",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final int WORKER_QUEUE = Integer.getInteger("electricity.web.queue", 256);
+    private static final String NODES_QUERY = "SELECT node_id, status, last_load_percent, last_power_state, "
+            + "transformer_health, DATE_FORMAT(last_seen, '%H:%i:%s') as last_seen_time FROM nodes ORDER BY node_id";
 
     private int port;
+    private volatile ElectionManager electionManager;
+    private final PayloadCache payloadCache = new PayloadCache();
 
     public SimpleWebServer(int port) {
         this.port = port;
     }
 
+    /**
+     * Attach the replicated cache once the cluster side is up.
+     */
+    public void setElectionManager(ElectionManager electionManager) {
+        this.electionManager = electionManager;
+    }
+
     public void start() {
         try {
             HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
             server.createContext("/", new StaticHandler());
             server.createContext("/api/nodes", new ApiHandler());
-            server.setExecutor(null); // creates a default executor
+            server.createContext("/api/nodes/", new HistoryHandler());
+            server.createContext("/api/summary", new SummaryHandler());
+            NodeStream stream = new NodeStream(this::renderNodes);
+            server.createContext("/api/stream", stream);
+            stream.start();
+            server.setExecutor(workerPool());
             server.start();
             System.out.println("Web Dashboard running at http://localhost:" + port + "/");
         } catch (IOException e) {
@@ -37,6 +114,16 @@ public class SimpleWebServer {
         }
     }
 
+    private static ExecutorService workerPool() {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WORKER_QUEUE), r -> {
+                    Thread t = new Thread(r, "web-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
     static class StaticHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange t) throws IOException {
@@ -78,54 +165,331 @@ public class SimpleWebServer {
         }
     }
 
-    static class ApiHandler implements HttpHandler {
+    /**
+     * The node table as this server currently sees it: one JSON object per
+     * node, in node id order, and where it came from.
+     */
+    static final class NodeView {
+        final String source;
+        final long stalenessMs;
+        final LinkedHashMap<String, String> nodes;
+        final String error;
+
+        NodeView(String source, long stalenessMs, LinkedHashMap<String, String> nodes, String error) {
+            this.source = source;
+            this.stalenessMs = stalenessMs;
+            this.nodes = nodes;
+            this.error = error;
+        }
+    }
+
+    class ApiHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange t) throws IOException {
-            String json = "[]";
-            try (Connection conn = DBConnection.getConnection()) {
-                String query = "SELECT node_id, status, last_load_percent, last_power_state, transformer_health, " +
-                        "DATE_FORMAT(last_seen, '%H:%i:%s') as last_seen_time " +
-                        "FROM nodes ORDER BY node_id";
-
-                try (Statement stmt = conn.createStatement();
-                        ResultSet rs = stmt.executeQuery(query)) {
-
-                    StringBuilder sb = new StringBuilder();
-                    sb.append("[");
-                    boolean first = true;
-                    while (rs.next()) {
-                        if (!first)
-                            sb.append(",");
-                        sb.append("{");
-                        sb.append("\"id\":\"").append(escape(rs.getString("node_id"))).append("\",");
-                        sb.append("\"status\":\"").append(escape(rs.getString("status"))).append("\",");
-                        sb.append("\"load\":").append(rs.getInt("last_load_percent")).append(",");
-                        sb.append("\"power\":\"").append(escape(rs.getString("last_power_state"))).append("\",");
-                        sb.append("\"transformer\":\"").append(escape(rs.getString("transformer_health")))
-                                .append("\",");
-                        sb.append("\"lastSeen\":\"").append(escape(rs.getString("last_seen_time"))).append("\"");
-                        sb.append("}");
-                        first = false;
-                    }
-                    sb.append("]");
-                    json = sb.toString();
+            String raw = t.getRequestURI().getRawQuery();
+            if (raw == null || raw.isEmpty()) {
+                ElectionManager em = electionManager;
+                if (em != null && em.getNodeCount() > STREAM_MIN_NODES)
+                    streamAll(t, em);
+                else
+                    payloadCache.serve(t, "nodes", this::render);
+                return;
+            }
+            NodeQuery query;
+            try {
+                query = NodeQuery.parse(raw);
+            } catch (IllegalArgumentException e) {
+                byte[] body = ("{\"error\":\"" + escape(e.getMessage()) + "\"}").getBytes(StandardCharsets.UTF_8);
+                t.getResponseHeaders().set("Content-Type", "application/json");
+                t.sendResponseHeaders(400, body.length);
+                try (OutputStream os = t.getResponseBody()) {
+                    os.write(body);
+                }
+                return;
+            }
+            payloadCache.serve(t, "nodes?" + raw, () -> renderPage(query));
+        }
+
+        /**
+         * The whole fleet, written row by row into a chunked (and, if
+         * accepted, gzipped) body: nothing the size of the fleet is built
+         * in memory, and the browser starts parsing after the first rows.
+         */
+        private void streamAll(HttpExchange t, ElectionManager em) throws IOException {
+            long staleness = em.getCacheStalenessMs();
+            boolean fromCache = staleness <= MAX_STALENESS_MS;
+            Headers h = t.getResponseHeaders();
+            h.set("Content-Type", "application/json; charset=utf-8");
+            h.set("Cache-Control", "no-cache");
+            h.set("Vary", "Accept-Encoding");
+            h.set("X-Data-Source", fromCache ? "cache" : "database");
+            h.set("X-Data-Staleness-Ms", String.valueOf(fromCache ? staleness : 0));
+            String accept = t.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = accept != null && accept.contains("gzip");
+            if (gzip)
+                h.set("Content-Encoding", "gzip");
+            t.sendResponseHeaders(200, 0); // chunked
+
+            OutputStream body = t.getResponseBody();
+            try (JsonStreamWriter w = new JsonStreamWriter(gzip ? new GZIPOutputStream(body, 8192) : body)) {
+                w.beginArray();
+                if (fromCache) {
+                    em.forEachDashboardRow(row -> {
+                        try {
+                            writeNode(w, row);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } else {
+                    streamFromDatabase(w);
+                }
+                w.endArray();
+            } catch (UncheckedIOException | IOException | SQLException e) {
+                // Status is already sent: all we can do is cut the body short
+                System.err.println("[Web] Streaming /api/nodes failed: " + e.getMessage());
+                t.close();
+            }
+        }
+
+        /**
+         * One page: the body stays a JSON array like the unfiltered list,
+         * and X-Next-Cursor carries the cursor for the next page (absent on
+         * the last one).
+         */
+        private PayloadCache.Rendered renderPage(NodeQuery query) {
+            ElectionManager em = electionManager;
+            long staleness = em != null ? em.getCacheStalenessMs() : Long.MAX_VALUE;
+            String source = "cache";
+            NodeQuery.Page page;
+            if (staleness <= MAX_STALENESS_MS) {
+                page = em.queryNodes(query);
+            } else {
+                source = "database";
+                staleness = 0;
+                try (Connection conn = DBConnection.getConnection()) {
+                    page = query.fetchFromDatabase(conn);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    return new PayloadCache.Rendered("{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                }
+            }
+            String body = "[" + String.join(",", fromCache(page.getRows()).values()) + "]";
+            PayloadCache.Rendered r = new PayloadCache.Rendered(body)
+                    .header("X-Data-Source", source)
+                    .header("X-Data-Staleness-Ms", String.valueOf(staleness));
+            if (page.getNextCursor() != null)
+                r.header("X-Next-Cursor", page.getNextCursor());
+            return r;
+        }
+
+        private PayloadCache.Rendered render() {
+            NodeView view = renderNodes();
+            String body = view.error != null ? "{\"error\":\"" + escape(view.error) + "\"}"
+                    : "[" + String.join(",", view.nodes.values()) + "]";
+            return new PayloadCache.Rendered(body)
+                    .header("X-Data-Source", view.source)
+                    .header("X-Data-Staleness-Ms", String.valueOf(view.stalenessMs));
+        }
+    }
+
+    class SummaryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            payloadCache.serve(t, "summary", this::render);
+        }
+
+        /**
+         * {source, stalenessMs, total: {...}, regions: [{region, ...}]}; each
+         * object has nodes, online, suspected, offline, outages, minVoltage
+         * and avgVoltage (null when no node has a current reading).
+         */
+        private PayloadCache.Rendered render() {
+            ElectionManager em = electionManager;
+            long staleness = em != null ? em.getCacheStalenessMs() : Long.MAX_VALUE;
+            String source = "cache";
+            List<FleetAggregates.RegionSummary> regions;
+            if (staleness <= MAX_STALENESS_MS) {
+                regions = em.getFleetSummary();
+            } else {
+                source = "database";
+                staleness = 0;
+                try (Connection conn = DBConnection.getConnection()) {
+                    regions = FleetAggregates.fetchFromDatabase(conn);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    return new PayloadCache.Rendered("{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                }
+            }
+
+            int online = 0, suspected = 0, offline = 0, outages = 0, voltageCount = 0;
+            double minVoltage = Double.NaN, voltageSum = 0;
+            StringBuilder list = new StringBuilder(128 * regions.size() + 2).append('[');
+            for (FleetAggregates.RegionSummary r : regions) {
+                if (list.length() > 1)
+                    list.append(',');
+                list.append(summaryJson(r.getRegion(), r.getOnline(), r.getSuspected(), r.getOffline(),
+                        r.getOutages(), r.getMinVoltage(), r.getAvgVoltage()));
+                online += r.getOnline();
+                suspected += r.getSuspected();
+                offline += r.getOffline();
+                outages += r.getOutages();
+                if (r.getVoltageCount() > 0) {
+                    minVoltage = Double.isNaN(minVoltage) ? r.getMinVoltage() : Math.min(minVoltage, r.getMinVoltage());
+                    voltageSum += r.getAvgVoltage() * r.getVoltageCount();
+                    voltageCount += r.getVoltageCount();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                json = "{\"error\":\"" + e.getMessage() + "\"}";
             }
+            list.append(']');
+            String body = "{\"source\":\"" + source + "\",\"stalenessMs\":" + staleness + ",\"total\":"
+                    + summaryJson(null, online, suspected, offline, outages, minVoltage,
+                            voltageCount > 0 ? voltageSum / voltageCount : Double.NaN)
+                    + ",\"regions\":" + list + "}";
+            return new PayloadCache.Rendered(body)
+                    .header("X-Data-Source", source)
+                    .header("X-Data-Staleness-Ms", String.valueOf(staleness));
+        }
+    }
+
+    private static String summaryJson(String region, int online, int suspected, int offline, int outages,
+            double minVoltage, double avgVoltage) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{");
+        if (region != null)
+            sb.append("\"region\":\"").append(escape(region)).append("\",");
+        sb.append("\"nodes\":").append(online + suspected + offline).append(",");
+        sb.append("\"online\":").append(online).append(",");
+        sb.append("\"suspected\":").append(suspected).append(",");
+        sb.append("\"offline\":").append(offline).append(",");
+        sb.append("\"outages\":").append(outages).append(",");
+        sb.append("\"minVoltage\":").append(voltageJson(minVoltage)).append(",");
+        sb.append("\"avgVoltage\":").append(voltageJson(avgVoltage));
+        sb.append("}");
+        return sb.toString();
+    }
+
+    private static String voltageJson(double v) {
+        return Double.isNaN(v) ? "null" : String.valueOf(Math.round(v * 10) / 10.0);
+    }
+
+    NodeView renderNodes() {
+        ElectionManager em = electionManager;
+        long staleness = em != null ? em.getCacheStalenessMs() : Long.MAX_VALUE;
+        if (staleness <= MAX_STALENESS_MS)
+            return new NodeView("cache", staleness, fromCache(em.getDashboardRows()), null);
+        try {
+            return new NodeView("database", 0, fromDatabase(), null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new NodeView("database", 0, new LinkedHashMap<>(), String.valueOf(e.getMessage()));
+        }
+    }
 
-            t.getResponseHeaders().set("Content-Type", "application/json");
-            t.sendResponseHeaders(200, json.length());
-            OutputStream os = t.getResponseBody();
-            os.write(json.getBytes());
-            os.close();
+    private LinkedHashMap<String, String> fromCache(List<String[]> rows) {
+        LinkedHashMap<String, String> nodes = new LinkedHashMap<>();
+        for (String[] row : rows) {
+            nodes.put(row[0], nodeJson(row[0], row[1], parseLoad(row[2]), row[3], row[4], row[5]));
         }
+        return nodes;
+    }
+
+    /**
+     * Rows straight from a streaming result set (Connector/J sends them as
+     * they are read when the fetch size is Integer.MIN_VALUE).
+     */
+    private void streamFromDatabase(JsonStreamWriter w) throws SQLException, IOException {
+        try (Connection conn = DBConnection.getConnection();
+                Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery(NODES_QUERY)) {
+                while (rs.next()) {
+                    writeNode(w, new String[] { rs.getString("node_id"), rs.getString("status"),
+                            rs.getString("last_load_percent"), rs.getString("last_power_state"),
+                            rs.getString("transformer_health"), rs.getString("last_seen_time") });
+                }
+            }
+        }
+    }
 
-        private String escape(String s) {
-            if (s == null)
-                return "";
-            return s.replace("\"", "\\\"");
+    /**
+     * Same object as nodeJson(), for a dashboard row (node_id, status, load,
+     * power, transformer, last seen).
+     */
+    private static void writeNode(JsonStreamWriter w, String[] row) throws IOException {
+        w.beginObject()
+                .field("id", row[0])
+                .field("status", nullToEmpty(row[1]))
+                .field("load", parseLoad(row[2]))
+                .field("power", nullToEmpty(row[3]))
+                .field("transformer", nullToEmpty(row[4]))
+                .field("lastSeen", nullToEmpty(row[5]))
+                .endObject();
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private LinkedHashMap<String, String> fromDatabase() throws SQLException {
+        try (Connection conn = DBConnection.getConnection()) {
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery(NODES_QUERY)) {
+
+                LinkedHashMap<String, String> nodes = new LinkedHashMap<>();
+                while (rs.next()) {
+                    String id = rs.getString("node_id");
+                    nodes.put(id, nodeJson(id, rs.getString("status"),
+                            rs.getInt("last_load_percent"), rs.getString("last_power_state"),
+                            rs.getString("transformer_health"), rs.getString("last_seen_time")));
+                }
+                return nodes;
+            }
+        }
+    }
+
+    private static String nodeJson(String id, String status, int load, String power, String transformer,
+            String lastSeen) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{");
+        sb.append("\"id\":\"").append(escape(id)).append("\",");
+        sb.append("\"status\":\"").append(escape(status)).append("\",");
+        sb.append("\"load\":").append(load).append(",");
+        sb.append("\"power\":\"").append(escape(power)).append("\",");
+        sb.append("\"transformer\":\"").append(escape(transformer)).append("\",");
+        sb.append("\"lastSeen\":\"").append(escape(lastSeen)).append("\"");
+        sb.append("}");
+        return sb.toString();
+    }
+
+    private static int parseLoad(String load) {
+        try {
+            return Integer.parseInt(load);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Escape for a JSON string literal (quote, backslash, control chars).
+     */
+    static String escape(String s) {
+        if (s == null)
+            return "";
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                if (sb != null)
+                    sb.append(c);
+                continue;
+            }
+            if (sb == null)
+                sb = new StringBuilder(s.length() + 8).append(s, 0, i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else
+                sb.append(String.format("\\u%04x", (int) c));
         }
+        return sb == null ? s : sb.toString();
     }
 }
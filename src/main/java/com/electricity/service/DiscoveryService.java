@@ -8,48 +8,119 @@ import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import com.electricity.model.Peer;
+import com.electricity.model.ServerLoad;
 
+/**
+ * Multicast discovery: HELLO|ServerId|TcpPort|IsLeader beacons on 230.0.0.1:4446,
+ * optionally followed by the server's load (|conns|queueDepth|p99Ms, see
+ * ServerLoad) so clients and servers can balance ingest.
+ *
+ * - One MulticastSocket is opened in run() and shared by the listener and the
+ *   beacon (no socket per announcement).
+ * - Heard servers go into a MembershipTable; servers silent for longer than
+ *   the TTL (-Delectricity.discovery.ttlMs) are evicted and reported to the
+ *   listeners as leaves.
+ * - The beacon is adaptive: every BEACON_MIN_MS after start-up or any
+ *   membership change, doubling up to BEACON_MAX_MS while membership stays
+ *   stable. A change also triggers an immediate announcement, so a joining
+ *   server learns about everyone within about a second.
+ */
 public class DiscoveryService implements Runnable {
     private static final String MULTICAST_GROUP = "230.0.0.1";
     private static final int MULTICAST_PORT = 4446;
+    private static final long BEACON_MIN_MS = 1000;
+    private static final long BEACON_MAX_MS = 10000;
+    private static final long SWEEP_MS = 1000;
+    // Several stable-rate beacons may be lost before a server is declared gone
+    private static final long TTL_MS = Long.getLong("electricity.discovery.ttlMs", 35000);
+
     private int myServerId;
     private int myTcpPort;
-    private boolean running = true;
-    private Consumer<Peer> onPeerDiscovered;
+    private volatile boolean running = true;
     private Supplier<Boolean> isLeaderSupplier;
+    private volatile Supplier<String> loadSupplier;
+    private volatile Consumer<ServerLoad> loadListener;
+    private final MembershipTable membership = new MembershipTable(TTL_MS);
+    private final Object beaconLock = new Object();
+    private volatile MulticastSocket socket;
+    private long beaconInterval = BEACON_MIN_MS; // guarded by beaconLock
+    private long nextBeaconAt = 0; // guarded by beaconLock
 
     public DiscoveryService(int serverId, int tcpPort, Consumer<Peer> onPeerDiscovered,
             Supplier<Boolean> isLeaderSupplier) {
         this.myServerId = serverId;
         this.myTcpPort = tcpPort;
-        this.onPeerDiscovered = onPeerDiscovered;
         this.isLeaderSupplier = isLeaderSupplier;
+        if (onPeerDiscovered != null) {
+            membership.addListener(new MembershipTable.Listener() {
+                @Override
+                public void onJoin(Peer peer) {
+                    onPeerDiscovered.accept(peer);
+                }
+
+                @Override
+                public void onLeave(Peer peer) {
+                }
+            });
+        }
+    }
+
+    /**
+     * Register for joins and leaves (e.g. to drop a dead server's channel).
+     */
+    public void addMembershipListener(MembershipTable.Listener listener) {
+        membership.addListener(listener);
+    }
+
+    /**
+     * Extra beacon fields describing our load (connections|queueDepth|p99Ms).
+     */
+    public void setLoadSupplier(Supplier<String> loadSupplier) {
+        this.loadSupplier = loadSupplier;
+    }
+
+    /**
+     * Called with the advertised load of every server heard.
+     */
+    public void setLoadListener(Consumer<ServerLoad> loadListener) {
+        this.loadListener = loadListener;
+    }
+
+    public MembershipTable getMembership() {
+        return membership;
     }
 
     @Override
     public void run() {
+        try {
+            MulticastSocket s = new MulticastSocket(MULTICAST_PORT);
+            s.joinGroup(InetAddress.getByName(MULTICAST_GROUP));
+            socket = s;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
         // Start listener thread
-        new Thread(this::listen).start();
+        new Thread(this::listen, "discovery-listen").start();
 
         // Start announcer thread
-        new Thread(this::announceLoop).start();
+        new Thread(this::announceLoop, "discovery-beacon").start();
     }
 
     private void listen() {
-        try (MulticastSocket socket = new MulticastSocket(MULTICAST_PORT)) {
-            InetAddress group = InetAddress.getByName(MULTICAST_GROUP);
-            socket.joinGroup(group);
-
-            byte[] buf = new byte[256];
-            while (running) {
+        byte[] buf = new byte[256];
+        while (running) {
+            try {
                 DatagramPacket packet = new DatagramPacket(buf, buf.length);
                 socket.receive(packet);
                 String msg = new String(packet.getData(), 0, packet.getLength());
                 processMessage(msg, packet.getAddress().getHostAddress());
+            } catch (IOException e) {
+                if (running)
+                    e.printStackTrace();
+                break;
             }
-            socket.leaveGroup(group);
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
@@ -57,36 +128,69 @@ public class DiscoveryService implements Runnable {
         try {
             InetAddress group = InetAddress.getByName(MULTICAST_GROUP);
             while (running) {
-                // Msg: HELLO|ServerId|TcpPort|IsLeader
-                boolean isLeader = (isLeaderSupplier != null && isLeaderSupplier.get());
-                String msg = "HELLO|" + myServerId + "|" + myTcpPort + "|" + isLeader;
-                byte[] buf = msg.getBytes();
-
-                // Send standard UDP multicast
-                // Note: using MulticastSocket or DatagramSocket to send
-                try (MulticastSocket s = new MulticastSocket()) {
-                    DatagramPacket packet = new DatagramPacket(buf, buf.length, group, MULTICAST_PORT);
-                    s.send(packet);
+                long now = System.currentTimeMillis();
+                if (membership.expire(now) > 0)
+                    membershipChanged();
+
+                boolean announce;
+                synchronized (beaconLock) {
+                    announce = now >= nextBeaconAt;
+                    if (announce) {
+                        nextBeaconAt = now + beaconInterval;
+                        beaconInterval = Math.min(BEACON_MAX_MS, beaconInterval * 2);
+                    }
+                }
+                if (announce) {
+                    // Msg: HELLO|ServerId|TcpPort|IsLeader[|conns|queueDepth|p99Ms]
+                    boolean isLeader = (isLeaderSupplier != null && isLeaderSupplier.get());
+                    Supplier<String> load = loadSupplier;
+                    byte[] buf = ("HELLO|" + myServerId + "|" + myTcpPort + "|" + isLeader
+                            + (load != null ? "|" + load.get() : "")).getBytes();
+                    socket.send(new DatagramPacket(buf, buf.length, group, MULTICAST_PORT));
                 }
 
-                Thread.sleep(5000); // Announce every 5 seconds
+                synchronized (beaconLock) {
+                    long wait = Math.min(SWEEP_MS, nextBeaconAt - System.currentTimeMillis());
+                    if (wait > 0)
+                        beaconLock.wait(wait);
+                }
             }
+        } catch (InterruptedException e) {
+            // stopped
         } catch (Exception e) {
-            e.printStackTrace();
+            if (running)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * Back to the fast beacon rate and announce now.
+     */
+    private void membershipChanged() {
+        synchronized (beaconLock) {
+            beaconInterval = BEACON_MIN_MS;
+            nextBeaconAt = 0;
+            beaconLock.notifyAll();
         }
     }
 
     private void processMessage(String msg, String senderIp) {
-        // Msg: HELLO|ServerId|TcpPort
+        // Msg: HELLO|ServerId|TcpPort[|IsLeader[|conns|queueDepth|p99Ms]]
         try {
             String[] parts = msg.split("\\|");
+            Consumer<ServerLoad> listener = loadListener;
+            if (listener != null) {
+                ServerLoad load = ServerLoad.fromHello(parts, senderIp, System.currentTimeMillis());
+                if (load != null && load.getServerId() != myServerId)
+                    listener.accept(load);
+            }
             if (parts.length >= 3 && "HELLO".equals(parts[0])) {
                 int id = Integer.parseInt(parts[1]);
                 int port = Integer.parseInt(parts[2]);
 
-                if (id != myServerId) {
-                    Peer p = new Peer(id, senderIp, port);
-                    onPeerDiscovered.accept(p);
+                if (id != myServerId && port > 0
+                        && membership.heard(id, senderIp, port, System.currentTimeMillis())) {
+                    membershipChanged();
                 }
             }
         } catch (Exception e) {
@@ -96,5 +200,11 @@ public class DiscoveryService implements Runnable {
 
     public void stop() {
         running = false;
+        MulticastSocket s = socket;
+        if (s != null)
+            s.close();
+        synchronized (beaconLock) {
+            beaconLock.notifyAll();
+        }
     }
 }
@@ -1,57 +1,194 @@
 package com.electricity.service;
 
+import com.electricity.model.NodeRecord;
+import com.electricity.model.NodeState;
 import com.electricity.model.Peer;
+import com.electricity.monitor.ReadingRecorder;
 import com.electricity.monitor.NodeMonitor;
-import com.electricity.sync.LamportClock;
-import com.electricity.sync.MutualExclusion;
-import java.io.BufferedReader;
+import com.electricity.network.PeerChannel;
+import com.electricity.sync.HybridLogicalClock;
+import com.electricity.sync.TokenMutex;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Election Manager with integrated:
- * - Lab 5: Bully Election Algorithm
- * - Lab 4: Lamport Logical Clock
- * - Lab 6: Ricart-Agrawala Mutual Exclusion
+ * - Lab 5: Bully Election Algorithm (ELECTION/OK/COORDINATOR, leader leases)
+ * - Lab 4: Logical clock (Hybrid Logical Clock, stamped on every peer message)
+ * - Lab 6: Mutual Exclusion (token-based, Suzuki-Kasami, over the peer channels)
  * - Lab 7: Multi-threaded communication
+ *
+ * Peers are kept in a copy-on-write registry and each one gets a persistent
+ * PeerChannel, so replication traffic reuses one authenticated connection.
+ *
+ * Replicated state changes go through a sequenced log: the leader numbers
+ * every change, followers apply in order and NACK any gap they see.
+ * Non-leaders forward their client traffic to the leader for sequencing.
+ *
+ * The leader renews a time-bounded lease (LEASE, every lease/3) over the peer
+ * channels. A follower whose lease runs out starts a Bully round, so a crashed
+ * leader is replaced within -Delectricity.lease.ms plus one election timeout.
+ *
+ * With -Delectricity.consensus=raft the Bully election and the sequenced log
+ * are replaced by RaftNode: leadership comes from Raft terms (no COORDINATOR
+ * broadcast) and client writes are acknowledged once committed on a quorum
+ * and applied.
+ * Quorums come from the fixed -Delectricity.raft.voters list, not from the
+ * peers currently discovered.
+ *
+ * The node-state cache is a last-writer-wins CRDT (NodeStateCrdt) spread by
+ * delta gossip with Merkle-tree anti-entropy, so servers reconverge after a
+ * partition no matter which replication path delivered (or lost) an update.
+ *
+ * A server that joins with an empty cache pulls a streamed snapshot of node
+ * state and recent outage events from the first peer it finds
+ * (SnapshotTransfer), then continues from the source's replication position.
+ *
+ * With -Delectricity.partition=ring, districts are spread over the live
+ * servers by a consistent-hash ring (HashRing); a server that does not own a
+ * district redirects it with ERR|MOVED|host:port.
  */
 public class ElectionManager {
+    private static final DateTimeFormatter LAST_SEEN_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
     private int myId;
     private NodeMonitor monitor;
-    private List<Peer> peers = new ArrayList<>();
-    private ConcurrentHashMap<String, String[]> nodeStates = new ConcurrentHashMap<>();
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<Integer, PeerChannel> channels = new ConcurrentHashMap<>();
+    private final NodeStateCrdt nodeStates = new NodeStateCrdt();
+    // Status / region / sort indexes over nodeStates, for paged dashboard queries
+    private final NodeIndex nodeIndex = new NodeIndex(nodeStates);
+    private final HybridLogicalClock hlc = new HybridLogicalClock();
+    private final GossipService gossip;
     private volatile boolean isLeader = false;
+    private volatile int leaderId = -1;
+
+    // Sequenced replication (leader log + follower state)
+    private static final int MAX_RESEND_BATCH = 5000;
+    private final ReplicationLog replicationLog;
+    private final ReplicationFollower follower;
+    private final ConcurrentMap<Integer, Long> peerAcks = new ConcurrentHashMap<>();
+    // Our last seq when we last became leader; followers resume from here (see ReplicationFollower)
+    private volatile long replEpoch = 0;
+    private volatile boolean running = true;
+
+    // Snapshot transfer: recent outage events kept for joiners, one pull at a time
+    private static final int RECENT_EVENTS = 1000;
+    private static final int SNAPSHOT_ATTEMPTS = 3;
+    private final Map<String, String> recentEvents = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > RECENT_EVENTS;
+        }
+    };
+    // Latest OUTAGE_START / OUTAGE_END applied per node, so a snapshot keeps outages opened long ago
+    private final ConcurrentMap<String, String> latestOutage = new ConcurrentHashMap<>();
+    private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+    private volatile boolean snapshotLoaded = false;
 
-    // Lab 4: Lamport Logical Clock
-    private LamportClock lamportClock;
+    // Partitioning (opt-in): ring over this server plus the peers we can reach
+    private static final long RING_REFRESH_MS = 1000;
+    private volatile HashRing ring;
+    private Peer self;
 
-    // Lab 6: Mutual Exclusion
-    private MutualExclusion mutualExclusion;
+    // Consensus mode: Raft-replicated state machine (null in Bully mode)
+    private final RaftNode raft;
+
+    // Lab 5: Bully election with leader leases (Bully mode only).
+    // Failover is bounded by roughly LEASE_MS + ELECTION_TIMEOUT_MS.
+    private static final long LEASE_MS = Long.getLong("electricity.lease.ms", 3000);
+    private static final long LEASE_RENEW_MS = Math.max(50, LEASE_MS / 3);
+    private static final long ELECTION_TIMEOUT_MS = Long.getLong("electricity.election.timeoutMs", 500);
+    private static final long FAILOVER_SLO_MS = Long.getLong("electricity.failover.sloMs",
+            LEASE_MS + 3 * ELECTION_TIMEOUT_MS);
+    private final Object electionLock = new Object();
+    private boolean electionInProgress = false; // guarded by electionLock
+    private boolean okReceived = false; // guarded by electionLock
+    private long coordinatorAt = 0; // guarded by electionLock
+    private volatile long leaseExpiresAt = System.currentTimeMillis() + LEASE_MS;
+    private volatile long lastLeaseAt = 0;
+    private volatile long leaderLostSince = 0;
+    private volatile long lastFailoverMs = -1;
+
+    // Lab 6: Mutual Exclusion - one token-based lock per name, created on first use
+    private static final long LOCK_LEASE_MS = 10000;
+    private final ConcurrentHashMap<String, TokenMutex> locks = new ConcurrentHashMap<>();
 
     public ElectionManager(int myId, NodeMonitor monitor) {
         this.myId = myId;
         this.monitor = monitor;
 
-        // Initialize Lamport Clock
-        this.lamportClock = new LamportClock();
+        System.out.println("[Lab 4] Hybrid Logical Clock initialized for Node " + myId);
+        System.out.println("[Lab 6] Token-based Mutual Exclusion ready for Node " + myId);
+
+        this.replicationLog = new ReplicationLog(myId);
+        this.follower = new ReplicationFollower(myId, this::processMessage);
 
-        // Initialize Mutual Exclusion (peers will be added later)
-        this.mutualExclusion = new MutualExclusion(myId, lamportClock, new HashSet<>());
+        if ("raft".equalsIgnoreCase(System.getProperty("electricity.consensus", "bully"))) {
+            this.raft = new RaftNode(myId, RaftNode.configuredVoters(myId),
+                    this::sendToPeer,
+                    this::processMessage);
+            // The replicated state machine is the node cache plus the outage events applied to it
+            this.raft.setSnapshotHandlers(this::takeRaftSnapshot, this::restoreRaftSnapshot);
+            this.raft.setOnLeadershipChange(leader -> {
+                isLeader = leader;
+                if (leader)
+                    leaderId = myId;
+                monitor.setActive(leader);
+            });
+            System.out.println("[RAFT] Consensus mode enabled for Node " + myId);
+        } else {
+            this.raft = null;
+        }
+
+        this.gossip = new GossipService(nodeStates, hlc,
+                () -> peers.stream().map(Peer::getId).collect(Collectors.toList()),
+                this::sendToPeer);
+        this.gossip.start();
+
+        // Keep the summary's active outage counts current, whichever way an event arrives
+        EventFeed.subscribe(line -> {
+            // OUTAGE|eventId|nodeId|type|ts|meta|hlc (applyOutage always fills in the hlc)
+            String[] p = line.split("\\|", -1);
+            if (p.length >= 7 && p[0].equals("OUTAGE"))
+                latestOutage.compute(p[2],
+                        (node, old) -> nodeIndex.outageEvent(p[2], p[3], p[4], Long.parseLong(p[6])) ? line : old);
+        });
 
-        System.out.println("[Lab 4] Lamport Clock initialized for Node " + myId);
-        System.out.println("[Lab 6] Mutual Exclusion initialized for Node " + myId);
+        Thread tail = new Thread(this::replicationTailLoop, "replication-tail");
+        tail.setDaemon(true);
+        tail.start();
+
+        Thread lease = new Thread(this::leaseLoop, "leader-lease");
+        lease.setDaemon(true);
+        lease.start();
     }
 
     public synchronized void addPeer(Peer p) {
         peers.add(p);
+        PeerChannel channel = new PeerChannel(p, this::handlePeerResponse);
+        PeerChannel previous = channels.put(p.getId(), channel);
+        if (previous != null)
+            previous.close();
+        channel.start();
+        pullSnapshotIfCold();
     }
 
     public synchronized void addPeerIfNotExists(Peer p) {
@@ -62,32 +199,257 @@ public class ElectionManager {
         }
     }
 
+    /**
+     * Forget a server that has left the cluster (e.g. expired from the
+     * discovery membership table): close its channel so broadcasts stop
+     * queueing for it.
+     */
+    public synchronized void removePeer(int peerId) {
+        boolean removed = peers.removeIf(p -> p.getId() == peerId);
+        PeerChannel channel = channels.remove(peerId);
+        if (channel != null)
+            channel.close();
+        peerAcks.remove(peerId);
+        if (removed)
+            System.out.println("Removed Peer: " + peerId);
+    }
+
     public boolean isLeader() {
-        return isLeader;
+        return raft != null ? raft.isLeader() : isLeader;
     }
 
-    public void startElection() {
-        System.out.println("Starting Election...");
-        int highestId = myId;
+    public int getLeaderId() {
+        return raft != null ? raft.getLeaderId() : leaderId;
+    }
+
+    public List<Peer> getPeers() {
+        return Collections.unmodifiableList(peers);
+    }
+
+    /**
+     * Turn on consistent-hash ownership of districts. self is the address
+     * clients should be redirected to for districts this server owns.
+     */
+    public void enablePartitioning(Peer self) {
+        this.self = self;
+        this.ring = new HashRing();
+        refreshRing();
+        Thread t = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(RING_REFRESH_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                refreshRing();
+            }
+        }, "ring-refresh");
+        t.setDaemon(true);
+        t.start();
+        System.out.println("[RING] Partitioning enabled, " + HashRing.VIRTUAL_NODES + " virtual nodes per server");
+    }
+
+    /**
+     * Ring members are this server and every peer whose channel is up, so a
+     * server that stops answering hands its share to its ring neighbours.
+     */
+    private void refreshRing() {
+        List<Peer> live = new ArrayList<>();
+        live.add(self);
         for (Peer p : peers) {
-            if (p.getId() > highestId) {
-                highestId = p.getId();
+            PeerChannel channel = channels.get(p.getId());
+            if (channel != null && channel.isConnected())
+                live.add(p);
+        }
+        if (ring.setServers(live)) {
+            System.out.println("[RING] Membership changed: " + live.size() + " server(s)");
+        }
+    }
+
+    /**
+     * The server a district should be talking to, or null if it is us (or
+     * partitioning is off).
+     */
+    public Peer redirectFor(String nodeId) {
+        HashRing r = ring;
+        if (r == null)
+            return null;
+        Peer owner = r.ownerOf(nodeId);
+        return owner == null || owner.getId() == myId ? null : owner;
+    }
+
+    public void startElection() {
+        if (raft != null) {
+            // Raft runs its own elections (randomized timeouts, terms, votes)
+            raft.start();
+            return;
+        }
+        synchronized (electionLock) {
+            if (electionInProgress)
+                return;
+            electionInProgress = true;
+        }
+        Thread t = new Thread(this::runElection, "election-" + myId);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Bully round: send ELECTION to every higher id at once and wait up to
+     * ELECTION_TIMEOUT_MS for an OK. No OK means every higher server is down
+     * and we take over; an OK means a higher server is running its own round,
+     * so we wait for its COORDINATOR and start again if it never comes.
+     */
+    private void runElection() {
+        try {
+            while (running) {
+                long roundStart = System.currentTimeMillis();
+                List<Integer> higher = new ArrayList<>();
+                boolean anyReachable = false;
+                for (Peer p : peers) {
+                    if (p.getId() > myId) {
+                        higher.add(p.getId());
+                        PeerChannel channel = channels.get(p.getId());
+                        anyReachable |= channel != null && channel.isConnected();
+                    }
+                }
+                System.out.println("[ELECTION] Node " + myId + " starting election, higher peers " + higher);
+
+                boolean ok;
+                synchronized (electionLock) {
+                    okReceived = false;
+                    for (int id : higher) {
+                        sendToPeer(id, "ELECTION|" + myId);
+                    }
+                    // Nobody higher with a live channel: no answer can come in time
+                    long deadline = roundStart + ELECTION_TIMEOUT_MS;
+                    while (anyReachable && !okReceived && System.currentTimeMillis() < deadline) {
+                        electionLock.wait(Math.max(1, deadline - System.currentTimeMillis()));
+                    }
+                    ok = okReceived;
+                }
+                if (!ok) {
+                    becomeLeader();
+                    return;
+                }
+
+                // A higher server answered; it should announce itself shortly
+                synchronized (electionLock) {
+                    long deadline = System.currentTimeMillis() + 2 * ELECTION_TIMEOUT_MS;
+                    while (coordinatorAt < roundStart && System.currentTimeMillis() < deadline) {
+                        electionLock.wait(Math.max(1, deadline - System.currentTimeMillis()));
+                    }
+                    if (coordinatorAt >= roundStart)
+                        return;
+                }
+                System.out.println("[ELECTION] Got OK but no COORDINATOR, retrying");
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            synchronized (electionLock) {
+                electionInProgress = false;
             }
         }
-        if (highestId == myId) {
-            isLeader = true;
+    }
+
+    private void becomeLeader() {
+        boolean wasLeader = isLeader;
+        isLeader = true;
+        leaderId = myId;
+        if (!wasLeader) {
+            replEpoch = replicationLog.getLastSeq();
             monitor.setActive(true);
             System.out.println("I am the Leader!");
-            broadcast("COORDINATOR|" + myId);
-        } else {
-            isLeader = false;
+        }
+        recordFailover(myId);
+        broadcast("COORDINATOR|" + myId);
+        broadcast("LEASE|" + myId + "|" + LEASE_MS);
+    }
+
+    private void acceptLeader(int id, long leaseMs) {
+        boolean wasLeader = isLeader;
+        isLeader = false;
+        leaderId = id;
+        lastLeaseAt = System.currentTimeMillis();
+        leaseExpiresAt = lastLeaseAt + leaseMs;
+        if (wasLeader)
             monitor.setActive(false);
-            // Send ELECTION to higher nodes? Simplified: just wait.
-            // Or broadcast I am looking for leader
+        recordFailover(id);
+        synchronized (electionLock) {
+            coordinatorAt = System.currentTimeMillis();
+            electionLock.notifyAll();
         }
     }
 
+    /**
+     * A claim from a lower id while a higher leader's lease is still running
+     * is left over from a round that leader has since won.
+     */
+    private boolean isStaleClaim(int claimant) {
+        return !isLeader && claimant < leaderId && System.currentTimeMillis() < leaseExpiresAt;
+    }
+
+    /**
+     * Failover time = last time we heard from the old leader until a new one
+     * is known. Logged against the configured SLO.
+     */
+    private void recordFailover(int newLeader) {
+        long since = leaderLostSince;
+        if (since == 0)
+            return;
+        leaderLostSince = 0;
+        lastFailoverMs = System.currentTimeMillis() - since;
+        System.out.println("[ELECTION] Failover to Node " + newLeader + " took " + lastFailoverMs + "ms (SLO "
+                + FAILOVER_SLO_MS + "ms)" + (lastFailoverMs > FAILOVER_SLO_MS ? " - SLO MISSED" : ""));
+    }
+
+    /**
+     * Leader: renew the lease every LEASE_MS / 3.
+     * Follower: start an election once the lease runs out.
+     */
+    private void leaseLoop() {
+        while (running) {
+            try {
+                Thread.sleep(LEASE_RENEW_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (raft != null)
+                continue;
+            if (isLeader) {
+                broadcast("LEASE|" + myId + "|" + LEASE_MS);
+            } else if (System.currentTimeMillis() > leaseExpiresAt) {
+                synchronized (electionLock) {
+                    if (electionInProgress)
+                        continue;
+                }
+                if (leaderId != -1 && leaderLostSince == 0) {
+                    System.out.println("[ELECTION] Lease from leader " + leaderId + " expired");
+                    leaderLostSince = lastLeaseAt;
+                }
+                startElection();
+            }
+        }
+    }
+
+    public long getLastFailoverMs() {
+        return lastFailoverMs;
+    }
+
+    public long getFailoverSloMs() {
+        return FAILOVER_SLO_MS;
+    }
+
     public String processMessage(String msg) {
+        // HLC|timestamp|message - sender's clock, merged before handling the message
+        if (msg.startsWith("HLC|")) {
+            int sep = msg.indexOf('|', 4);
+            if (sep < 0)
+                return "ERR|HLC|BadFormat";
+            hlc.update(Long.parseLong(msg.substring(4, sep)));
+            msg = msg.substring(sep + 1);
+        }
+
         // Handle inter-server messages
         String[] parts = msg.split("\\|", -1);
         if (parts.length == 0)
@@ -96,39 +458,107 @@ public class ElectionManager {
         String type = parts[0].trim().toUpperCase();
 
         switch (type) {
-            case "COORDINATOR":
-                // Someone else won the election
-                isLeader = false;
-                monitor.setActive(false);
+            case "ELECTION": {
+                // ELECTION|fromId - a lower server is looking for a leader: bully it
+                int from = Integer.parseInt(parts[1].trim());
+                if (from >= myId)
+                    return "ACK";
+                startElection();
+                return "ELECTION_OK|" + myId;
+            }
+
+            case "COORDINATOR": {
+                // COORDINATOR|leaderId - someone else won the election
+                int newLeader = Integer.parseInt(parts[1].trim());
+                if (newLeader < myId) {
+                    // We outrank it and are alive, so the round was incomplete
+                    startElection();
+                    return "ACK";
+                }
+                if (!isStaleClaim(newLeader))
+                    acceptLeader(newLeader, LEASE_MS);
                 return "ACK";
+            }
 
-            case "HEARTBEAT":
-                // HEARTBEAT|nodeId|powerState|load|transformer|timestamp
-                if (parts.length >= 6) {
-                    String nodeId = parts[1];
-                    String powerState = parts[2];
-                    String load = parts[3];
-                    String transformer = parts[4];
-                    String lastSeen = parts[5];
-
-                    // Update local cache
-                    updateLocalNodeState(nodeId, "Alive", load, powerState, transformer, lastSeen);
-
-                    // Also persist to database (ONLY IF LEADER)
-                    if (isLeader()) {
-                        syncHeartbeatToDB(nodeId, powerState, load, transformer);
-                    }
+            case "LEASE": {
+                // LEASE|leaderId|durationMs - renewal from the current leader
+                int from = Integer.parseInt(parts[1].trim());
+                if (from < myId && isLeader) {
+                    startElection(); // re-announce ourselves to a stale leader
+                    return "OK|LEASE";
                 }
+                if (isStaleClaim(from))
+                    return "OK|LEASE";
+                if (from != leaderId || isLeader) {
+                    acceptLeader(from, Long.parseLong(parts[2]));
+                } else {
+                    lastLeaseAt = System.currentTimeMillis();
+                    leaseExpiresAt = lastLeaseAt + Long.parseLong(parts[2]);
+                }
+                return "OK|LEASE";
+            }
+
+            case "REPL": {
+                // REPL|leaderId|epoch|seq|payload
+                String[] repl = msg.split("\\|", 5);
+                if (repl.length < 5)
+                    return "ERR|REPL|BadFormat";
+                return follower.onEntry(Integer.parseInt(repl[1]), Long.parseLong(repl[2]), Long.parseLong(repl[3]),
+                        repl[4]);
+            }
+
+            case "REPL_TAIL":
+                // REPL_TAIL|leaderId|epoch|lastSeq
+                if (parts.length < 4)
+                    return "ERR|REPL|BadFormat";
+                return follower.onTail(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+
+            case "REPL_SKIP":
+                // REPL_SKIP|leaderId|epoch|firstAvailableSeq
+                if (parts.length < 4)
+                    return "ERR|REPL|BadFormat";
+                return follower.onSkip(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+
+            case "GOSSIP_DELTA":
+            case "AE_ROOT":
+            case "AE_DESCEND":
+            case "AE_LEAVES":
+                return gossip.handleRequest(msg);
+
+            case "SK_REQ":
+            case "SK_TOKEN":
+            case "SK_PROBE":
+            case "SK_REGEN":
+                // SK_*|lockName|...
+                return getLock(parts[1]).handleMessage(msg);
+
+            case "RAFT_VOTE":
+            case "RAFT_APPEND":
+            case "RAFT_FWD":
+            case "RAFT_SNAPSHOT":
+                if (raft == null)
+                    return "ERR|NO_RAFT";
+                return raft.handleMessage(msg);
+
+            case "FWD":
+                // FWD|payload - a follower's client traffic, to be sequenced by us
+                if (!isLeader())
+                    return "ERR|NOT_LEADER";
+                String payload = msg.substring(msg.indexOf('|') + 1);
+                appendAndReplicate(payload);
+                processMessage(payload);
+                return "OK|FWD";
+
+            case "HEARTBEAT":
+                applyHeartbeat(parts, isLeader()); // the database is written by the leader only
                 return "OK|SYNC";
 
             case "OUTAGE":
-                // OUTAGE|eventId|nodeId|eventType|timestamp|metadata
-                if (parts.length >= 6) {
-                    // (ONLY IF LEADER)
-                    if (isLeader()) {
-                        syncOutageToDB(parts[1], parts[2], parts[3], parts[4], parts[5]);
-                    }
-                }
+                applyOutage(msg, parts, isLeader());
+                return "OK|SYNC";
+
+            case "SUSPECT":
+                applySuspect(parts, isLeader());
                 return "OK|SYNC";
 
             default:
@@ -136,21 +566,124 @@ public class ElectionManager {
         }
     }
 
-    private void syncHeartbeatToDB(String nodeId, String powerState, String load, String transformer) {
+    /**
+     * Apply a replicated HEARTBEAT|nodeId|powerState|load|transformer|timestamp[|hlc|origin[|keepaliveSec]]
+     * to the local cache; with persist, also to the database and the voltage history.
+     */
+    private void applyHeartbeat(String[] parts, boolean persist) {
+        if (parts.length < 6)
+            return;
+        String nodeId = parts[1];
+        String powerState = parts[2];
+        String load = parts[3];
+        String transformer = parts[4];
+        String lastSeen = parts[5];
+        int keepaliveSec = parts.length >= 9 ? Integer.parseInt(parts[8]) : 0;
+
+        // Update local cache (keeping the writer's HLC stamp, if sent)
+        long ts;
+        if (parts.length >= 8) {
+            ts = Long.parseLong(parts[6]);
+            hlc.update(ts);
+            nodeStates.merge(new NodeRecord(nodeId, "Alive", load, powerState, transformer, lastSeen, ts,
+                    Integer.parseInt(parts[7]), keepaliveSec));
+        } else {
+            ts = hlc.now();
+            updateLocalNodeState(nodeId, "Alive", load, powerState, transformer, lastSeen);
+        }
+
+        if (persist) {
+            long seenAt = HybridLogicalClock.physicalMillis(ts);
+            syncHeartbeatToDB(nodeId, powerState, load, transformer, keepaliveSec, seenAt);
+            StateVersion.bump();
+            ReadingRecorder.shared().record(nodeId, seenAt, NodeIndex.parseVoltage(transformer), powerState);
+        }
+    }
+
+    /**
+     * Apply a replicated OUTAGE|eventId|nodeId|eventType|timestamp|metadata[|hlc]
+     * to the local feed; with persist, also to the database.
+     */
+    private void applyOutage(String msg, String[] parts, boolean persist) {
+        if (parts.length < 6)
+            return;
+        long eventHlc = parts.length >= 7 ? hlc.update(Long.parseLong(parts[6])) : hlc.now();
+        if (parts.length < 7)
+            msg = msg + "|" + eventHlc; // from an older server: stamp it here, as stored below
+        recordRecentEvent(parts[1], msg);
+        EventFeed.publish(msg);
+        if (persist) {
+            syncOutageToDB(parts[1], parts[2], parts[3], parts[4], parts[5],
+                    parts.length >= 7 ? Long.parseLong(parts[6]) : eventHlc);
+            StateVersion.bump();
+        }
+    }
+
+    /**
+     * Apply a replicated SUSPECT|nodeId|hlc|origin (the district's link
+     * dropped): its record is rewritten as SUSPECTED, stamped with the
+     * suspicion's HLC, so a report after it sets it ONLINE again; with
+     * persist, also to the database.
+     */
+    private void applySuspect(String[] parts, boolean persist) {
+        if (parts.length < 4)
+            return;
+        String nodeId = parts[1];
+        long ts = hlc.update(Long.parseLong(parts[2]));
+        NodeRecord r = nodeStates.get(nodeId);
+        // Only an ONLINE district becomes SUSPECTED (as in the database below)
+        if (r != null && !NodeState.SUSPECTED.name().equals(r.getStatus())
+                && NodeIndex.statusAt(HybridLogicalClock.physicalMillis(r.getTimestamp()) + r.getKeepaliveSec() * 1000L,
+                        HybridLogicalClock.physicalMillis(ts)) == NodeState.ONLINE) {
+            nodeStates.merge(new NodeRecord(nodeId, NodeState.SUSPECTED.name(), r.getLoad(), r.getPower(),
+                    r.getTransformer(), r.getLastSeen(), Long.parseLong(parts[2]), Integer.parseInt(parts[3]),
+                    r.getKeepaliveSec()));
+        }
+        if (persist) {
+            try (java.sql.Connection conn = com.electricity.db.DBConnection.getConnection();
+                    java.sql.PreparedStatement ps = conn.prepareStatement(
+                            "UPDATE nodes SET status='SUSPECTED' WHERE node_id = ? AND status='ONLINE' AND last_seen < ?")) {
+                ps.setString(1, nodeId);
+                ps.setTimestamp(2, new java.sql.Timestamp(HybridLogicalClock.physicalMillis(ts)));
+                if (ps.executeUpdate() > 0)
+                    StateVersion.bump();
+            } catch (Exception e) {
+                System.err.println("Failed to sync suspicion to DB: " + e.getMessage());
+            }
+        }
+    }
+
+    private void applyLocally(String payload, boolean persist) {
+        String[] parts = payload.split("\\|", -1);
+        if (parts[0].equals("HEARTBEAT"))
+            applyHeartbeat(parts, persist);
+        else if (parts[0].equals("OUTAGE"))
+            applyOutage(payload, parts, persist);
+        else if (parts[0].equals("SUSPECT"))
+            applySuspect(parts, persist);
+    }
+
+    private void syncHeartbeatToDB(String nodeId, String powerState, String load, String transformer,
+            int keepaliveSec, long seenAt) {
         try (java.sql.Connection conn = com.electricity.db.DBConnection.getConnection()) {
-            java.sql.Timestamp now = new java.sql.Timestamp(System.currentTimeMillis());
-            String upsert = "INSERT INTO nodes (node_id, last_seen, last_power_state, last_load_percent, transformer_health, status) "
+            java.sql.Timestamp now = new java.sql.Timestamp(seenAt);
+            String upsert = "INSERT INTO nodes (node_id, last_seen, last_power_state, last_load_percent, transformer_health, keepalive_sec, status) "
                     +
-                    "VALUES (?, ?, ?, ?, ?, 'ONLINE') " +
+                    "VALUES (?, ?, ?, ?, ?, ?, 'ONLINE') " +
                     "ON DUPLICATE KEY UPDATE last_seen = VALUES(last_seen), last_power_state = VALUES(last_power_state), "
                     +
-                    "last_load_percent = VALUES(last_load_percent), transformer_health = VALUES(transformer_health), status='ONLINE'";
+                    "last_load_percent = VALUES(last_load_percent), transformer_health = VALUES(transformer_health), "
+                    + "keepalive_sec = VALUES(keepalive_sec), status='ONLINE'";
             try (java.sql.PreparedStatement ps = conn.prepareStatement(upsert)) {
                 ps.setString(1, nodeId);
                 ps.setTimestamp(2, now);
                 ps.setString(3, powerState);
                 ps.setInt(4, Integer.parseInt(load));
                 ps.setString(5, transformer);
+                if (keepaliveSec > 0)
+                    ps.setInt(6, keepaliveSec);
+                else
+                    ps.setNull(6, java.sql.Types.INTEGER);
                 ps.executeUpdate();
             }
             System.out.println("  [SYNC] Replicated HEARTBEAT for node " + nodeId);
@@ -159,7 +692,8 @@ public class ElectionManager {
         }
     }
 
-    private void syncOutageToDB(String eventId, String nodeId, String eventType, String timestampStr, String metadata) {
+    private void syncOutageToDB(String eventId, String nodeId, String eventType, String timestampStr, String metadata,
+            long eventHlc) {
         try (java.sql.Connection conn = com.electricity.db.DBConnection.getConnection()) {
             java.sql.Timestamp ts;
             try {
@@ -170,66 +704,477 @@ public class ElectionManager {
                 ts = new java.sql.Timestamp(System.currentTimeMillis());
             }
 
-            String insertEvent = "INSERT INTO events (event_id, node_id, event_type, timestamp, metadata) VALUES (?, ?, ?, ?, ?)";
+            String insertEvent = "INSERT INTO events (event_id, node_id, event_type, timestamp, metadata, hlc) VALUES (?, ?, ?, ?, ?, ?)";
             try (java.sql.PreparedStatement ps = conn.prepareStatement(insertEvent)) {
                 ps.setString(1, eventId);
                 ps.setString(2, nodeId);
                 ps.setString(3, eventType);
                 ps.setTimestamp(4, ts);
                 ps.setString(5, metadata);
+                ps.setLong(6, eventHlc);
                 ps.executeUpdate();
                 System.out.println("  [SYNC] Replicated OUTAGE event " + eventId);
             } catch (java.sql.SQLIntegrityConstraintViolationException dup) {
-                // Already exists, that's fine
+                // Already exists, that's fine (and its power state was set then)
                 System.out.println("  [SYNC] OUTAGE " + eventId + " already exists (OK)");
+                return;
+            }
+
+            String powerState = powerStateAfter(eventType);
+            if (powerState != null) {
+                try (java.sql.PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE nodes SET last_power_state = ?, last_seen = NOW() WHERE node_id = ?")) {
+                    ps.setString(1, powerState);
+                    ps.setString(2, nodeId);
+                    ps.executeUpdate();
+                }
             }
         } catch (Exception e) {
             System.err.println("Failed to sync outage to DB: " + e.getMessage());
         }
     }
 
+    /**
+     * The district's power state once an event is applied (null: unchanged).
+     */
+    private static String powerStateAfter(String eventType) {
+        if (eventType.contains("END"))
+            return "NORMAL";
+        if (eventType.startsWith("SAG"))
+            return "LOW";
+        if (eventType.startsWith("SWELL"))
+            return "HIGH";
+        if (eventType.contains("START"))
+            return "OFF";
+        return null;
+    }
+
     public void updateLocalNodeState(String nodeId, String status, String load, String power, String transformer,
             String lastSeen) {
-        nodeStates.put(nodeId, new String[] { nodeId, status, load, power, transformer, lastSeen });
+        nodeStates.merge(new NodeRecord(nodeId, status, load, power, transformer, lastSeen, hlc.now(), myId));
+    }
+
+    /**
+     * Replicate a client report to all peers. Nothing is written before the
+     * change is proposed: the cache, the database and the voltage history are
+     * updated when it is applied (see replicate). keepaliveSec is how long
+     * the district may stay silent (0 = reports every sample).
+     */
+    public CompletableFuture<Boolean> replicateReport(String nodeId, String powerState, String load,
+            String transformer, int keepaliveSec) {
+        String lastSeen = LocalDateTime.now().format(LAST_SEEN_FORMAT);
+        long ts = hlc.now();
+        return replicate("HEARTBEAT|" + nodeId + "|" + powerState + "|" + load + "|" + transformer + "|" + lastSeen
+                + "|" + ts + "|" + myId + "|" + keepaliveSec);
+    }
+
+    /**
+     * Replicate an outage event to all peers. eventHlc is the HLC time the
+     * event was recorded at, so every server stores the same ordering key.
+     */
+    public CompletableFuture<Boolean> replicateOutage(String eventId, String nodeId, String eventType,
+            String timestamp, String metadata, long eventHlc) {
+        String payload = "OUTAGE|" + eventId + "|" + nodeId + "|" + eventType + "|" + timestamp + "|" + metadata + "|"
+                + eventHlc;
+        return replicate(payload);
+    }
+
+    /**
+     * Replicate that a district's connection dropped: every server marks it
+     * SUSPECTED until its next report (the leader in the database too).
+     */
+    public CompletableFuture<Boolean> replicateSuspect(String nodeId) {
+        return replicate("SUSPECT|" + nodeId + "|" + hlc.now() + "|" + myId);
+    }
+
+    /**
+     * Propose first, apply after. The future completes once the change is
+     * applied here.
+     * - Raft: propose to the consensus log; every server applies the entry
+     *   on commit, the leader also writes the database.
+     * - Bully leader: sequence and replicate, then apply and write the database.
+     * - Bully follower: forward to the leader (which writes the database),
+     *   then apply to the local cache.
+     * - No known leader yet: unsequenced broadcast, and write the database here
+     *   since nobody else will.
+     */
+    private CompletableFuture<Boolean> replicate(String payload) {
+        if (raft != null) {
+            return raft.propose(payload);
+        }
+        replicateSequenced(payload);
+        return CompletableFuture.completedFuture(true);
+    }
+
+    private void replicateSequenced(String payload) {
+        if (isLeader()) {
+            appendAndReplicate(payload);
+            applyLocally(payload, true);
+            return;
+        }
+        PeerChannel toLeader = channels.get(leaderId);
+        if (toLeader != null) {
+            toLeader.send(stamp("FWD|" + payload));
+            applyLocally(payload, false);
+        } else {
+            broadcast(payload);
+            applyLocally(payload, true);
+        }
+    }
+
+    private void appendAndReplicate(String payload) {
+        // Append + enqueue under one lock so channels see entries in sequence order
+        synchronized (replicationLog) {
+            long seq = replicationLog.append(payload);
+            broadcast("REPL|" + myId + "|" + replEpoch + "|" + seq + "|" + payload);
+        }
+    }
+
+    /**
+     * Leader: periodically announce the log tail so idle followers can notice
+     * they missed the last entries.
+     */
+    private void replicationTailLoop() {
+        while (running) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (raft == null && isLeader()) {
+                broadcast("REPL_TAIL|" + myId + "|" + replEpoch + "|" + replicationLog.getLastSeq());
+            }
+        }
+    }
+
+    /**
+     * Resend [from, to] to a follower that reported a gap.
+     */
+    private void resend(Peer peer, long from, long to) {
+        PeerChannel channel = channels.get(peer.getId());
+        if (channel == null)
+            return;
+        long firstRetained = replicationLog.firstRetainedSeq();
+        if (firstRetained == 0 || from < firstRetained) {
+            channel.send(stamp("REPL_SKIP|" + myId + "|" + replEpoch + "|" + (firstRetained == 0 ? to + 1 : firstRetained)));
+            from = Math.max(from, firstRetained);
+        }
+        for (Map.Entry<Long, String> e : replicationLog.range(from, to, MAX_RESEND_BATCH)) {
+            channel.send(stamp("REPL|" + myId + "|" + replEpoch + "|" + e.getKey() + "|" + e.getValue()));
+        }
+    }
+
+    public long getReplicationSeq() {
+        return isLeader() ? replicationLog.getLastSeq() : follower.getHighestContiguous();
+    }
+
+    public Map<Integer, Long> getPeerAcks() {
+        return Collections.unmodifiableMap(peerAcks);
     }
 
+    /**
+     * Queue a message on every peer channel. Never blocks the caller; each
+     * channel's sender thread batches whatever is queued into one write.
+     */
     public void broadcast(String msg) {
-        for (Peer p : peers) {
-            new Thread(() -> {
-                try (Socket s = new Socket(p.getHost(), p.getPort());
-                        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-                        PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
-
-                    // Authenticate as server peer
-                    out.println("AUTH|SERVER_PEER");
-
-                    // Wait for AUTH_OK
-                    String authResponse = in.readLine();
-                    if (authResponse == null || !authResponse.equals("AUTH_OK")) {
-                        System.err.println("  [BROADCAST] Auth failed to peer " + p.getId() + ": " + authResponse);
-                        return;
-                    }
+        String stamped = stamp(msg);
+        for (PeerChannel channel : channels.values()) {
+            channel.send(stamped);
+        }
+    }
+
+    private void sendToPeer(int peerId, String msg) {
+        PeerChannel channel = channels.get(peerId);
+        if (channel != null)
+            channel.send(stamp(msg));
+    }
+
+    /**
+     * Prefix a peer message with our HLC time so the receiver's clock moves
+     * past every event we have seen.
+     */
+    private String stamp(String msg) {
+        return "HLC|" + hlc.now() + "|" + msg;
+    }
+
+    /**
+     * Cluster-wide lock by name (Suzuki-Kasami token over the peer channels).
+     * Usage: if (lock.acquire(timeout)) try { ... } finally { lock.release(); }
+     */
+    public TokenMutex getLock(String name) {
+        return locks.computeIfAbsent(name, n -> {
+            TokenMutex lock = new TokenMutex(n, myId,
+                    () -> peers.stream().map(Peer::getId).collect(Collectors.toList()),
+                    this::sendToPeer, LOCK_LEASE_MS);
+            lock.start();
+            return lock;
+        });
+    }
+
+    public HybridLogicalClock getClock() {
+        return hlc;
+    }
+
+    private void handlePeerResponse(Peer peer, String response) {
+        if (response.startsWith("AE_CHILDREN|") || response.startsWith("GOSSIP_RESP|")) {
+            gossip.handleResponse(peer.getId(), response);
+        } else if (response.startsWith("ELECTION_OK|")) {
+            synchronized (electionLock) {
+                okReceived = true;
+                electionLock.notifyAll();
+            }
+        } else if (response.startsWith("SK_")) {
+            getLock(response.split("\\|", 3)[1]).handleResponse(response);
+        } else if (response.startsWith("RAFT_")) {
+            if (raft != null)
+                raft.handleResponse(response);
+        } else if (response.startsWith("REPL_ACK|")) {
+            // REPL_ACK|followerId|highestContiguous
+            String[] parts = response.split("\\|");
+            peerAcks.merge(peer.getId(), Long.parseLong(parts[2]), Math::max);
+        } else if (response.startsWith("REPL_NACK|")) {
+            // REPL_NACK|followerId|from|to
+            String[] parts = response.split("\\|");
+            if (isLeader()) {
+                resend(peer, Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+            }
+        } else if (response.startsWith("ERR")) {
+            System.err.println("  [BROADCAST] Peer " + peer.getId() + " rejected message: " + response);
+        }
+        // OK / ACK responses need no action
+    }
+
+    /**
+     * Whether an outage event id was already applied: seen recently here, or
+     * stored in the events table. False if the database cannot be asked; a
+     * duplicate that slips through is still stored once (syncOutageToDB).
+     */
+    public boolean isKnownEvent(String eventId) {
+        synchronized (recentEvents) {
+            if (recentEvents.containsKey(eventId))
+                return true;
+        }
+        try (java.sql.Connection conn = com.electricity.db.DBConnection.getConnection();
+                java.sql.PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM events WHERE event_id = ?")) {
+            ps.setString(1, eventId);
+            try (java.sql.ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void recordRecentEvent(String eventId, String payload) {
+        synchronized (recentEvents) {
+            recentEvents.put(eventId, payload);
+        }
+    }
+
+    /**
+     * Raft snapshot lines: NODE|encoded record for every node, then
+     * EVENT|event line for the recent events and each node's latest outage
+     * event (the log entries that carried them are truncated behind it).
+     */
+    private List<String> takeRaftSnapshot() {
+        List<String> lines = new ArrayList<>();
+        for (NodeRecord r : nodeStates.values())
+            lines.add("NODE|" + r.encode());
+        Map<String, String> events = new LinkedHashMap<>();
+        synchronized (recentEvents) {
+            events.putAll(recentEvents);
+        }
+        for (String event : latestOutage.values())
+            events.putIfAbsent(event.split("\\|", 3)[1], event);
+        for (String event : events.values())
+            lines.add("EVENT|" + event);
+        return lines;
+    }
 
-                    // Send the actual message
-                    out.println(msg);
+    /**
+     * Install a Raft snapshot (on restart, or sent by the leader): merge the
+     * records, then apply the events we have not seen, as applyOutage would
+     * (recent events, the event feed and through it the summary's outages).
+     */
+    private void restoreRaftSnapshot(List<String> lines) {
+        for (String line : lines) {
+            String[] tagged = line.split("\\|", 2);
+            if (tagged.length < 2)
+                continue;
+            if (tagged[0].equals("NODE")) {
+                NodeRecord r = NodeRecord.decode(tagged[1]);
+                hlc.update(r.getTimestamp());
+                nodeStates.merge(r);
+            } else if (tagged[0].equals("EVENT")) {
+                String eventId = tagged[1].split("\\|", 3)[1];
+                synchronized (recentEvents) {
+                    if (recentEvents.containsKey(eventId))
+                        continue;
+                }
+                recordRecentEvent(eventId, tagged[1]);
+                EventFeed.publish(tagged[1]);
+            } else {
+                nodeStates.merge(NodeRecord.decode(line)); // snapshot file from before the tags
+            }
+        }
+    }
+
+    /**
+     * Source side of a snapshot transfer. Runs on the requesting peer's
+     * connection thread; the CRDT map is iterated without locking, so client
+     * ingest carries on while the snapshot streams.
+     */
+    public void streamSnapshot(OutputStream out) throws IOException {
+        List<String> events;
+        synchronized (recentEvents) {
+            events = new ArrayList<>(recentEvents.values());
+        }
+        // Position first: anything applied after it is either in the snapshot
+        // already or will be resent by the leader on a NACK
+        int leader = raft != null ? raft.getLeaderId() : isLeader ? myId : follower.getLeaderId();
+        long seq = raft != null ? 0 : getReplicationSeq();
+        long start = System.currentTimeMillis();
+        SnapshotTransfer.stream(out, nodeStates.values(), events, leader, seq);
+        System.out.println("[SNAPSHOT] Sent " + nodeStates.size() + " nodes, " + events.size() + " events in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
 
-                    // Optionally read response
-                    String response = in.readLine();
-                    if (response != null && response.startsWith("OK")) {
-                        // Success - suppress log to avoid spam
-                        // System.out.println(" [BROADCAST] Peer " + p.getId() + " acknowledged: " +
-                        // response);
+    /**
+     * Joiner side: if our cache is still empty, pull a snapshot from the
+     * known peers (in the background, one attempt at a time).
+     */
+    private void pullSnapshotIfCold() {
+        if (snapshotLoaded || nodeStates.size() > 0 || !snapshotInProgress.compareAndSet(false, true))
+            return;
+        Thread t = new Thread(() -> {
+            try {
+                for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS && !snapshotLoaded && running; attempt++) {
+                    for (Peer source : peers) {
+                        if (pullSnapshotFrom(source))
+                            return;
                     }
-                } catch (IOException e) {
-                    // Peer might be down, suppress error to avoid log spam
-                    // System.err.println(" [BROADCAST] Failed to reach peer " + p.getId() + ": " +
-                    // e.getMessage());
+                    Thread.sleep(1000L << attempt);
                 }
-            }).start();
+            } catch (InterruptedException ignored) {
+            } finally {
+                snapshotInProgress.set(false);
+            }
+        }, "snapshot-pull");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private boolean pullSnapshotFrom(Peer source) {
+        long start = System.currentTimeMillis();
+        try {
+            SnapshotTransfer.Result result = SnapshotTransfer.pull(source,
+                    r -> {
+                        hlc.update(r.getTimestamp());
+                        nodeStates.merge(r);
+                    },
+                    event -> recordRecentEvent(event.split("\\|", 3)[1], event));
+            // Switch to live replication from where the snapshot was taken
+            if (raft == null && result.leaderId > 0 && result.leaderId != myId && result.replicationSeq > 0) {
+                follower.resumeFrom(result.leaderId, result.replicationSeq);
+            }
+            snapshotLoaded = true;
+            System.out.println("[SNAPSHOT] Loaded " + result.records + " nodes, " + result.events + " events from Peer "
+                    + source.getId() + " in " + (System.currentTimeMillis() - start) + "ms");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[SNAPSHOT] Transfer from Peer " + source.getId() + " failed: " + e.getMessage());
+            return false;
         }
     }
 
+    public void shutdown() {
+        running = false;
+        replicationLog.close();
+        gossip.stop();
+        for (TokenMutex lock : locks.values()) {
+            lock.stop();
+        }
+        if (raft != null)
+            raft.stop();
+        for (PeerChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+    }
+
     public Map<String, String[]> getNodeStateSnapshot() {
-        return nodeStates;
+        Map<String, String[]> snapshot = new HashMap<>();
+        for (NodeRecord r : nodeStates.values()) {
+            snapshot.put(r.getNodeId(), r.toRow());
+        }
+        return snapshot;
+    }
+
+    /**
+     * How far behind the cluster our node-state cache may be, in ms: 0 on the
+     * leader, time since we were last caught up on a follower, and
+     * Long.MAX_VALUE while we have never been in sync (or are still loading a
+     * snapshot).
+     */
+    public long getCacheStalenessMs() {
+        if (isLeader())
+            return 0;
+        if (snapshotInProgress.get() && !snapshotLoaded)
+            return Long.MAX_VALUE;
+        long caughtUpAt = raft != null ? raft.getLastLeaderContactAt() : follower.getLastCaughtUpAt();
+        return caughtUpAt == 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    /**
+     * Dashboard rows from the replicated cache, sorted by node id:
+     * node_id, status, load, power, transformer, last seen (HH:mm:ss).
+     * Status follows the same thresholds NodeMonitor applies in the database,
+     * measured from the record's write time plus the district's keepalive.
+     */
+    public List<String[]> getDashboardRows() {
+        long now = System.currentTimeMillis();
+        List<String[]> rows = new ArrayList<>(nodeStates.size());
+        for (NodeRecord r : nodeStates.values()) {
+            long due = HybridLogicalClock.physicalMillis(r.getTimestamp())
+                    + r.getKeepaliveSec() * 1000L;
+            String lastSeen = r.getLastSeen() == null ? "" : r.getLastSeen();
+            int t = lastSeen.indexOf('T');
+            rows.add(new String[] { r.getNodeId(), NodeIndex.statusAt(due, now).name(),
+                    r.getLoad(), r.getPower(), r.getTransformer(), t >= 0 ? lastSeen.substring(t + 1) : lastSeen });
+        }
+        rows.sort(Comparator.comparing((String[] row) -> row[0]));
+        return rows;
+    }
+
+    /**
+     * One page of dashboard rows from the replicated cache, served from the
+     * secondary indexes (see NodeIndex) rather than by scanning every node.
+     */
+    public NodeQuery.Page queryNodes(NodeQuery query) {
+        return nodeIndex.query(query, System.currentTimeMillis());
+    }
+
+    /**
+     * The same rows as getDashboardRows(), handed over one at a time so a
+     * caller can stream a large fleet without holding it all.
+     */
+    public void forEachDashboardRow(Consumer<String[]> action) {
+        nodeIndex.forEachRow(System.currentTimeMillis(), action);
+    }
+
+    public int getNodeCount() {
+        return nodeIndex.size();
+    }
+
+    /**
+     * Status counts, active outages and voltages per region, from the
+     * aggregates the node index keeps up to date (no scan of the fleet).
+     */
+    public List<FleetAggregates.RegionSummary> getFleetSummary() {
+        return nodeIndex.summary(System.currentTimeMillis());
+    }
+
+    public Collection<NodeRecord> getNodeRecords() {
+        return nodeStates.values();
     }
 }
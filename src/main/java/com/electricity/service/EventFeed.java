@@ -0,0 +1,29 @@
+package com.electricity.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Outage / anomaly events as this server learns of them, for live push to
+ * dashboards. Lines have the wire layout OUTAGE|eventId|nodeId|type|ts|meta[|hlc]
+ * (ANOMALY events too). Events are published when applied, never before
+ * they are replicated. A listener may see the same event id twice, e.g.
+ * applied on forwarding and again from the leader's replicated log.
+ */
+public final class EventFeed {
+    private static final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    private EventFeed() {
+    }
+
+    public static void subscribe(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public static void publish(String eventLine) {
+        for (Consumer<String> l : listeners) {
+            l.accept(eventLine);
+        }
+    }
+}
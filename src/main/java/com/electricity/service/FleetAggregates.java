@@ -0,0 +1,197 @@
+package com.electricity.service;
+
+import com.electricity.model.NodeState;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-region counters behind /api/summary, kept current as nodes change
+ * instead of recounted from the node list on every request.
+ *
+ * Each node contributes to its region:
+ * - one count under its status (ONLINE, SUSPECTED or OFFLINE);
+ * - one active outage while an OUTAGE_START is open for it or it reports
+ *   its power OFF (the database fallback counts last_power_state = 'OFF',
+ *   which ClientHandler sets and clears on the same events);
+ * - its voltage to min / avg, only while it is neither OFFLINE (a stale
+ *   reading) nor in an outage (0V there would only repeat the outage count).
+ *
+ * NodeIndex removes a node's old contribution and adds the new one on
+ * every merge and every status transition. Every update is O(1):
+ * - Voltages go into a 0.1V histogram per region, so removing one never
+ *   needs a rescan.
+ * - The minimum is found lazily, by moving a low-water mark up past empty
+ *   bins at read time.
+ */
+public class FleetAggregates {
+    private static final double V_STEP = 0.1;
+    private static final int V_BINS = 5001; // 0.0 .. 500.0 V
+    private static final String VOLTAGE = "CASE WHEN status <> 'OFFLINE' AND UPPER(last_power_state) <> 'OFF' "
+            + "THEN CAST(REPLACE(transformer_health, 'V', '') AS DECIMAL(6,1)) END";
+    private static final String SUMMARY_QUERY = "SELECT SUBSTRING_INDEX(node_id, '_', 1) AS region, "
+            + "SUM(status NOT IN ('SUSPECTED', 'OFFLINE')) AS online, SUM(status = 'SUSPECTED') AS suspected, "
+            + "SUM(status = 'OFFLINE') AS offline, SUM(UPPER(last_power_state) = 'OFF') AS outages, "
+            + "COUNT(" + VOLTAGE + ") AS v_count, MIN(" + VOLTAGE + ") AS v_min, AVG(" + VOLTAGE + ") AS v_avg "
+            + "FROM nodes GROUP BY region ORDER BY region";
+
+    /**
+     * Counters for one region at one moment.
+     */
+    public static final class RegionSummary {
+        private final String region;
+        private final int online;
+        private final int suspected;
+        private final int offline;
+        private final int outages;
+        private final int voltageCount;
+        private final double minVoltage;
+        private final double avgVoltage;
+
+        public RegionSummary(String region, int online, int suspected, int offline, int outages, int voltageCount,
+                double minVoltage, double avgVoltage) {
+            this.region = region;
+            this.online = online;
+            this.suspected = suspected;
+            this.offline = offline;
+            this.outages = outages;
+            this.voltageCount = voltageCount;
+            this.minVoltage = minVoltage;
+            this.avgVoltage = avgVoltage;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public int getOnline() {
+            return online;
+        }
+
+        public int getSuspected() {
+            return suspected;
+        }
+
+        public int getOffline() {
+            return offline;
+        }
+
+        public int getNodes() {
+            return online + suspected + offline;
+        }
+
+        public int getOutages() {
+            return outages;
+        }
+
+        public int getVoltageCount() {
+            return voltageCount;
+        }
+
+        /**
+         * NaN when no node in the region has a current reading.
+         */
+        public double getMinVoltage() {
+            return minVoltage;
+        }
+
+        public double getAvgVoltage() {
+            return avgVoltage;
+        }
+    }
+
+    private static final class Region {
+        final int[] status = new int[3]; // ONLINE, SUSPECTED, OFFLINE
+        int outages;
+        int voltageCount;
+        double voltageSum;
+        final int[] voltageBins = new int[V_BINS];
+        int lowBin = V_BINS; // no non-empty bin below this one
+    }
+
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    void add(String region, NodeState status, boolean outage, double voltage) {
+        update(region, status, outage, voltage, 1);
+    }
+
+    void remove(String region, NodeState status, boolean outage, double voltage) {
+        update(region, status, outage, voltage, -1);
+    }
+
+    private void update(String regionName, NodeState status, boolean outage, double voltage, int sign) {
+        Region r = regions.computeIfAbsent(regionName, k -> new Region());
+        synchronized (r) {
+            r.status[slot(status)] += sign;
+            if (outage)
+                r.outages += sign;
+            if (status != NodeState.OFFLINE && !outage && !Double.isNaN(voltage)) {
+                int bin = (int) Math.round(Math.max(0, Math.min(voltage, (V_BINS - 1) * V_STEP)) / V_STEP);
+                r.voltageBins[bin] += sign;
+                r.voltageCount += sign;
+                r.voltageSum += sign * voltage;
+                if (sign > 0 && bin < r.lowBin)
+                    r.lowBin = bin;
+            }
+        }
+    }
+
+    /**
+     * Current counters per region, in region order.
+     */
+    public List<RegionSummary> snapshot() {
+        List<RegionSummary> result = new ArrayList<>(regions.size());
+        for (Map.Entry<String, Region> e : regions.entrySet()) {
+            Region r = e.getValue();
+            synchronized (r) {
+                if (r.status[0] + r.status[1] + r.status[2] == 0)
+                    continue;
+                while (r.lowBin < V_BINS && r.voltageBins[r.lowBin] == 0)
+                    r.lowBin++;
+                boolean anyVoltage = r.voltageCount > 0;
+                result.add(new RegionSummary(e.getKey(), r.status[0], r.status[1], r.status[2], r.outages,
+                        r.voltageCount, anyVoltage ? r.lowBin * V_STEP : Double.NaN,
+                        anyVoltage ? r.voltageSum / r.voltageCount : Double.NaN));
+            }
+        }
+        result.sort((a, b) -> a.getRegion().compareTo(b.getRegion()));
+        return result;
+    }
+
+    /**
+     * The same counters computed by the database from the nodes table, for
+     * when the replicated cache is too stale to answer. One grouped scan;
+     * only a row per region comes back.
+     */
+    public static List<RegionSummary> fetchFromDatabase(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(SUMMARY_QUERY)) {
+            List<RegionSummary> result = new ArrayList<>();
+            while (rs.next()) {
+                int count = rs.getInt("v_count");
+                result.add(new RegionSummary(rs.getString("region"), rs.getInt("online"), rs.getInt("suspected"),
+                        rs.getInt("offline"), rs.getInt("outages"), count,
+                        count > 0 ? rs.getDouble("v_min") : Double.NaN,
+                        count > 0 ? rs.getDouble("v_avg") : Double.NaN));
+            }
+            return result;
+        }
+    }
+
+    private static int slot(NodeState status) {
+        switch (status) {
+            case SUSPECTED:
+                return 1;
+            case OFFLINE:
+                return 2;
+            default:
+                return 0; // ONLINE (RECOVERED counts as online)
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.electricity.service;
+
+import com.electricity.model.NodeRecord;
+import com.electricity.sync.HybridLogicalClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Delta-state gossip with Merkle-tree anti-entropy for the node-state CRDT.
+ *
+ * 1. Delta gossip (every GOSSIP_INTERVAL_MS): records changed since the last
+ *    round are pushed to FANOUT random peers.
+ * 2. Anti-entropy (every ANTI_ENTROPY_INTERVAL_MS): compare Merkle trees with
+ *    one random peer, descending only into subtrees whose hashes differ, then
+ *    exchange the records of the differing leaf buckets in both directions.
+ *    Cost is proportional to how much the two servers differ, not fleet size.
+ *
+ * Requests (handled by the receiver, answer on the same channel):
+ *   GOSSIP_DELTA|rec;rec...          -> OK|GOSSIP
+ *   AE_ROOT|hash                     -> AE_DONE | AE_CHILDREN|idx:hash,...
+ *   AE_DESCEND|idx,idx...            -> AE_CHILDREN|idx:hash,...
+ *   AE_LEAVES|bucket,bucket|rec;...  -> GOSSIP_RESP|rec;rec...
+ */
+public class GossipService {
+    private static final long GOSSIP_INTERVAL_MS = 1000;
+    private static final long ANTI_ENTROPY_INTERVAL_MS = 5000;
+    private static final int FANOUT = 2;
+    private static final int DEPTH_PER_ROUND = 2; // tree levels compared per round trip
+    private static final int MAX_RECORDS_PER_MESSAGE = 2000;
+
+    private final NodeStateCrdt crdt;
+    private final HybridLogicalClock clock;
+    private final Supplier<List<Integer>> peerIds;
+    private final BiConsumer<Integer, String> transport;
+    private volatile boolean running = false;
+
+    public GossipService(NodeStateCrdt crdt, HybridLogicalClock clock, Supplier<List<Integer>> peerIds,
+            BiConsumer<Integer, String> transport) {
+        this.crdt = crdt;
+        this.clock = clock;
+        this.peerIds = peerIds;
+        this.transport = transport;
+    }
+
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        Thread t = new Thread(this::gossipLoop, "gossip");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void gossipLoop() {
+        long nextAntiEntropy = System.currentTimeMillis() + ANTI_ENTROPY_INTERVAL_MS;
+        while (running) {
+            try {
+                Thread.sleep(GOSSIP_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            List<Integer> peers = new ArrayList<>(peerIds.get());
+            if (peers.isEmpty()) {
+                crdt.drainDelta(); // nobody to tell
+                continue;
+            }
+            Collections.shuffle(peers, ThreadLocalRandom.current());
+
+            List<NodeRecord> delta = crdt.drainDelta();
+            if (!delta.isEmpty()) {
+                for (int i = 0; i < Math.min(FANOUT, peers.size()); i++) {
+                    sendRecords(peers.get(i), "GOSSIP_DELTA|", delta);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= nextAntiEntropy) {
+                nextAntiEntropy = now + ANTI_ENTROPY_INTERVAL_MS;
+                transport.accept(peers.get(0), "AE_ROOT|" + crdt.rootHash());
+            }
+        }
+    }
+
+    /**
+     * Handle a gossip request from a peer; returns the response line.
+     */
+    public String handleRequest(String msg) {
+        String[] p = msg.split("\\|", -1);
+        switch (p[0]) {
+            case "GOSSIP_DELTA":
+                mergeAll(p.length > 1 ? p[1] : "");
+                return "OK|GOSSIP";
+
+            case "AE_ROOT":
+                if (Long.parseLong(p[1]) == crdt.rootHash())
+                    return "AE_DONE";
+                return childrenResponse(Collections.singletonList(1));
+
+            case "AE_DESCEND": {
+                List<Integer> indices = new ArrayList<>();
+                for (String s : p[1].split(",")) {
+                    if (!s.isEmpty())
+                        indices.add(Integer.parseInt(s));
+                }
+                return childrenResponse(indices);
+            }
+
+            case "AE_LEAVES": {
+                Set<Integer> buckets = parseBuckets(p[1]);
+                List<NodeRecord> mine = crdt.recordsInBuckets(buckets);
+                mergeAll(p.length > 2 ? p[2] : "");
+                return "GOSSIP_RESP|" + encode(mine);
+            }
+
+            default:
+                return "ERR|GOSSIP|UnknownType";
+        }
+    }
+
+    /**
+     * Handle a gossip response from the peer we sent a request to.
+     */
+    public void handleResponse(int peerId, String msg) {
+        String[] p = msg.split("\\|", -1);
+        if ("GOSSIP_RESP".equals(p[0])) {
+            mergeAll(p.length > 1 ? p[1] : "");
+        } else if ("AE_CHILDREN".equals(p[0])) {
+            compareAndDescend(peerId, p.length > 1 ? p[1] : "");
+        }
+    }
+
+    /**
+     * Compare the peer's subtree hashes with ours: descend into differing inner
+     * nodes, exchange records for differing leaves.
+     */
+    private void compareAndDescend(int peerId, String hashes) {
+        List<Integer> descend = new ArrayList<>();
+        Set<Integer> leaves = new HashSet<>();
+        for (String item : hashes.split(",")) {
+            if (item.isEmpty())
+                continue;
+            int colon = item.indexOf(':');
+            int index = Integer.parseInt(item.substring(0, colon));
+            long theirs = Long.parseLong(item.substring(colon + 1));
+            if (theirs == crdt.hashAt(index))
+                continue;
+            if (NodeStateCrdt.isLeaf(index))
+                leaves.add(index - NodeStateCrdt.BUCKETS);
+            else
+                descend.add(index);
+        }
+        if (!descend.isEmpty()) {
+            StringBuilder sb = new StringBuilder("AE_DESCEND|");
+            for (int i = 0; i < descend.size(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(descend.get(i));
+            }
+            transport.accept(peerId, sb.toString());
+        }
+        if (!leaves.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Integer b : leaves) {
+                if (sb.length() > 0)
+                    sb.append(',');
+                sb.append(b);
+            }
+            transport.accept(peerId, "AE_LEAVES|" + sb + "|" + encode(crdt.recordsInBuckets(leaves)));
+        }
+    }
+
+    /**
+     * Hashes of the descendants DEPTH_PER_ROUND levels below each index
+     * (or the leaves, if closer).
+     */
+    private String childrenResponse(List<Integer> indices) {
+        StringBuilder sb = new StringBuilder("AE_CHILDREN|");
+        boolean first = true;
+        for (int index : indices) {
+            List<Integer> level = Collections.singletonList(index);
+            for (int d = 0; d < DEPTH_PER_ROUND && !NodeStateCrdt.isLeaf(level.get(0)); d++) {
+                List<Integer> next = new ArrayList<>(level.size() * 2);
+                for (int i : level) {
+                    next.add(2 * i);
+                    next.add(2 * i + 1);
+                }
+                level = next;
+            }
+            for (int i : level) {
+                if (!first)
+                    sb.append(',');
+                sb.append(i).append(':').append(crdt.hashAt(i));
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void mergeAll(String encoded) {
+        if (encoded.isEmpty())
+            return;
+        for (String rec : encoded.split(";")) {
+            if (rec.isEmpty())
+                continue;
+            try {
+                NodeRecord r = NodeRecord.decode(rec);
+                clock.update(r.getTimestamp());
+                crdt.merge(r);
+            } catch (IllegalArgumentException e) {
+                System.err.println("[GOSSIP] Dropping bad record: " + e.getMessage());
+            }
+        }
+    }
+
+    private void sendRecords(int peerId, String prefix, List<NodeRecord> records) {
+        for (int from = 0; from < records.size(); from += MAX_RECORDS_PER_MESSAGE) {
+            List<NodeRecord> chunk = records.subList(from, Math.min(records.size(), from + MAX_RECORDS_PER_MESSAGE));
+            transport.accept(peerId, prefix + encode(chunk));
+        }
+    }
+
+    private static Set<Integer> parseBuckets(String s) {
+        Set<Integer> buckets = new HashSet<>();
+        for (String b : s.split(",")) {
+            if (!b.isEmpty())
+                buckets.add(Integer.parseInt(b));
+        }
+        return buckets;
+    }
+
+    private static String encode(List<NodeRecord> records) {
+        StringBuilder sb = new StringBuilder();
+        for (NodeRecord r : records) {
+            if (sb.length() > 0)
+                sb.append(';');
+            sb.append(r.encode());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.electricity.service;
+
+import com.electricity.model.Peer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring assigning districts (by node_id) to HQ servers.
+ *
+ * - Each server is placed on the ring at VIRTUAL_NODES points, which evens
+ *   out the share each server owns
+ * - A district belongs to the first server point clockwise from its hash
+ * - Adding or removing a server only moves the districts that fall between
+ *   that server's points and their predecessors (about 1/N of the fleet)
+ *
+ * The ring is immutable once built; membership changes swap in a new ring
+ * (copy-on-write), so lookups never lock.
+ */
+public class HashRing {
+    public static final int VIRTUAL_NODES = 128;
+
+    private volatile Snapshot current = new Snapshot(new TreeMap<>(), new HashMap<>());
+
+    private static class Snapshot {
+        final NavigableMap<Long, Integer> points;
+        final Map<Integer, Peer> servers;
+
+        Snapshot(NavigableMap<Long, Integer> points, Map<Integer, Peer> servers) {
+            this.points = points;
+            this.servers = servers;
+        }
+    }
+
+    /**
+     * Replace the ring membership. Returns true if the set of servers changed.
+     */
+    public synchronized boolean setServers(Collection<Peer> servers) {
+        Map<Integer, Peer> byId = new HashMap<>();
+        for (Peer p : servers) {
+            byId.put(p.getId(), p);
+        }
+        if (byId.keySet().equals(current.servers.keySet()))
+            return false;
+        TreeMap<Long, Integer> points = new TreeMap<>();
+        for (Integer id : byId.keySet()) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                points.put(hash("server-" + id + "#" + v), id);
+            }
+        }
+        current = new Snapshot(points, byId);
+        return true;
+    }
+
+    /**
+     * Server that owns a district, or null if the ring is empty.
+     */
+    public Peer ownerOf(String nodeId) {
+        Snapshot s = current;
+        if (s.points.isEmpty())
+            return null;
+        Map.Entry<Long, Integer> e = s.points.ceilingEntry(hash(nodeId));
+        if (e == null)
+            e = s.points.firstEntry();
+        return s.servers.get(e.getValue());
+    }
+
+    public Collection<Peer> getServers() {
+        return Collections.unmodifiableCollection(current.servers.values());
+    }
+
+    public int size() {
+        return current.servers.size();
+    }
+
+    /**
+     * 64-bit FNV-1a followed by a finalizer, so similar ids ("addis_001",
+     * "addis_002") still land far apart on the ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
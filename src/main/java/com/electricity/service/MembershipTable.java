@@ -0,0 +1,133 @@
+package com.electricity.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.electricity.model.Peer;
+
+/**
+ * Cluster membership as seen through discovery beacons.
+ *
+ * Each server we hear from has one entry with the time we last heard it.
+ * An entry that has not been refreshed within the TTL is evicted, and
+ * listeners are told about every join and leave, so the rest of the server
+ * (peer channels, election, ring) follows the live membership instead of
+ * keeping dead servers forever.
+ *
+ * A HELLO from a known server only touches its timestamp: no Peer is
+ * allocated unless the server is new or has moved to another address.
+ */
+public class MembershipTable {
+
+    public interface Listener {
+        void onJoin(Peer peer);
+
+        void onLeave(Peer peer);
+    }
+
+    private static class Member {
+        final Peer peer;
+        volatile long lastHeard;
+
+        Member(Peer peer, long lastHeard) {
+            this.peer = peer;
+            this.lastHeard = lastHeard;
+        }
+    }
+
+    private final long ttlMs;
+    private final Map<Integer, Member> members = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long lastChangeAt = System.currentTimeMillis();
+
+    public MembershipTable(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Record a beacon from server id at host:port. Returns true if that is a
+     * membership change (new server, or a known id at a new address).
+     */
+    public boolean heard(int id, String host, int port, long now) {
+        Member m = members.get(id);
+        if (m != null && m.peer.getPort() == port && m.peer.getHost().equals(host)) {
+            m.lastHeard = now;
+            return false;
+        }
+        Member joined = new Member(new Peer(id, host, port), now);
+        Member previous = members.put(id, joined);
+        lastChangeAt = now;
+        if (previous != null) {
+            System.out.println("[MEMBERSHIP] Server " + id + " moved to " + host + ":" + port);
+            for (Listener l : listeners) {
+                l.onLeave(previous.peer);
+            }
+        } else {
+            System.out.println("[MEMBERSHIP] Server " + id + " joined (" + host + ":" + port + ")");
+        }
+        for (Listener l : listeners) {
+            l.onJoin(joined.peer);
+        }
+        return true;
+    }
+
+    /**
+     * Evict every server not heard from within the TTL. Returns how many left.
+     */
+    public int expire(long now) {
+        List<Peer> left = new ArrayList<>();
+        for (Iterator<Member> it = members.values().iterator(); it.hasNext();) {
+            Member m = it.next();
+            if (now - m.lastHeard > ttlMs) {
+                it.remove();
+                left.add(m.peer);
+            }
+        }
+        if (left.isEmpty())
+            return 0;
+        lastChangeAt = now;
+        for (Peer p : left) {
+            System.out.println("[MEMBERSHIP] Server " + p.getId() + " expired (silent for over " + ttlMs + "ms)");
+            for (Listener l : listeners) {
+                l.onLeave(p);
+            }
+        }
+        return left.size();
+    }
+
+    public List<Peer> getMembers() {
+        List<Peer> list = new ArrayList<>();
+        for (Member m : members.values()) {
+            list.add(m.peer);
+        }
+        return list;
+    }
+
+    public long getLastHeard(int id) {
+        Member m = members.get(id);
+        return m == null ? 0 : m.lastHeard;
+    }
+
+    /**
+     * Time of the last join, move or leave.
+     */
+    public long getLastChangeAt() {
+        return lastChangeAt;
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    public int size() {
+        return members.size();
+    }
+}
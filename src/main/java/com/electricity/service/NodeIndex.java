@@ -0,0 +1,487 @@
+package com.electricity.service;
+
+import com.electricity.model.NodeRecord;
+import com.electricity.model.NodeState;
+import com.electricity.sync.HybridLogicalClock;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+/**
+ * Secondary indexes over the replicated node cache, so a filtered or paged
+ * dashboard query touches the rows it returns rather than the whole fleet.
+ *
+ * - byId: every node, in id order (also serves prefix=)
+ * - byRegion: region -> node ids in id order
+ * - byDue: (due, id), where due = last write + the district's keepalive
+ *   (for a SUSPECTED record, written when its link dropped: a due that
+ *   makes it SUSPECTED from that write on).
+ *   Status is a function of how long ago due was, so each status is one
+ *   range of this set. Status ages with the clock and needs no re-indexing.
+ * - bySeen: (last write, id) and byLoad: (load, id), for the other sorts
+ *
+ * NodeStateCrdt.merge() calls refresh() for every record it replaces.
+ * refresh() re-reads the current record under a per-id lock stripe, so
+ * concurrent merges of the same node cannot leave a stale entry behind
+ * whatever order they reach the index in.
+ *
+ * The index also keeps the FleetAggregates behind /api/summary current.
+ * Each entry remembers the status it is counted under:
+ * - refresh() moves a node's contribution when its record changes.
+ * - outageEvent() moves it when an outage opens or closes.
+ * - summary() first sweeps the byDue slices whose nodes crossed a
+ *   threshold since the last sweep, and moves just those. The cost is
+ *   O(1) per transition, not per node per read.
+ */
+public class NodeIndex {
+    private static final int STRIPES = 64;
+    // Candidates per page row to try in sort order before switching to a filter's index
+    private static final int PROBE_FACTOR = 8;
+
+    static final class Entry {
+        final String id;
+        final String region;
+        final long due;
+        final long seen;
+        final int load;
+        final NodeRecord record;
+        final double voltage;
+        // How this entry is counted in the aggregates; guarded by its stripe
+        NodeState counted;
+        boolean outage;
+
+        Entry(String id, String region, long due, long seen, int load, NodeRecord record) {
+            this.id = id;
+            this.region = region;
+            this.due = due;
+            this.seen = seen;
+            this.load = load;
+            this.record = record;
+            this.voltage = record == null ? Double.NaN : parseVoltage(record.getTransformer());
+        }
+    }
+
+    private static final Comparator<Entry> BY_DUE = Comparator.<Entry>comparingLong(e -> e.due)
+            .thenComparing(e -> e.id);
+    private static final Comparator<Entry> BY_SEEN = Comparator.<Entry>comparingLong(e -> e.seen)
+            .thenComparing(e -> e.id);
+    private static final Comparator<Entry> BY_LOAD = Comparator.<Entry>comparingInt(e -> e.load)
+            .thenComparing(e -> e.id);
+    private static final Comparator<Entry> BY_ID = Comparator.comparing(e -> e.id);
+
+    private final NodeStateCrdt states;
+    private final ConcurrentSkipListMap<String, Entry> byId = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> byRegion = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> byDue = new ConcurrentSkipListSet<>(BY_DUE);
+    private final ConcurrentSkipListSet<Entry> bySeen = new ConcurrentSkipListSet<>(BY_SEEN);
+    private final ConcurrentSkipListSet<Entry> byLoad = new ConcurrentSkipListSet<>(BY_LOAD);
+    private final Object[] stripes = new Object[STRIPES];
+    private final FleetAggregates aggregates = new FleetAggregates();
+    private final Object sweepLock = new Object();
+    // Clock reading every counted status is correct for
+    private volatile long sweptUpTo = System.currentTimeMillis();
+    // Nodes with an OUTAGE_START and no OUTAGE_END yet; changed under the node's stripe
+    private final Set<String> openOutages = ConcurrentHashMap.newKeySet();
+    // Order key {client time, HLC} of the latest outage event applied per node; changed under the node's stripe
+    private final Map<String, long[]> lastOutage = new ConcurrentHashMap<>();
+
+    /**
+     * Index states, now and on every later merge.
+     */
+    public NodeIndex(NodeStateCrdt states) {
+        this.states = states;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        states.attachIndex(this);
+    }
+
+    void refresh(String nodeId) {
+        synchronized (stripe(nodeId)) {
+            NodeRecord r = states.get(nodeId);
+            Entry old = byId.get(nodeId);
+            if (old != null && old.record == r)
+                return;
+            if (old != null) {
+                byDue.remove(old);
+                bySeen.remove(old);
+                byLoad.remove(old);
+                aggregates.remove(old.region, old.counted, old.outage, old.voltage);
+            }
+            if (r == null) {
+                byId.remove(nodeId);
+                ConcurrentSkipListSet<String> region = byRegion.get(NodeQuery.regionOf(nodeId));
+                if (region != null)
+                    region.remove(nodeId);
+                return;
+            }
+            long seen = HybridLogicalClock.physicalMillis(r.getTimestamp());
+            long due = NodeState.SUSPECTED.name().equals(r.getStatus())
+                    ? seen - (NodeState.SUSPECT_THRESHOLD + 1) * 1000L
+                    : seen + r.getKeepaliveSec() * 1000L;
+            Entry e = new Entry(nodeId, NodeQuery.regionOf(nodeId), due, seen, parseLoad(r.getLoad()), r);
+            long watermark = sweptUpTo;
+            e.counted = statusAt(e.due, watermark);
+            e.outage = inOutage(nodeId, r);
+            aggregates.add(e.region, e.counted, e.outage, e.voltage);
+            byId.put(nodeId, e);
+            if (old == null)
+                byRegion.computeIfAbsent(e.region, k -> new ConcurrentSkipListSet<>()).add(nodeId);
+            byDue.add(e);
+            bySeen.add(e);
+            byLoad.add(e);
+            // A sweep that started after the watermark read may have passed e's
+            // slot in byDue before e was added to it
+            if (sweptUpTo != watermark)
+                age(e, sweptUpTo);
+        }
+    }
+
+    /**
+     * Outage event for the summary counts (OUTAGE_START / OUTAGE_END; other
+     * types are ignored). Events reach us in arrival order, from ingest,
+     * replication and snapshots, and a START may be resent from a client's
+     * outbox long after its END. So each node's state follows its latest
+     * event by the district's own clock (eventTime, the event's timestamp
+     * field), with the HLC the server stamped it with breaking ties within
+     * a second. An event no newer than the last one applied for that node
+     * is ignored. Returns whether this event was applied.
+     */
+    public boolean outageEvent(String nodeId, String type, String eventTime, long eventHlc) {
+        boolean start = "OUTAGE_START".equals(type);
+        if (!start && !"OUTAGE_END".equals(type))
+            return false;
+        long[] key = { eventSeconds(eventTime, eventHlc), eventHlc };
+        synchronized (stripe(nodeId)) {
+            long[] latest = lastOutage.get(nodeId);
+            if (latest != null && (key[0] < latest[0] || key[0] == latest[0] && key[1] <= latest[1]))
+                return false;
+            lastOutage.put(nodeId, key);
+            if (start)
+                openOutages.add(nodeId);
+            else
+                openOutages.remove(nodeId);
+            Entry e = byId.get(nodeId);
+            if (e == null || e.outage == inOutage(nodeId, e.record))
+                return true;
+            aggregates.remove(e.region, e.counted, e.outage, e.voltage);
+            e.outage = !e.outage;
+            aggregates.add(e.region, e.counted, e.outage, e.voltage);
+        }
+        return true;
+    }
+
+    /**
+     * Per-region status counts, active outages and voltages as of now.
+     */
+    public List<FleetAggregates.RegionSummary> summary(long now) {
+        sweep(now);
+        return aggregates.snapshot();
+    }
+
+    /**
+     * Move every node that crossed a status threshold between the last
+     * sweep and now. Status only ages forward while a record stands, and
+     * the nodes crossing a threshold in (last, now] are exactly one byDue
+     * slice.
+     */
+    private void sweep(long now) {
+        synchronized (sweepLock) {
+            long last = sweptUpTo;
+            if (now <= last)
+                return;
+            sweptUpTo = now;
+            for (int threshold : new int[] { NodeState.SUSPECT_THRESHOLD, NodeState.OFFLINE_THRESHOLD }) {
+                Entry from = probe(last - threshold * 1000L - 999, "");
+                Entry to = probe(now - threshold * 1000L - 999, "");
+                for (Entry e : byDue.subSet(from, true, to, false)) {
+                    synchronized (stripe(e.id)) {
+                        if (byId.get(e.id) == e)
+                            age(e, now);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Recount e under its status at now, if that is later than the one it
+     * is counted under. Caller holds e's stripe.
+     */
+    private void age(Entry e, long now) {
+        NodeState status = statusAt(e.due, now);
+        if (status.ordinal() <= e.counted.ordinal())
+            return;
+        aggregates.remove(e.region, e.counted, e.outage, e.voltage);
+        aggregates.add(e.region, status, e.outage, e.voltage);
+        e.counted = status;
+    }
+
+    /**
+     * Status of a node whose quiet period ran out at due. Matches
+     * NodeMonitor: ONLINE up to SUSPECT_THRESHOLD seconds past due,
+     * SUSPECTED up to OFFLINE_THRESHOLD, OFFLINE after that.
+     */
+    public static NodeState statusAt(long due, long now) {
+        return NodeState.fromSecondsSinceHeartbeat(Math.floorDiv(now - due, 1000L), null);
+    }
+
+    public NodeQuery.Page query(NodeQuery q, long now) {
+        Comparator<Entry> order = comparator(q.getSort());
+        if (q.isDescending())
+            order = order.reversed();
+        Entry after = q.getAfterId() == null ? null : probe(q.getAfterKey(), q.getAfterId());
+
+        List<Entry> page;
+        ConcurrentSkipListSet<String> region = q.getRegion() == null ? null : byRegion.get(q.getRegion());
+        boolean dueRanged = "SUSPECTED".equals(q.getStatus()) || "OFFLINE".equals(q.getStatus());
+        if (q.getRegion() != null && region == null) {
+            page = new ArrayList<>();
+        } else if (region != null && q.getSort() == NodeQuery.Sort.ID) {
+            NavigableSet<String> ids = q.isDescending() ? region.descendingSet() : region;
+            page = walk(idsToEntries(after == null ? ids : ids.tailSet(after.id, false)), q, now, Integer.MAX_VALUE);
+        } else if (region != null || dueRanged) {
+            // A filter with its own index but not in page order. Walking the sort
+            // index wins if the filter matches much of the fleet, the filter's
+            // index if it matches little: try the first on a budget, then the second.
+            page = walk(ordered(q, after), q, now, (q.getLimit() + 1) * PROBE_FACTOR);
+            if (page == null)
+                page = select(region != null ? idsToEntries(region) : dueRange(q.getStatus(), now), order, after,
+                        q, now);
+        } else {
+            page = walk(ordered(q, after), q, now, Integer.MAX_VALUE);
+        }
+
+        List<String[]> rows = new ArrayList<>(Math.min(page.size(), q.getLimit()));
+        for (int i = 0; i < page.size() && i < q.getLimit(); i++) {
+            rows.add(row(page.get(i), now));
+        }
+        String next = null;
+        if (page.size() > q.getLimit()) {
+            Entry last = page.get(q.getLimit() - 1);
+            next = q.nextCursor(sortKey(q.getSort(), last), last.id);
+        }
+        return new NodeQuery.Page(rows, next);
+    }
+
+    /**
+     * Every node's dashboard row, in id order, without collecting them
+     * first.
+     */
+    public void forEachRow(long now, Consumer<String[]> action) {
+        for (Entry e : byId.values()) {
+            action.accept(row(e, now));
+        }
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * The sort index itself, positioned just after the cursor.
+     */
+    private Iterable<Entry> ordered(NodeQuery q, Entry after) {
+        if (q.getSort() == NodeQuery.Sort.ID) {
+            ConcurrentNavigableMap<String, Entry> range = byId;
+            if (q.getPrefix() != null)
+                range = range.subMap(q.getPrefix(), q.getPrefix() + Character.MAX_VALUE);
+            NavigableSet<String> ids = q.isDescending() ? range.descendingKeySet() : range.keySet();
+            if (after != null)
+                ids = ids.tailSet(after.id, false);
+            return idsToEntries(ids);
+        }
+        NavigableSet<Entry> set = q.getSort() == NodeQuery.Sort.LOAD ? byLoad : bySeen;
+        if (q.isDescending())
+            set = set.descendingSet();
+        return after == null ? set : set.tailSet(after, false);
+    }
+
+    /**
+     * Candidates already in page order: stop at limit + 1 matches. Returns
+     * null if budget candidates were looked at without filling the page.
+     */
+    private List<Entry> walk(Iterable<Entry> candidates, NodeQuery q, long now, int budget) {
+        List<Entry> page = new ArrayList<>();
+        int seen = 0;
+        for (Entry e : candidates) {
+            if (++seen > budget)
+                return null;
+            if (!matches(e, q, now))
+                continue;
+            page.add(e);
+            if (page.size() > q.getLimit())
+                break;
+        }
+        return page;
+    }
+
+    /**
+     * Candidates in any order: keep the first limit + 1 past the cursor in
+     * a bounded heap.
+     */
+    private List<Entry> select(Iterable<Entry> candidates, Comparator<Entry> order, Entry after, NodeQuery q,
+            long now) {
+        PriorityQueue<Entry> heap = new PriorityQueue<>(order.reversed()); // head = worst kept so far
+        for (Entry e : candidates) {
+            if (after != null && order.compare(e, after) <= 0)
+                continue;
+            if (heap.size() > q.getLimit() && order.compare(e, heap.peek()) >= 0)
+                continue; // heap is full of better rows
+            if (!matches(e, q, now))
+                continue;
+            heap.add(e);
+            if (heap.size() > q.getLimit() + 1)
+                heap.poll();
+        }
+        List<Entry> page = new ArrayList<>(heap);
+        page.sort(order);
+        return page;
+    }
+
+    private Iterable<Entry> dueRange(String status, long now) {
+        // statusAt(): SUSPECTED once now - due reaches (SUSPECT + 1)s, OFFLINE at (OFFLINE + 1)s
+        Entry suspectedBelow = probe(now - NodeState.SUSPECT_THRESHOLD * 1000L - 999, "");
+        Entry offlineBelow = probe(now - NodeState.OFFLINE_THRESHOLD * 1000L - 999, "");
+        if (status.equals("OFFLINE"))
+            return byDue.headSet(offlineBelow, false);
+        return byDue.subSet(offlineBelow, true, suspectedBelow, false);
+    }
+
+    private Iterable<Entry> idsToEntries(Iterable<String> ids) {
+        return () -> new Iterator<Entry>() {
+            private final Iterator<String> it = ids.iterator();
+            private Entry next = advance();
+
+            private Entry advance() {
+                while (it.hasNext()) {
+                    Entry e = byId.get(it.next());
+                    if (e != null)
+                        return e;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                Entry e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    private static boolean matches(Entry e, NodeQuery q, long now) {
+        if (!q.matches(e.id, e.record.getPower()))
+            return false;
+        return q.getStatus() == null || q.getStatus().equals(statusAt(e.due, now).name());
+    }
+
+    private static Comparator<Entry> comparator(NodeQuery.Sort sort) {
+        switch (sort) {
+            case LAST_SEEN:
+                return BY_SEEN;
+            case LOAD:
+                return BY_LOAD;
+            default:
+                return BY_ID;
+        }
+    }
+
+    private static long sortKey(NodeQuery.Sort sort, Entry e) {
+        switch (sort) {
+            case LAST_SEEN:
+                return e.seen;
+            case LOAD:
+                return e.load;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * A search key: an entry with only the fields the comparators look at.
+     */
+    private static Entry probe(long key, String id) {
+        return new Entry(id, null, key, key, (int) key, null);
+    }
+
+    /**
+     * Dashboard row: node_id, status, load, power, transformer, last seen
+     * (HH:mm:ss).
+     */
+    private static String[] row(Entry e, long now) {
+        NodeRecord r = e.record;
+        String lastSeen = r.getLastSeen() == null ? "" : r.getLastSeen();
+        int t = lastSeen.indexOf('T');
+        return new String[] { e.id, statusAt(e.due, now).name(), r.getLoad(), r.getPower(), r.getTransformer(),
+                t >= 0 ? lastSeen.substring(t + 1) : lastSeen };
+    }
+
+    private Object stripe(String nodeId) {
+        return stripes[(nodeId.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * A node is in an outage while an outage event is open for it or it
+     * reports its power OFF. Caller holds the node's stripe.
+     */
+    private boolean inOutage(String nodeId, NodeRecord r) {
+        return openOutages.contains(nodeId) || "OFF".equalsIgnoreCase(r.getPower());
+    }
+
+    /**
+     * An event timestamp (yyyy-MM-ddTHH:mm:ss, district local time) as
+     * seconds; if it cannot be read, the HLC's physical time instead.
+     */
+    private static long eventSeconds(String eventTime, long eventHlc) {
+        try {
+            return LocalDateTime.parse(eventTime).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException | NullPointerException e) {
+            return HybridLogicalClock.physicalMillis(eventHlc) / 1000;
+        }
+    }
+
+    /**
+     * Transformer voltage as reported ("220.5V"); NaN if missing.
+     */
+    static double parseVoltage(String transformer) {
+        if (transformer == null)
+            return Double.NaN;
+        String v = transformer.trim();
+        if (v.endsWith("V") || v.endsWith("v"))
+            v = v.substring(0, v.length() - 1);
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int parseLoad(String load) {
+        try {
+            return Integer.parseInt(load);
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.electricity.service;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of the node table: filters, sort order, page size and the
+ * keyset cursor to continue from.
+ *
+ * Query string form (all optional):
+ *   status=ONLINE|SUSPECTED|OFFLINE  region=addis  power=LOW  prefix=addis_0
+ *   sort=id|lastSeen|load (prefix '-' for descending)  limit=N  cursor=...
+ *
+ * - region is the part of the node id before the first '_'
+ *   ("addis_0042" -> "addis"); ids without '_' are their own region.
+ * - The cursor is opaque to callers. It holds the sort key and id of the
+ *   last row served, so the next page starts right after it. Rows added or
+ *   removed in between never shift the page the way OFFSET would.
+ */
+public class NodeQuery {
+    public static final int DEFAULT_LIMIT = 500;
+    public static final int MAX_LIMIT = 5000;
+
+    public enum Sort {
+        ID, LAST_SEEN, LOAD
+    }
+
+    private String status;
+    private String region;
+    private String power;
+    private String prefix;
+    private Sort sort = Sort.ID;
+    private boolean descending;
+    private int limit = DEFAULT_LIMIT;
+    // Position after which the page starts (afterId null = first page)
+    private long afterKey;
+    private String afterId;
+
+    /**
+     * One page of dashboard rows (node_id, status, load, power, transformer,
+     * last seen) and the cursor for the next page, or null on the last one.
+     */
+    public static final class Page {
+        private final List<String[]> rows;
+        private final String nextCursor;
+
+        public Page(List<String[]> rows, String nextCursor) {
+            this.rows = rows;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<String[]> getRows() {
+            return rows;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * Parse a URL query string. Throws IllegalArgumentException on values
+     * it does not understand, so the caller can answer 400.
+     */
+    public static NodeQuery parse(String rawQuery) {
+        NodeQuery q = new NodeQuery();
+        String cursor = null;
+        if (rawQuery == null || rawQuery.isEmpty())
+            return q;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty())
+                continue;
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8).trim();
+            if (value.isEmpty())
+                continue;
+            switch (name) {
+                case "status":
+                    q.status(value);
+                    break;
+                case "region":
+                    q.region = value;
+                    break;
+                case "power":
+                    q.power = value;
+                    break;
+                case "prefix":
+                    q.prefix = value;
+                    break;
+                case "sort":
+                    q.sort(value);
+                    break;
+                case "limit":
+                    q.limit(parseInt("limit", value));
+                    break;
+                case "cursor":
+                    cursor = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+        // After the loop: the cursor only means something for the final sort order
+        if (cursor != null)
+            q.cursor(cursor);
+        return q;
+    }
+
+    public NodeQuery status(String status) {
+        String s = status.toUpperCase();
+        if (!s.equals("ONLINE") && !s.equals("SUSPECTED") && !s.equals("OFFLINE"))
+            throw new IllegalArgumentException("status must be ONLINE, SUSPECTED or OFFLINE");
+        this.status = s;
+        return this;
+    }
+
+    public NodeQuery region(String region) {
+        this.region = region;
+        return this;
+    }
+
+    public NodeQuery power(String power) {
+        this.power = power;
+        return this;
+    }
+
+    public NodeQuery prefix(String prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    public NodeQuery sort(String sort) {
+        descending = sort.startsWith("-");
+        switch (descending ? sort.substring(1) : sort) {
+            case "id":
+                this.sort = Sort.ID;
+                break;
+            case "lastSeen":
+                this.sort = Sort.LAST_SEEN;
+                break;
+            case "load":
+                this.sort = Sort.LOAD;
+                break;
+            default:
+                throw new IllegalArgumentException("sort must be id, lastSeen or load");
+        }
+        return this;
+    }
+
+    public NodeQuery limit(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        this.limit = Math.min(limit, MAX_LIMIT);
+        return this;
+    }
+
+    public NodeQuery cursor(String cursor) {
+        // sort|descending|key|id - a cursor only continues the listing it came from
+        String[] p;
+        try {
+            p = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 4);
+        } catch (IllegalArgumentException e) {
+            p = new String[0];
+        }
+        if (p.length != 4 || !p[0].equals(sort.name()) || !p[1].equals(descending ? "D" : "A"))
+            throw new IllegalArgumentException("cursor does not belong to this sort order");
+        this.afterKey = parseLong("cursor", p[2]);
+        this.afterId = p[3];
+        return this;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getPower() {
+        return power;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getAfterId() {
+        return afterId;
+    }
+
+    public long getAfterKey() {
+        return afterKey;
+    }
+
+    /**
+     * Cursor for a page whose last row has this sort key and id.
+     */
+    public String nextCursor(long key, String id) {
+        String raw = sort.name() + "|" + (descending ? "D" : "A") + "|" + key + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The same page from the nodes table, for when the replicated cache is
+     * too stale to answer. Uses the primary key for id order, region= and
+     * prefix=, and idx_nodes_status for status=.
+     */
+    public Page fetchFromDatabase(Connection conn) throws SQLException {
+        String key;
+        switch (sort) {
+            case LAST_SEEN:
+                key = "COALESCE(ROUND(UNIX_TIMESTAMP(last_seen) * 1000), 0)";
+                break;
+            case LOAD:
+                key = "COALESCE(last_load_percent, 0)";
+                break;
+            default:
+                key = "0";
+        }
+        String cmp = descending ? "<" : ">";
+        String dir = descending ? " DESC" : "";
+        StringBuilder sql = new StringBuilder("SELECT node_id, status, last_load_percent, last_power_state, "
+                + "transformer_health, DATE_FORMAT(last_seen, '%H:%i:%s') AS last_seen_time, " + key
+                + " AS sort_key FROM nodes WHERE 1=1");
+        List<Object> args = new ArrayList<>();
+        if (status != null) {
+            sql.append(" AND status = ?");
+            args.add(status);
+        }
+        if (region != null) {
+            sql.append(" AND (node_id = ? OR node_id LIKE ?)");
+            args.add(region);
+            args.add(escapeLike(region) + "\\_%");
+        }
+        if (prefix != null) {
+            sql.append(" AND node_id LIKE ?");
+            args.add(escapeLike(prefix) + "%");
+        }
+        if (power != null) {
+            sql.append(" AND last_power_state = ?");
+            args.add(power);
+        }
+        if (afterId != null) {
+            if (sort == Sort.ID) {
+                sql.append(" AND node_id ").append(cmp).append(" ?");
+            } else {
+                sql.append(" AND (").append(key).append(' ').append(cmp).append(" ? OR (").append(key)
+                        .append(" = ? AND node_id ").append(cmp).append(" ?))");
+                args.add(afterKey);
+                args.add(afterKey);
+            }
+            args.add(afterId);
+        }
+        sql.append(" ORDER BY ");
+        if (sort != Sort.ID)
+            sql.append("sort_key").append(dir).append(", ");
+        sql.append("node_id").append(dir).append(" LIMIT ").append(limit + 1);
+
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < args.size(); i++) {
+                ps.setObject(i + 1, args.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                List<String[]> rows = new ArrayList<>();
+                String next = null;
+                long lastKey = 0;
+                while (rs.next()) {
+                    if (rows.size() == limit) {
+                        next = nextCursor(lastKey, rows.get(rows.size() - 1)[0]);
+                        break;
+                    }
+                    String load = rs.getString("last_load_percent");
+                    String power = rs.getString("last_power_state");
+                    String transformer = rs.getString("transformer_health");
+                    String lastSeen = rs.getString("last_seen_time");
+                    String nodeStatus = rs.getString("status");
+                    rows.add(new String[] { rs.getString("node_id"), nodeStatus != null ? nodeStatus : "UNKNOWN",
+                            load != null ? load : "0", power != null ? power : "unknown",
+                            transformer != null ? transformer : "unknown", lastSeen != null ? lastSeen : "never" });
+                    lastKey = rs.getLong("sort_key");
+                }
+                return new Page(rows, next);
+            }
+        }
+    }
+
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    public static String regionOf(String nodeId) {
+        int underscore = nodeId.indexOf('_');
+        return underscore < 0 ? nodeId : nodeId.substring(0, underscore);
+    }
+
+    /**
+     * Filters that are not served by an index, checked per candidate.
+     */
+    boolean matches(String id, String nodePower) {
+        if (prefix != null && !id.startsWith(prefix))
+            return false;
+        if (region != null && !region.equals(regionOf(id)))
+            return false;
+        return power == null || power.equalsIgnoreCase(nodePower);
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    private static long parseLong(String name, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is malformed");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.electricity.service;
+
+import com.electricity.model.NodeRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node state as a last-writer-wins CRDT map, keyed by node id.
+ *
+ * merge() is commutative, associative and idempotent, so servers that see the
+ * same updates in any order (or more than once) converge to the same state.
+ *
+ * A Merkle tree over BUCKETS node-id buckets summarizes the contents:
+ * - leaf hash = XOR of the hashes of the records in the bucket, so an update
+ *   changes one leaf in O(1) and its ancestors in O(log BUCKETS)
+ * - tree is stored heap-style: tree[1] is the root, leaves at [BUCKETS, 2*BUCKETS)
+ *
+ * Changed node ids are also collected as a delta for the next gossip round.
+ */
+public class NodeStateCrdt {
+    public static final int BUCKETS = 1024; // power of two
+
+    private final ConcurrentHashMap<String, NodeRecord> records = new ConcurrentHashMap<>();
+    private final long[] tree = new long[2 * BUCKETS];
+    private final Set<String> delta = ConcurrentHashMap.newKeySet();
+    private final List<Set<String>> bucketIndex = new ArrayList<>(BUCKETS);
+    private volatile NodeIndex index;
+
+    public NodeStateCrdt() {
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketIndex.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Merge a record; returns true if it replaced (or created) the local value.
+     */
+    public boolean merge(NodeRecord incoming) {
+        while (true) {
+            NodeRecord current = records.get(incoming.getNodeId());
+            if (!incoming.isNewerThan(current))
+                return false;
+            boolean swapped = current == null
+                    ? records.putIfAbsent(incoming.getNodeId(), incoming) == null
+                    : records.replace(incoming.getNodeId(), current, incoming);
+            if (swapped) {
+                if (current == null)
+                    bucketIndex.get(bucketOf(incoming.getNodeId())).add(incoming.getNodeId());
+                updateTree(incoming.getNodeId(), current, incoming);
+                delta.add(incoming.getNodeId());
+                NodeIndex idx = index;
+                if (idx != null)
+                    idx.refresh(incoming.getNodeId());
+                StateVersion.bump();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Keep idx up to date with every merge from now on (and index what is
+     * already here).
+     */
+    void attachIndex(NodeIndex idx) {
+        this.index = idx;
+        for (String id : records.keySet()) {
+            idx.refresh(id);
+        }
+    }
+
+    public NodeRecord get(String nodeId) {
+        return records.get(nodeId);
+    }
+
+    public Collection<NodeRecord> values() {
+        return records.values();
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Take (and clear) the records changed since the last call.
+     */
+    public List<NodeRecord> drainDelta() {
+        List<NodeRecord> result = new ArrayList<>();
+        for (String id : delta) {
+            delta.remove(id);
+            NodeRecord r = records.get(id);
+            if (r != null)
+                result.add(r);
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------ Merkle tree
+
+    public static int bucketOf(String nodeId) {
+        return mix(nodeId.hashCode()) & (BUCKETS - 1);
+    }
+
+    public synchronized long rootHash() {
+        return tree[1];
+    }
+
+    public synchronized long hashAt(int index) {
+        return tree[index];
+    }
+
+    public static boolean isLeaf(int index) {
+        return index >= BUCKETS;
+    }
+
+    /**
+     * All records whose node id falls into one of the given leaf buckets.
+     */
+    public List<NodeRecord> recordsInBuckets(Set<Integer> buckets) {
+        List<NodeRecord> result = new ArrayList<>();
+        for (Integer b : buckets) {
+            for (String id : bucketIndex.get(b)) {
+                NodeRecord r = records.get(id);
+                if (r != null)
+                    result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private synchronized void updateTree(String nodeId, NodeRecord oldRecord, NodeRecord newRecord) {
+        long change = recordHash(newRecord) ^ (oldRecord == null ? 0 : recordHash(oldRecord));
+        int index = BUCKETS + bucketOf(nodeId);
+        tree[index] ^= change;
+        for (index >>= 1; index >= 1; index >>= 1) {
+            tree[index] = combine(tree[2 * index], tree[2 * index + 1]);
+        }
+    }
+
+    private static long recordHash(NodeRecord r) {
+        long h = 1125899906842597L;
+        String id = r.getNodeId();
+        for (int i = 0; i < id.length(); i++) {
+            h = 31 * h + id.charAt(i);
+        }
+        h = h * 31 + r.getTimestamp();
+        h = h * 31 + r.getOrigin();
+        return mix64(h);
+    }
+
+    private static long combine(long left, long right) {
+        return mix64(left * 31 + right);
+    }
+
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,365 @@
+package com.electricity.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Durable storage for a RaftNode: the log entries plus currentTerm/votedFor,
+ * and the latest state machine snapshot.
+ *
+ * Log file format: one entry per line, "index|term|base64(payload)".
+ * Appends are buffered; sync() flushes and forces them to disk and is called
+ * once per batch (group commit) before an append is acknowledged.
+ * Truncation after a log conflict rewrites the file (rare).
+ *
+ * Snapshot file format: "lastIncludedIndex|lastIncludedTerm" on the first
+ * line, then the state machine's lines as it produced them. Saving a
+ * snapshot drops every entry it covers from memory and from the log file,
+ * so the log only holds what was applied since.
+ */
+public class RaftLog {
+
+    public static class Entry {
+        public final long term;
+        public final String payload;
+
+        public Entry(long term, String payload) {
+            this.term = term;
+            this.payload = payload;
+        }
+    }
+
+    private final File logFile;
+    private final File stateFile;
+    private final File snapshotFile;
+    private List<Entry> entries = new ArrayList<>(); // entries.get(0) is index snapshotIndex + 1
+    private long snapshotIndex = 0;
+    private long snapshotTerm = 0;
+    private List<String> snapshotData = Collections.emptyList();
+    private FileOutputStream fileOut;
+    private BufferedWriter writer;
+    private boolean dirty = false;
+    private final Object syncLock = new Object();
+
+    private long savedTerm = 0;
+    private int savedVotedFor = -1;
+
+    public RaftLog(int serverId) {
+        this.logFile = new File("raft-" + serverId + ".log");
+        this.stateFile = new File("raft-" + serverId + ".state");
+        this.snapshotFile = new File("raft-" + serverId + ".snapshot");
+        load();
+        openWriter();
+    }
+
+    public synchronized long lastIndex() {
+        return snapshotIndex + entries.size();
+    }
+
+    public synchronized long lastTerm() {
+        return entries.isEmpty() ? snapshotTerm : entries.get(entries.size() - 1).term;
+    }
+
+    /**
+     * Term of the entry at index: the snapshot's term at its last included
+     * index, 0 for index 0, compacted or out of range.
+     */
+    public synchronized long termAt(long index) {
+        if (index == snapshotIndex)
+            return snapshotTerm;
+        if (index <= snapshotIndex || index > lastIndex())
+            return 0;
+        return entries.get((int) (index - snapshotIndex - 1)).term;
+    }
+
+    public synchronized Entry get(long index) {
+        return entries.get((int) (index - snapshotIndex - 1));
+    }
+
+    /**
+     * Up to max entries starting at index from (which must be past the snapshot).
+     */
+    public synchronized List<Entry> slice(long from, int max) {
+        List<Entry> result = new ArrayList<>();
+        for (long i = Math.max(from, snapshotIndex + 1); i <= lastIndex() && result.size() < max; i++) {
+            result.add(entries.get((int) (i - snapshotIndex - 1)));
+        }
+        return result;
+    }
+
+    public synchronized long append(Entry e) {
+        entries.add(e);
+        long index = lastIndex();
+        writeLine(index, e);
+        return index;
+    }
+
+    /**
+     * Drop every entry at index and above.
+     */
+    public synchronized void truncateFrom(long index) {
+        if (index > lastIndex())
+            return;
+        while (lastIndex() >= index && !entries.isEmpty()) {
+            entries.remove(entries.size() - 1);
+        }
+        rewrite();
+    }
+
+    public synchronized long snapshotIndex() {
+        return snapshotIndex;
+    }
+
+    public synchronized long snapshotTerm() {
+        return snapshotTerm;
+    }
+
+    /**
+     * The state machine lines of the latest snapshot (empty if none).
+     */
+    public synchronized List<String> snapshotData() {
+        return snapshotData;
+    }
+
+    /**
+     * Store a snapshot of the state machine as of lastIncludedIndex and drop
+     * the entries it covers. Entries after it are kept if the log agrees on
+     * lastIncludedTerm; otherwise (a follower installing the leader's
+     * snapshot over a conflicting log) the whole log is discarded.
+     */
+    public void saveSnapshot(long lastIncludedIndex, long lastIncludedTerm, List<String> data) {
+        synchronized (snapshotFile) { // one writer at a time; the log stays usable meanwhile
+            synchronized (this) {
+                if (lastIncludedIndex <= snapshotIndex)
+                    return;
+            }
+            File tmp = new File(snapshotFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                    BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                            64 * 1024)) {
+                w.write(lastIncludedIndex + "|" + lastIncludedTerm);
+                w.write('\n');
+                for (String line : data) {
+                    w.write(line);
+                    w.write('\n');
+                }
+                w.flush();
+                out.getChannel().force(false);
+            } catch (IOException e) {
+                System.err.println("[RAFT] Could not write snapshot: " + e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                try {
+                    Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    System.err.println("[RAFT] Could not write snapshot: " + e.getMessage());
+                    return;
+                }
+                if (termAt(lastIncludedIndex) == lastIncludedTerm && lastIncludedIndex <= lastIndex()) {
+                    entries = new ArrayList<>(
+                            entries.subList((int) (lastIncludedIndex - snapshotIndex), entries.size()));
+                } else {
+                    entries = new ArrayList<>();
+                }
+                snapshotIndex = lastIncludedIndex;
+                snapshotTerm = lastIncludedTerm;
+                snapshotData = Collections.unmodifiableList(new ArrayList<>(data));
+                rewrite();
+            }
+        }
+    }
+
+    /**
+     * Make all appended entries durable; returns the last index now on
+     * disk, or -1 if the sync failed. Only the flush holds the lock: the
+     * force runs outside it, so appends and reads carry on during the disk
+     * wait (a rewrite meanwhile forces its own file). Syncs run one at a
+     * time, so none returns before an earlier one's force completes.
+     */
+    public long sync() {
+        synchronized (syncLock) {
+            FileChannel channel;
+            long index;
+            synchronized (this) {
+                index = lastIndex();
+                if (!dirty || writer == null)
+                    return index;
+                try {
+                    writer.flush();
+                } catch (IOException e) {
+                    System.err.println("[RAFT] Log sync failed: " + e.getMessage());
+                    return -1;
+                }
+                channel = fileOut.getChannel();
+                dirty = false;
+            }
+            try {
+                channel.force(false);
+                return index;
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                System.err.println("[RAFT] Log sync failed: " + e.getMessage());
+                return -1;
+            }
+        }
+    }
+
+    public synchronized long getSavedTerm() {
+        return savedTerm;
+    }
+
+    public synchronized int getSavedVotedFor() {
+        return savedVotedFor;
+    }
+
+    /**
+     * Persist currentTerm and votedFor (must happen before answering a vote).
+     */
+    public synchronized void saveState(long term, int votedFor) {
+        if (term == savedTerm && votedFor == savedVotedFor)
+            return;
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write((term + "|" + votedFor + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getChannel().force(false);
+        } catch (IOException e) {
+            System.err.println("[RAFT] Could not persist term/vote: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            savedTerm = term;
+            savedVotedFor = votedFor;
+        } catch (IOException e) {
+            System.err.println("[RAFT] Could not persist term/vote: " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (writer != null)
+                writer.close();
+        } catch (IOException ignored) {
+        }
+        writer = null;
+    }
+
+    private void writeLine(long index, Entry e) {
+        if (writer == null)
+            return;
+        try {
+            writer.write(index + "|" + e.term + "|"
+                    + Base64.getEncoder().encodeToString(e.payload.getBytes(StandardCharsets.UTF_8)));
+            writer.write('\n');
+            dirty = true;
+        } catch (IOException ex) {
+            System.err.println("[RAFT] Log write failed: " + ex.getMessage());
+        }
+    }
+
+    private void load() {
+        if (stateFile.exists()) {
+            try {
+                String[] parts = new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8).trim()
+                        .split("\\|");
+                savedTerm = Long.parseLong(parts[0]);
+                savedVotedFor = Integer.parseInt(parts[1]);
+            } catch (Exception e) {
+                System.err.println("[RAFT] Ignoring unreadable state file: " + e.getMessage());
+            }
+        }
+        loadSnapshot();
+        if (!logFile.exists())
+            return;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts.length < 3)
+                    continue; // torn write at the tail
+                try {
+                    long index = Long.parseLong(parts[0]);
+                    if (index != lastIndex() + 1)
+                        continue; // covered by the snapshot (crash before the rewrite)
+                    String payload = new String(Base64.getDecoder().decode(parts[2]), StandardCharsets.UTF_8);
+                    entries.add(new Entry(Long.parseLong(parts[1]), payload));
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+            System.out.println("[RAFT] Recovered " + entries.size() + " log entries after snapshot index "
+                    + snapshotIndex + ", term " + savedTerm);
+        } catch (IOException e) {
+            System.err.println("[RAFT] Could not read " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!snapshotFile.exists())
+            return;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(snapshotFile), StandardCharsets.UTF_8))) {
+            String[] header = in.readLine().split("\\|");
+            List<String> data = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                data.add(line);
+            }
+            snapshotIndex = Long.parseLong(header[0]);
+            snapshotTerm = Long.parseLong(header[1]);
+            snapshotData = Collections.unmodifiableList(data);
+            System.out.println("[RAFT] Recovered snapshot at index " + snapshotIndex + " (" + data.size() + " lines)");
+        } catch (Exception e) {
+            System.err.println("[RAFT] Ignoring unreadable snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+    private void openWriter() {
+        try {
+            fileOut = new FileOutputStream(logFile, true);
+            writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            System.err.println("[RAFT] Log is memory-only: " + e.getMessage());
+        }
+    }
+
+    private void rewrite() {
+        close();
+        File tmp = new File(logFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                    BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry e = entries.get(i);
+                    w.write((snapshotIndex + i + 1) + "|" + e.term + "|"
+                            + Base64.getEncoder().encodeToString(e.payload.getBytes(StandardCharsets.UTF_8)));
+                    w.write('\n');
+                }
+                w.flush();
+                out.getChannel().force(false);
+            }
+            Files.move(tmp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("[RAFT] Log rewrite failed: " + e.getMessage());
+        }
+        openWriter();
+        dirty = false;
+    }
+}
@@ -0,0 +1,742 @@
+package com.electricity.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Raft consensus over the server peers.
+ *
+ * - Leader election with randomized timeouts and up-to-date log checks
+ * - Log matching via prevLogIndex/prevLogTerm on every AppendEntries
+ * - Entries are committed once stored on a majority, then applied in order
+ * - Appends are batched (up to MAX_ENTRIES_PER_APPEND) and pipelined
+ *   (up to MAX_INFLIGHT_APPENDS outstanding per follower); the leader's own
+ *   disk write is group-committed once per tick
+ *
+ * Messages (over the peer channels, one line each):
+ *   RAFT_VOTE|term|candidateId|lastLogIndex|lastLogTerm
+ *   RAFT_VOTE_RESP|term|voterId|granted
+ *   RAFT_APPEND|term|leaderId|prevIndex|prevTerm|leaderCommit|term:b64,term:b64...
+ *   RAFT_APPEND_RESP|term|followerId|success|matchIndex
+ *   RAFT_FWD|b64(entry)   (follower -> leader proposal)
+ *   RAFT_SNAPSHOT|term|leaderId|lastIncludedIndex|lastIncludedTerm|offset|done|b64(lines)
+ *   RAFT_SNAPSHOT_RESP|term|followerId|lastIncludedIndex|nextOffset
+ *
+ * Every entry is tagged "originId|requestId|payload" so the proposing server
+ * learns about the commit when it applies the entry, wherever it was proposed.
+ *
+ * The voter set is fixed by configuration (-Delectricity.raft.voters=1,2,3)
+ * and quorums are always a majority of it. Discovery and the failure
+ * detector only decide which voters we can currently reach, never who votes:
+ * a server that sees no peers yet cannot elect itself, and removing a dead
+ * peer does not shrink the quorum under a partitioned minority.
+ *
+ * Every -Delectricity.raft.snapshotEvery applied entries the state machine
+ * is snapshotted (setSnapshotHandlers) and the log truncated behind it. A
+ * follower that needs entries the leader no longer has gets the snapshot
+ * instead (InstallSnapshot), SNAPSHOT_CHUNK_LINES lines per message, one
+ * chunk in flight at a time.
+ */
+public class RaftNode {
+    public enum Role {
+        FOLLOWER, CANDIDATE, LEADER
+    }
+
+    private static final int ELECTION_TIMEOUT_MIN_MS = 300;
+    private static final int ELECTION_TIMEOUT_MAX_MS = 600;
+    private static final int HEARTBEAT_INTERVAL_MS = 50;
+    private static final int TICK_MS = 5;
+    private static final int MAX_ENTRIES_PER_APPEND = 256;
+    private static final int MAX_INFLIGHT_APPENDS = 8;
+    private static final int INFLIGHT_TIMEOUT_MS = 1000;
+    private static final long PROPOSAL_TIMEOUT_MS = 3000;
+    private static final long SNAPSHOT_EVERY = Long.getLong("electricity.raft.snapshotEvery", 10000);
+    private static final int SNAPSHOT_CHUNK_LINES = 500;
+    private static final String NOOP = "NOOP";
+
+    private static class Progress {
+        long nextIndex;
+        long matchIndex;
+        int inflight;
+        long lastSendAt;
+        long lastResponseAt;
+        long snapshotIndex; // snapshot being installed on this follower, and how far
+        int snapshotOffset;
+    }
+
+    private final int myId;
+    private final Set<Integer> voters; // every voter except ourselves
+    private final BiConsumer<Integer, String> transport;
+    private final Consumer<String> stateMachine;
+    private final RaftLog log;
+    private volatile Consumer<Boolean> onLeadershipChange;
+    private Supplier<List<String>> takeSnapshot;
+    private Consumer<List<String>> restoreSnapshot;
+
+    // Persistent state (mirrored in RaftLog)
+    private long currentTerm;
+    private int votedFor;
+
+    // Volatile state
+    private volatile Role role = Role.FOLLOWER;
+    private volatile int leaderId = -1;
+    private long commitIndex = 0;
+    // Leader only: last index of ours known to be on disk (set by the tick's sync)
+    private long durableIndex = 0;
+    private long lastApplied = 0;
+    private long electionDeadline;
+    private volatile long lastLeaderContactAt = 0;
+    private final Set<Integer> votes = new HashSet<>();
+    private final Map<Integer, Progress> progress = new HashMap<>();
+    // InstallSnapshot being received from the leader
+    private long incomingSnapshotIndex = -1;
+    private final List<String> incomingSnapshot = new ArrayList<>();
+
+    // Proposals waiting for commit, by request id
+    // Seeded from the clock so ids never collide with entries replayed after a restart
+    private final AtomicLong requestIds = new AtomicLong(System.currentTimeMillis() << 20);
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong committedCount = new AtomicLong();
+
+    private volatile boolean running = false;
+
+    public RaftNode(int myId, Collection<Integer> voters, BiConsumer<Integer, String> transport,
+            Consumer<String> stateMachine) {
+        this(myId, voters, transport, stateMachine, new RaftLog(myId));
+    }
+
+    public RaftNode(int myId, Collection<Integer> voters, BiConsumer<Integer, String> transport,
+            Consumer<String> stateMachine, RaftLog log) {
+        this.myId = myId;
+        Set<Integer> others = new HashSet<>(voters);
+        others.remove(myId);
+        this.voters = Collections.unmodifiableSet(others);
+        this.transport = transport;
+        this.stateMachine = stateMachine;
+        this.log = log;
+        this.currentTerm = log.getSavedTerm();
+        this.votedFor = log.getSavedVotedFor();
+    }
+
+    /**
+     * The voter ids from -Delectricity.raft.voters (comma separated, this
+     * server included).
+     */
+    public static Set<Integer> configuredVoters(int myId) {
+        String config = System.getProperty("electricity.raft.voters", "").trim();
+        if (config.isEmpty())
+            throw new IllegalStateException("Raft mode needs -Delectricity.raft.voters (e.g. 1,2,3)");
+        Set<Integer> ids = new HashSet<>();
+        for (String id : config.split(",")) {
+            if (!id.trim().isEmpty())
+                ids.add(Integer.parseInt(id.trim()));
+        }
+        if (!ids.contains(myId))
+            throw new IllegalStateException("Server " + myId + " is not in -Delectricity.raft.voters=" + config);
+        return ids;
+    }
+
+    public void setOnLeadershipChange(Consumer<Boolean> listener) {
+        this.onLeadershipChange = listener;
+    }
+
+    /**
+     * How to capture the state machine as lines, and how to load such lines
+     * back into it. Without these the log is never compacted.
+     */
+    public synchronized void setSnapshotHandlers(Supplier<List<String>> take, Consumer<List<String>> restore) {
+        this.takeSnapshot = take;
+        this.restoreSnapshot = restore;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        if (log.snapshotIndex() > 0 && restoreSnapshot != null) {
+            restoreSnapshot.accept(log.snapshotData());
+            commitIndex = lastApplied = log.snapshotIndex();
+        }
+        resetElectionDeadline();
+
+        Thread ticker = new Thread(this::tickLoop, "raft-ticker-" + myId);
+        ticker.setDaemon(true);
+        ticker.start();
+
+        Thread applier = new Thread(this::applyLoop, "raft-apply-" + myId);
+        applier.setDaemon(true);
+        applier.start();
+        System.out.println("[RAFT] Node " + myId + " started in term " + currentTerm);
+    }
+
+    public void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        log.close();
+    }
+
+    public boolean isLeader() {
+        return role == Role.LEADER;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    public synchronized long getCurrentTerm() {
+        return currentTerm;
+    }
+
+    /**
+     * Wall-clock time of the last append that brought us up to the leader's
+     * commit index (0 if never).
+     */
+    public long getLastLeaderContactAt() {
+        return lastLeaderContactAt;
+    }
+
+    public synchronized long getCommitIndex() {
+        return commitIndex;
+    }
+
+    public long getCommittedCount() {
+        return committedCount.get();
+    }
+
+    /**
+     * Replicate a payload. The future completes with true once the entry is
+     * committed on a quorum and applied locally, or false on timeout / no leader.
+     */
+    public CompletableFuture<Boolean> propose(String payload) {
+        long reqId = requestIds.incrementAndGet();
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        pending.put(reqId, future);
+        future.completeOnTimeout(false, PROPOSAL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((ok, err) -> pending.remove(reqId));
+
+        String tagged = myId + "|" + reqId + "|" + payload;
+        int forwardTo;
+        synchronized (this) {
+            if (role == Role.LEADER) {
+                log.append(new RaftLog.Entry(currentTerm, tagged));
+                notifyAll();
+                return future;
+            }
+            forwardTo = leaderId;
+        }
+        if (forwardTo == -1) {
+            future.complete(false);
+        } else {
+            transport.accept(forwardTo, "RAFT_FWD|" + encode(tagged));
+        }
+        return future;
+    }
+
+    /**
+     * Handle an incoming RAFT_* request; returns the response line.
+     */
+    public String handleMessage(String msg) {
+        String[] p = msg.split("\\|", -1);
+        switch (p[0]) {
+            case "RAFT_VOTE":
+                return handleVote(Long.parseLong(p[1]), Integer.parseInt(p[2]), Long.parseLong(p[3]),
+                        Long.parseLong(p[4]));
+            case "RAFT_APPEND":
+                return handleAppend(Long.parseLong(p[1]), Integer.parseInt(p[2]), Long.parseLong(p[3]),
+                        Long.parseLong(p[4]), Long.parseLong(p[5]), p[6]);
+            case "RAFT_FWD":
+                return handleForward(decode(p[1]));
+            case "RAFT_SNAPSHOT":
+                return handleSnapshot(Long.parseLong(p[1]), Integer.parseInt(p[2]), Long.parseLong(p[3]),
+                        Long.parseLong(p[4]), Integer.parseInt(p[5]), "1".equals(p[6]), p[7]);
+            default:
+                return "ERR|RAFT|UnknownType";
+        }
+    }
+
+    /**
+     * Handle a RAFT_*_RESP line returned on one of our channels.
+     */
+    public void handleResponse(String msg) {
+        String[] p = msg.split("\\|", -1);
+        if ("RAFT_VOTE_RESP".equals(p[0])) {
+            handleVoteResponse(Long.parseLong(p[1]), Integer.parseInt(p[2]), "1".equals(p[3]));
+        } else if ("RAFT_APPEND_RESP".equals(p[0])) {
+            handleAppendResponse(Long.parseLong(p[1]), Integer.parseInt(p[2]), "1".equals(p[3]),
+                    Long.parseLong(p[4]));
+        } else if ("RAFT_SNAPSHOT_RESP".equals(p[0])) {
+            handleSnapshotResponse(Long.parseLong(p[1]), Integer.parseInt(p[2]), Long.parseLong(p[3]),
+                    Integer.parseInt(p[4]));
+        }
+    }
+
+    // ---------------------------------------------------------------- Timers
+
+    private void tickLoop() {
+        while (running) {
+            long term;
+            synchronized (this) {
+                try {
+                    wait(TICK_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (!running)
+                    break;
+                if (role != Role.LEADER && System.currentTimeMillis() >= electionDeadline) {
+                    startElection();
+                }
+                if (role != Role.LEADER)
+                    continue;
+                term = currentTerm;
+            }
+            // Group commit: one disk sync for everything proposed since last tick,
+            // outside the monitor so messages and proposals are not held up by the disk
+            long synced = log.sync();
+            synchronized (this) {
+                if (role != Role.LEADER || currentTerm != term)
+                    continue; // stepped down meanwhile; our log may have been rewritten
+                durableIndex = Math.max(durableIndex, synced);
+                advanceCommitIndex();
+                long now = System.currentTimeMillis();
+                for (Integer peer : voters) {
+                    replicateTo(peer, now);
+                }
+            }
+        }
+    }
+
+    private void resetElectionDeadline() {
+        electionDeadline = System.currentTimeMillis()
+                + ThreadLocalRandom.current().nextInt(ELECTION_TIMEOUT_MIN_MS, ELECTION_TIMEOUT_MAX_MS + 1);
+    }
+
+    // -------------------------------------------------------------- Election
+
+    private void startElection() {
+        role = Role.CANDIDATE;
+        currentTerm++;
+        votedFor = myId;
+        log.saveState(currentTerm, votedFor);
+        votes.clear();
+        votes.add(myId);
+        leaderId = -1;
+        resetElectionDeadline();
+        System.out.println("[RAFT] Node " + myId + " starting election for term " + currentTerm);
+
+        if (votes.size() > clusterSize() / 2) {
+            becomeLeader(); // configured as a single-node cluster
+            return;
+        }
+        String req = "RAFT_VOTE|" + currentTerm + "|" + myId + "|" + log.lastIndex() + "|" + log.lastTerm();
+        for (Integer peer : voters) {
+            transport.accept(peer, req);
+        }
+    }
+
+    private synchronized String handleVote(long term, int candidateId, long lastLogIndex, long lastLogTerm) {
+        if (term > currentTerm) {
+            becomeFollower(term, -1);
+        }
+        boolean upToDate = lastLogTerm > log.lastTerm()
+                || (lastLogTerm == log.lastTerm() && lastLogIndex >= log.lastIndex());
+        boolean grant = term == currentTerm && voters.contains(candidateId)
+                && (votedFor == -1 || votedFor == candidateId) && upToDate;
+        if (grant) {
+            votedFor = candidateId;
+            log.saveState(currentTerm, votedFor);
+            resetElectionDeadline();
+        }
+        return "RAFT_VOTE_RESP|" + currentTerm + "|" + myId + "|" + (grant ? "1" : "0");
+    }
+
+    private synchronized void handleVoteResponse(long term, int voterId, boolean granted) {
+        if (term > currentTerm) {
+            becomeFollower(term, -1);
+            return;
+        }
+        if (role != Role.CANDIDATE || term != currentTerm || !granted || !voters.contains(voterId))
+            return;
+        votes.add(voterId);
+        if (votes.size() > clusterSize() / 2) {
+            becomeLeader();
+        }
+    }
+
+    private void becomeLeader() {
+        role = Role.LEADER;
+        leaderId = myId;
+        progress.clear();
+        durableIndex = log.snapshotIndex(); // the next tick's sync covers the rest
+        long next = log.lastIndex() + 1;
+        for (Integer peer : voters) {
+            Progress pr = new Progress();
+            pr.nextIndex = next;
+            progress.put(peer, pr);
+        }
+        // A no-op in the new term lets earlier-term entries commit (Raft section 5.4.2)
+        log.append(new RaftLog.Entry(currentTerm, myId + "|0|" + NOOP));
+        System.out.println("[RAFT] Node " + myId + " is LEADER for term " + currentTerm);
+        notifyLeadership(true);
+        notifyAll();
+    }
+
+    private void becomeFollower(long term, int newLeader) {
+        boolean wasLeader = role == Role.LEADER;
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = -1;
+            log.saveState(currentTerm, votedFor);
+        }
+        role = Role.FOLLOWER;
+        if (newLeader != -1)
+            leaderId = newLeader;
+        resetElectionDeadline();
+        if (wasLeader) {
+            System.out.println("[RAFT] Node " + myId + " stepped down in term " + currentTerm);
+            notifyLeadership(false);
+        }
+    }
+
+    private void notifyLeadership(boolean leader) {
+        Consumer<Boolean> listener = onLeadershipChange;
+        if (listener != null) {
+            new Thread(() -> listener.accept(leader)).start();
+        }
+    }
+
+    // ----------------------------------------------------------- Replication
+
+    private void replicateTo(Integer peer, long now) {
+        Progress pr = progress.computeIfAbsent(peer, k -> {
+            Progress fresh = new Progress();
+            fresh.nextIndex = log.lastIndex() + 1;
+            return fresh;
+        });
+
+        // Responses lost (e.g. connection dropped): restart from the last known match
+        if (pr.inflight > 0 && now - Math.max(pr.lastResponseAt, pr.lastSendAt) > INFLIGHT_TIMEOUT_MS) {
+            pr.inflight = 0;
+            pr.nextIndex = pr.matchIndex + 1;
+        }
+
+        if (pr.nextIndex <= log.snapshotIndex()) {
+            sendSnapshotChunk(peer, pr, now); // what it needs is compacted away
+            return;
+        }
+
+        boolean sent = false;
+        while (pr.inflight < MAX_INFLIGHT_APPENDS && pr.nextIndex <= log.lastIndex()) {
+            List<RaftLog.Entry> batch = log.slice(pr.nextIndex, MAX_ENTRIES_PER_APPEND);
+            sendAppend(peer, pr, batch, now);
+            pr.nextIndex += batch.size(); // pipelined: assume success
+            sent = true;
+        }
+        if (!sent && pr.inflight < MAX_INFLIGHT_APPENDS && now - pr.lastSendAt >= HEARTBEAT_INTERVAL_MS) {
+            sendAppend(peer, pr, new ArrayList<>(), now);
+        }
+    }
+
+    private void sendAppend(Integer peer, Progress pr, List<RaftLog.Entry> batch, long now) {
+        long prevIndex = pr.nextIndex - 1;
+        StringBuilder sb = new StringBuilder("RAFT_APPEND|");
+        sb.append(currentTerm).append('|').append(myId).append('|').append(prevIndex).append('|')
+                .append(log.termAt(prevIndex)).append('|').append(commitIndex).append('|');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(batch.get(i).term).append(':').append(encode(batch.get(i).payload));
+        }
+        pr.inflight++;
+        pr.lastSendAt = now;
+        transport.accept(peer, sb.toString());
+    }
+
+    private void sendSnapshotChunk(Integer peer, Progress pr, long now) {
+        if (pr.inflight > 0)
+            return; // stop-and-wait; the inflight timeout resends
+        long index = log.snapshotIndex();
+        if (pr.snapshotIndex != index) {
+            pr.snapshotIndex = index;
+            pr.snapshotOffset = 0;
+        }
+        List<String> data = log.snapshotData();
+        int from = Math.min(pr.snapshotOffset, data.size());
+        int to = Math.min(from + SNAPSHOT_CHUNK_LINES, data.size());
+        boolean done = to == data.size();
+        pr.inflight++;
+        pr.lastSendAt = now;
+        transport.accept(peer, "RAFT_SNAPSHOT|" + currentTerm + "|" + myId + "|" + index + "|" + log.snapshotTerm()
+                + "|" + from + "|" + (done ? "1" : "0") + "|" + encode(String.join("\n", data.subList(from, to))));
+    }
+
+    private synchronized String handleSnapshot(long term, int fromLeader, long lastIncludedIndex,
+            long lastIncludedTerm, int offset, boolean done, String chunk) {
+        if (term < currentTerm) {
+            return appendResponse(false, log.lastIndex());
+        }
+        becomeFollower(term, fromLeader);
+        if (lastIncludedIndex <= commitIndex) {
+            incomingSnapshotIndex = -1;
+            incomingSnapshot.clear();
+            return appendResponse(true, lastIncludedIndex); // already have all of it
+        }
+        if (offset == 0) {
+            incomingSnapshotIndex = lastIncludedIndex;
+            incomingSnapshot.clear();
+        }
+        if (lastIncludedIndex != incomingSnapshotIndex || offset != incomingSnapshot.size()) {
+            // Lost or out-of-date chunk: tell the leader where to continue
+            long expected = lastIncludedIndex == incomingSnapshotIndex ? incomingSnapshot.size() : 0;
+            return "RAFT_SNAPSHOT_RESP|" + currentTerm + "|" + myId + "|" + lastIncludedIndex + "|" + expected;
+        }
+        String lines = decode(chunk);
+        if (!lines.isEmpty()) {
+            Collections.addAll(incomingSnapshot, lines.split("\n", -1));
+        }
+        if (!done) {
+            return "RAFT_SNAPSHOT_RESP|" + currentTerm + "|" + myId + "|" + lastIncludedIndex + "|"
+                    + incomingSnapshot.size();
+        }
+
+        List<String> data = new ArrayList<>(incomingSnapshot);
+        incomingSnapshotIndex = -1;
+        incomingSnapshot.clear();
+        log.saveSnapshot(lastIncludedIndex, lastIncludedTerm, data);
+        if (restoreSnapshot != null)
+            restoreSnapshot.accept(data);
+        commitIndex = Math.max(commitIndex, lastIncludedIndex);
+        lastApplied = Math.max(lastApplied, lastIncludedIndex);
+        resetElectionDeadline();
+        System.out.println("[RAFT] Node " + myId + " installed snapshot at index " + lastIncludedIndex + " ("
+                + data.size() + " lines) from leader " + fromLeader);
+        notifyAll();
+        return appendResponse(true, lastIncludedIndex);
+    }
+
+    private synchronized void handleSnapshotResponse(long term, int followerId, long lastIncludedIndex,
+            int nextOffset) {
+        if (term > currentTerm) {
+            becomeFollower(term, -1);
+            return;
+        }
+        if (role != Role.LEADER || term != currentTerm)
+            return;
+        Progress pr = progress.get(followerId);
+        if (pr == null)
+            return;
+        pr.inflight = 0;
+        pr.lastResponseAt = System.currentTimeMillis();
+        if (lastIncludedIndex == pr.snapshotIndex)
+            pr.snapshotOffset = nextOffset;
+    }
+
+    private synchronized String handleAppend(long term, int fromLeader, long prevIndex, long prevTerm,
+            long leaderCommit, String encodedEntries) {
+        if (term < currentTerm) {
+            return appendResponse(false, log.lastIndex());
+        }
+        becomeFollower(term, fromLeader);
+
+        if (prevIndex > log.lastIndex()) {
+            return appendResponse(false, log.lastIndex());
+        }
+        // Below our snapshot everything is committed, so it matches by definition
+        if (prevIndex >= log.snapshotIndex() && log.termAt(prevIndex) != prevTerm) {
+            // Skip back over the whole conflicting term in one round trip
+            long conflictTerm = log.termAt(prevIndex);
+            long i = prevIndex;
+            while (i > commitIndex + 1 && log.termAt(i - 1) == conflictTerm) {
+                i--;
+            }
+            return appendResponse(false, i - 1);
+        }
+
+        long index = prevIndex;
+        if (!encodedEntries.isEmpty()) {
+            for (String item : encodedEntries.split(",")) {
+                int colon = item.indexOf(':');
+                long entryTerm = Long.parseLong(item.substring(0, colon));
+                index++;
+                if (index <= log.snapshotIndex())
+                    continue;
+                if (index <= log.lastIndex()) {
+                    if (log.termAt(index) == entryTerm)
+                        continue; // already have it (duplicate / resend)
+                    log.truncateFrom(index);
+                }
+                log.append(new RaftLog.Entry(entryTerm, decode(item.substring(colon + 1))));
+            }
+            log.sync();
+        }
+
+        if (Math.min(leaderCommit, index) > commitIndex) {
+            commitTo(Math.min(leaderCommit, index));
+        }
+        if (index >= leaderCommit)
+            lastLeaderContactAt = System.currentTimeMillis();
+        return appendResponse(true, index);
+    }
+
+    private String appendResponse(boolean success, long matchIndex) {
+        return "RAFT_APPEND_RESP|" + currentTerm + "|" + myId + "|" + (success ? "1" : "0") + "|" + matchIndex;
+    }
+
+    private synchronized void handleAppendResponse(long term, int followerId, boolean success, long index) {
+        if (term > currentTerm) {
+            becomeFollower(term, -1);
+            return;
+        }
+        if (role != Role.LEADER || term != currentTerm)
+            return;
+        Progress pr = progress.get(followerId);
+        if (pr == null)
+            return;
+
+        pr.inflight = Math.max(0, pr.inflight - 1);
+        pr.lastResponseAt = System.currentTimeMillis();
+        if (success) {
+            if (index > pr.matchIndex) {
+                pr.matchIndex = index;
+                advanceCommitIndex();
+            }
+            pr.nextIndex = Math.max(pr.nextIndex, index + 1);
+        } else {
+            // Log mismatch: back off and drop the optimistic pipeline
+            pr.nextIndex = Math.max(pr.matchIndex + 1, Math.min(pr.nextIndex, index + 1));
+            pr.inflight = 0;
+        }
+    }
+
+    private synchronized String handleForward(String tagged) {
+        if (role != Role.LEADER) {
+            return "ERR|NOT_LEADER|" + leaderId;
+        }
+        log.append(new RaftLog.Entry(currentTerm, tagged));
+        notifyAll();
+        return "OK|FWD";
+    }
+
+    private void advanceCommitIndex() {
+        long last = log.lastIndex();
+        for (long n = last; n > commitIndex; n--) {
+            if (log.termAt(n) != currentTerm)
+                break; // only entries from our own term commit by counting
+            int count = n <= durableIndex ? 1 : 0; // ourselves, once synced
+            for (Progress pr : progress.values()) {
+                if (pr.matchIndex >= n)
+                    count++;
+            }
+            if (count > clusterSize() / 2) {
+                commitTo(n);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Advance commitIndex. Proposals are acknowledged by the apply loop, once
+     * the state machine has applied them (database included, on the leader).
+     */
+    private void commitTo(long newCommitIndex) {
+        commitIndex = newCommitIndex;
+        notifyAll();
+    }
+
+    private int clusterSize() {
+        return voters.size() + 1;
+    }
+
+    // ----------------------------------------------------------------- Apply
+
+    private void applyLoop() {
+        while (running) {
+            List<RaftLog.Entry> toApply;
+            long appliedTo;
+            Supplier<List<String>> snapshot;
+            synchronized (this) {
+                while (running && lastApplied >= commitIndex) {
+                    try {
+                        wait(100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running)
+                    return;
+                toApply = log.slice(lastApplied + 1, (int) Math.min(1024, commitIndex - lastApplied));
+                lastApplied += toApply.size();
+                appliedTo = lastApplied;
+                snapshot = takeSnapshot;
+            }
+            for (RaftLog.Entry e : toApply) {
+                apply(e.payload);
+                acknowledge(e.payload);
+            }
+            // Only this thread applies entries, so the state now reflects appliedTo
+            // (plus whatever gossip merged meanwhile, which replaying later entries
+            // over it cannot undo: merges are last-writer-wins)
+            if (snapshot != null && appliedTo - log.snapshotIndex() >= SNAPSHOT_EVERY) {
+                long term = log.termAt(appliedTo);
+                if (term > 0) {
+                    log.saveSnapshot(appliedTo, term, snapshot.get());
+                    System.out.println("[RAFT] Node " + myId + " snapshotted at index " + appliedTo);
+                }
+            }
+        }
+    }
+
+    private void acknowledge(String tagged) {
+        committedCount.incrementAndGet();
+        int sep1 = tagged.indexOf('|');
+        int sep2 = tagged.indexOf('|', sep1 + 1);
+        if (sep1 < 0 || sep2 < 0)
+            return;
+        if (Integer.parseInt(tagged.substring(0, sep1)) == myId) {
+            CompletableFuture<Boolean> f = pending.get(Long.parseLong(tagged.substring(sep1 + 1, sep2)));
+            if (f != null)
+                f.complete(true);
+        }
+    }
+
+    private void apply(String tagged) {
+        String[] parts = tagged.split("\\|", 3);
+        if (parts.length < 3 || NOOP.equals(parts[2]))
+            return;
+        try {
+            stateMachine.accept(parts[2]);
+        } catch (Exception e) {
+            System.err.println("[RAFT] Failed to apply entry: " + e.getMessage());
+        }
+    }
+
+    private static String encode(String s) {
+        return Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String s) {
+        return new String(Base64.getDecoder().decode(s), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,198 @@
+package com.electricity.service;
+
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Follower side of the sequenced replication log.
+ *
+ * Applies entries strictly in sequence order. Entries that arrive ahead of a
+ * gap are buffered until the gap is filled, and the missing range is
+ * requested from the leader exactly once (re-requested after a timeout).
+ *
+ * Each leader numbers entries from its own persistent log, and tags every
+ * message with its epoch: its last sequence number when it took over.
+ * When the leader changes, we resume from that epoch. Everything below it
+ * belongs to an earlier leader's term, which we have already applied (or
+ * gossip has since brought us). Re-requesting from 1 would replay the new
+ * leader's whole retained tail and publish old outages again.
+ *
+ * Responses (sent back on the leader's channel):
+ * - REPL_ACK|followerId|highestContiguous
+ * - REPL_NACK|followerId|from|to   (please resend [from, to])
+ */
+public class ReplicationFollower {
+    private static final int MAX_BUFFERED = 100000;
+    private static final long NACK_RETRY_MS = 2000;
+
+    private final int myId;
+    private final Consumer<String> applier;
+
+    private int leaderId = -1;
+    private long epoch = -1; // -1: not known yet (e.g. resumed from a snapshot)
+    private long highestContiguous = 0;
+    private final TreeMap<Long, String> pending = new TreeMap<>();
+    private long requestedUpTo = 0;
+    private long lastNackAt = 0;
+    private volatile long lastAppliedAt = 0;
+    private volatile long lastCaughtUpAt = 0;
+
+    public ReplicationFollower(int myId, Consumer<String> applier) {
+        this.myId = myId;
+        this.applier = applier;
+    }
+
+    /**
+     * Handle REPL|leaderId|epoch|seq|payload.
+     */
+    public synchronized String onEntry(int fromLeader, long fromEpoch, long seq, String payload) {
+        switchLeaderIfNeeded(fromLeader, fromEpoch);
+
+        if (seq <= highestContiguous) {
+            return ack(); // duplicate (e.g. resent after a NACK)
+        }
+        if (seq == highestContiguous + 1) {
+            apply(payload);
+            highestContiguous = seq;
+            drainPending();
+        } else if (pending.size() < MAX_BUFFERED) {
+            pending.put(seq, payload);
+        }
+        return gapResponse(seq - 1);
+    }
+
+    /**
+     * Handle REPL_TAIL|leaderId|epoch|lastSeq - periodic notice of the
+     * leader's tail, lets an idle follower notice it missed the last entries.
+     */
+    public synchronized String onTail(int fromLeader, long fromEpoch, long leaderLastSeq) {
+        switchLeaderIfNeeded(fromLeader, fromEpoch);
+        if (leaderLastSeq < highestContiguous) {
+            // Leader lost its log (e.g. restarted without the file): start over
+            System.out.println("[REPL] Leader " + leaderId + " is behind us, resetting sequence");
+            highestContiguous = 0;
+            pending.clear();
+            requestedUpTo = 0;
+        }
+        return gapResponse(leaderLastSeq);
+    }
+
+    /**
+     * Handle REPL_SKIP|leaderId|epoch|firstAvailable - the leader no longer
+     * retains what we are missing, so jump forward rather than wait forever.
+     */
+    public synchronized String onSkip(int fromLeader, long fromEpoch, long firstAvailable) {
+        switchLeaderIfNeeded(fromLeader, fromEpoch);
+        if (firstAvailable - 1 > highestContiguous) {
+            System.err.println("[REPL] Entries " + (highestContiguous + 1) + ".." + (firstAvailable - 1)
+                    + " no longer available from leader " + leaderId + ", skipping ahead");
+            highestContiguous = firstAvailable - 1;
+            pending.headMap(firstAvailable).clear();
+            drainPending();
+        }
+        return gapResponse(highestContiguous);
+    }
+
+    /**
+     * Resume from a snapshot that already reflects everything up to seq.
+     */
+    public synchronized void resumeFrom(int fromLeader, long seq) {
+        switchLeaderIfNeeded(fromLeader, -1);
+        if (seq > highestContiguous) {
+            highestContiguous = seq;
+            requestedUpTo = Math.max(requestedUpTo, seq);
+            drainPending();
+        }
+    }
+
+    public synchronized long getHighestContiguous() {
+        return highestContiguous;
+    }
+
+    public synchronized int getLeaderId() {
+        return leaderId;
+    }
+
+    /**
+     * Wall-clock time of the last entry applied (0 if none yet).
+     */
+    public long getLastAppliedAt() {
+        return lastAppliedAt;
+    }
+
+    /**
+     * Wall-clock time we last knew we had everything the leader had (0 if never).
+     */
+    public long getLastCaughtUpAt() {
+        return lastCaughtUpAt;
+    }
+
+    /**
+     * A new leader means a new sequence space: continue from its epoch. The
+     * same leader in a new term keeps numbering its own log, so what we have
+     * of it still counts; only the part before the epoch is skipped.
+     */
+    private void switchLeaderIfNeeded(int fromLeader, long fromEpoch) {
+        if (fromLeader != leaderId) {
+            if (leaderId != -1) {
+                System.out.println("[REPL] Leader changed " + leaderId + " -> " + fromLeader + ", resuming after seq "
+                        + Math.max(fromEpoch, 0));
+            }
+            leaderId = fromLeader;
+            epoch = fromEpoch;
+            highestContiguous = Math.max(fromEpoch, 0);
+            pending.clear();
+            requestedUpTo = highestContiguous;
+        } else if (fromEpoch != epoch && fromEpoch != -1) {
+            epoch = fromEpoch;
+            if (fromEpoch > highestContiguous) {
+                highestContiguous = fromEpoch;
+                requestedUpTo = Math.max(requestedUpTo, fromEpoch);
+                drainPending();
+            }
+        }
+    }
+
+    private void drainPending() {
+        while (!pending.isEmpty() && pending.firstKey() == highestContiguous + 1) {
+            apply(pending.pollFirstEntry().getValue());
+            highestContiguous++;
+        }
+        while (!pending.isEmpty() && pending.firstKey() <= highestContiguous) {
+            pending.pollFirstEntry();
+        }
+    }
+
+    /**
+     * ACK if nothing is missing up to knownLast, otherwise NACK the missing
+     * range (once, or again after NACK_RETRY_MS).
+     */
+    private String gapResponse(long knownLast) {
+        if (knownLast <= highestContiguous) {
+            lastCaughtUpAt = System.currentTimeMillis();
+            return ack();
+        }
+        long from = highestContiguous + 1;
+        long to = pending.isEmpty() ? knownLast : Math.min(knownLast, pending.firstKey() - 1);
+        long now = System.currentTimeMillis();
+        if (to > requestedUpTo || now - lastNackAt > NACK_RETRY_MS) {
+            requestedUpTo = Math.max(requestedUpTo, to);
+            lastNackAt = now;
+            return "REPL_NACK|" + myId + "|" + from + "|" + to;
+        }
+        return ack();
+    }
+
+    private String ack() {
+        return "REPL_ACK|" + myId + "|" + highestContiguous;
+    }
+
+    private void apply(String payload) {
+        try {
+            applier.accept(payload);
+        } catch (Exception e) {
+            System.err.println("[REPL] Failed to apply entry: " + e.getMessage());
+        }
+        lastAppliedAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,230 @@
+package com.electricity.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sequenced replication log kept by the leader.
+ *
+ * Every replicated state change gets a monotonically increasing sequence
+ * number. The most recent entries are kept in memory so lagging followers
+ * can be caught up, and everything is appended to a local file so the
+ * sequence survives a restart.
+ *
+ * File format: one entry per line, "seq|payload".
+ * Writes are group-committed: appends are buffered and flushed by a
+ * background thread every FLUSH_INTERVAL_MS. The same thread compacts the
+ * file down to the retained tail once it grows past twice that size; the
+ * rewrite runs outside the lock, so append() never waits on it.
+ */
+public class ReplicationLog {
+    private static final int RETAINED_ENTRIES = 200000;
+    private static final long FLUSH_INTERVAL_MS = 20;
+
+    private final File file;
+    private final ConcurrentSkipListMap<Long, String> entries = new ConcurrentSkipListMap<>();
+    private long lastSeq = 0;
+    private long linesInFile = 0;
+    private BufferedWriter writer;
+    private volatile boolean dirty = false;
+    private volatile boolean running = true;
+
+    public ReplicationLog(int serverId) {
+        this(new File("replication-" + serverId + ".log"));
+    }
+
+    public ReplicationLog(File file) {
+        this.file = file;
+        load();
+        openWriter();
+
+        Thread flusher = new Thread(this::flushLoop, "replication-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Assign the next sequence number to a payload and append it.
+     */
+    public synchronized long append(String payload) {
+        long seq = ++lastSeq;
+        entries.put(seq, payload);
+        trimMemory();
+
+        if (writer != null) {
+            try {
+                writer.write(Long.toString(seq));
+                writer.write('|');
+                writer.write(payload);
+                writer.write('\n');
+                linesInFile++;
+                dirty = true;
+            } catch (IOException e) {
+                System.err.println("[REPL] Log write failed: " + e.getMessage());
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Entries in [from, to], as far as they are still retained.
+     */
+    public List<Map.Entry<Long, String>> range(long from, long to, int max) {
+        List<Map.Entry<Long, String>> result = new ArrayList<>();
+        for (Map.Entry<Long, String> e : entries.subMap(from, true, to, true).entrySet()) {
+            result.add(e);
+            if (result.size() >= max)
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Lowest sequence number still available for catch-up (0 if empty).
+     */
+    public long firstRetainedSeq() {
+        Long first = entries.isEmpty() ? null : entries.firstKey();
+        return first == null ? 0 : first;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void close() {
+        running = false;
+        synchronized (this) {
+            try {
+                if (writer != null)
+                    writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+    }
+
+    private void trimMemory() {
+        while (entries.size() > RETAINED_ENTRIES) {
+            entries.pollFirstEntry();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            boolean compactNow;
+            synchronized (this) {
+                if (dirty) {
+                    try {
+                        if (writer != null)
+                            writer.flush();
+                        dirty = false;
+                    } catch (IOException e) {
+                        System.err.println("[REPL] Log flush failed: " + e.getMessage());
+                    }
+                }
+                compactNow = writer != null && linesInFile > 2L * RETAINED_ENTRIES;
+            }
+            if (compactNow) {
+                compact();
+            }
+        }
+    }
+
+    private void load() {
+        if (!file.exists())
+            return;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int sep = line.indexOf('|');
+                if (sep <= 0)
+                    continue; // torn write at the tail
+                try {
+                    long seq = Long.parseLong(line.substring(0, sep));
+                    entries.put(seq, line.substring(sep + 1));
+                    lastSeq = Math.max(lastSeq, seq);
+                    linesInFile++;
+                } catch (NumberFormatException ignored) {
+                }
+                trimMemory();
+            }
+            System.out.println("[REPL] Recovered replication log up to seq " + lastSeq);
+        } catch (IOException e) {
+            System.err.println("[REPL] Could not read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void openWriter() {
+        try {
+            writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            System.err.println("[REPL] Replication log is memory-only: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite the file with only the retained tail (flusher thread only).
+     * The bulk of the tail is copied without the lock; appends made
+     * meanwhile are copied under the lock just before the swap.
+     */
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        long copiedUpTo;
+        synchronized (this) {
+            copiedUpTo = lastSeq;
+        }
+        try {
+            long lines = writeEntries(tmp, entries.headMap(copiedUpTo, true), false);
+            synchronized (this) {
+                lines += writeEntries(tmp, entries.tailMap(copiedUpTo, false), true);
+                BufferedWriter old = writer;
+                writer = null;
+                if (old != null)
+                    old.close();
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                linesInFile = lines;
+                openWriter();
+            }
+        } catch (IOException e) {
+            System.err.println("[REPL] Log compaction failed: " + e.getMessage());
+            synchronized (this) {
+                linesInFile = 0; // retry after another full round of appends
+                if (writer == null && running)
+                    openWriter();
+            }
+        }
+    }
+
+    private static long writeEntries(File target, Map<Long, String> range, boolean append) throws IOException {
+        long lines = 0;
+        try (BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(target, append), StandardCharsets.UTF_8), 64 * 1024)) {
+            for (Map.Entry<Long, String> e : range.entrySet()) {
+                out.write(e.getKey() + "|" + e.getValue());
+                out.write('\n');
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,184 @@
+package com.electricity.service;
+
+import com.electricity.model.NodeRecord;
+import com.electricity.model.Peer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming state snapshot for servers that join with an empty cache.
+ *
+ * The joiner opens a dedicated connection (so live replication on the peer
+ * channel is not held up) and sends SNAPSHOT_REQ. The source streams:
+ *
+ *   SNAPSHOT_BEGIN|leaderId|replicationSeq
+ *   SNAPSHOT_CHUNK|index|NODES|crc32|base64(gzip(record\nrecord...))
+ *   SNAPSHOT_CHUNK|index|EVENTS|crc32|base64(gzip(event\nevent...))
+ *   SNAPSHOT_END|chunkCount|recordCount
+ *
+ * The source iterates its concurrent map without locking, so ingest keeps
+ * running while the snapshot streams. Records are merged into the joiner's
+ * CRDT, so updates that arrive live during the transfer are never overwritten
+ * by older snapshot data. Every chunk is checksummed; a bad chunk aborts the
+ * transfer so the caller can retry.
+ */
+public class SnapshotTransfer {
+    private static final int RECORDS_PER_CHUNK = 2000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 10000;
+
+    /**
+     * Result of a completed pull: where live replication should resume.
+     */
+    public static class Result {
+        public final int leaderId;
+        public final long replicationSeq;
+        public final int records;
+        public final int events;
+
+        Result(int leaderId, long replicationSeq, int records, int events) {
+            this.leaderId = leaderId;
+            this.replicationSeq = replicationSeq;
+            this.records = records;
+            this.events = events;
+        }
+    }
+
+    /**
+     * Source side: stream the snapshot to a joiner.
+     */
+    public static void stream(OutputStream rawOut, Collection<NodeRecord> records, List<String> events, int leaderId,
+            long replicationSeq) throws IOException {
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8), 64 * 1024);
+        out.write("SNAPSHOT_BEGIN|" + leaderId + "|" + replicationSeq + "\n");
+
+        int chunk = 0;
+        int count = 0;
+        List<String> batch = new ArrayList<>(RECORDS_PER_CHUNK);
+        for (NodeRecord r : records) {
+            batch.add(r.encode());
+            count++;
+            if (batch.size() == RECORDS_PER_CHUNK) {
+                writeChunk(out, chunk++, "NODES", batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            writeChunk(out, chunk++, "NODES", batch);
+
+        for (int from = 0; from < events.size(); from += RECORDS_PER_CHUNK) {
+            writeChunk(out, chunk++, "EVENTS", events.subList(from, Math.min(events.size(), from + RECORDS_PER_CHUNK)));
+        }
+
+        out.write("SNAPSHOT_END|" + chunk + "|" + count + "\n");
+        out.flush();
+    }
+
+    /**
+     * Joiner side: pull a snapshot from a peer, feeding records and events to
+     * the given sinks as chunks arrive.
+     */
+    public static Result pull(Peer source, Consumer<NodeRecord> recordSink, Consumer<String> eventSink)
+            throws IOException {
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(source.getHost(), source.getPort()), CONNECT_TIMEOUT_MS);
+            s.setSoTimeout(READ_TIMEOUT_MS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8),
+                    64 * 1024);
+            OutputStream out = s.getOutputStream();
+
+            out.write("AUTH|SERVER_PEER\nSNAPSHOT_REQ\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String auth = in.readLine();
+            if (!"AUTH_OK".equals(auth))
+                throw new IOException("auth rejected: " + auth);
+
+            String begin = in.readLine();
+            if (begin == null || !begin.startsWith("SNAPSHOT_BEGIN|"))
+                throw new IOException("unexpected snapshot header: " + begin);
+            String[] header = begin.split("\\|");
+            int leaderId = Integer.parseInt(header[1]);
+            long seq = Long.parseLong(header[2]);
+
+            int expectedChunk = 0;
+            int records = 0;
+            int events = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("SNAPSHOT_END|")) {
+                    String[] end = line.split("\\|");
+                    if (Integer.parseInt(end[1]) != expectedChunk || Integer.parseInt(end[2]) != records)
+                        throw new IOException("snapshot incomplete: " + line);
+                    return new Result(leaderId, seq, records, events);
+                }
+                String[] p = line.split("\\|", 5);
+                if (p.length < 5 || !"SNAPSHOT_CHUNK".equals(p[0]))
+                    throw new IOException("unexpected snapshot line");
+                if (Integer.parseInt(p[1]) != expectedChunk)
+                    throw new IOException("chunk " + p[1] + " out of order, expected " + expectedChunk);
+                List<String> items = decodeChunk(p[4], Long.parseLong(p[3]));
+                if ("NODES".equals(p[2])) {
+                    for (String item : items) {
+                        recordSink.accept(NodeRecord.decode(item));
+                    }
+                    records += items.size();
+                } else {
+                    for (String item : items) {
+                        eventSink.accept(item);
+                    }
+                    events += items.size();
+                }
+                expectedChunk++;
+            }
+            throw new IOException("snapshot stream ended early");
+        }
+    }
+
+    private static void writeChunk(BufferedWriter out, int index, String kind, List<String> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(String.join("\n", items).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] compressed = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+        out.write("SNAPSHOT_CHUNK|" + index + "|" + kind + "|" + crc.getValue() + "|");
+        out.write(Base64.getEncoder().encodeToString(compressed));
+        out.write('\n');
+    }
+
+    private static List<String> decodeChunk(String body, long expectedCrc) throws IOException {
+        byte[] compressed = Base64.getDecoder().decode(body);
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+        if (crc.getValue() != expectedCrc)
+            throw new IOException("chunk checksum mismatch");
+        try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            String text = new String(gz.readAllBytes(), StandardCharsets.UTF_8);
+            List<String> items = new ArrayList<>();
+            for (String item : text.split("\n")) {
+                if (!item.isEmpty())
+                    items.add(item);
+            }
+            return items;
+        }
+    }
+}
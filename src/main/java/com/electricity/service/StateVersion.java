@@ -0,0 +1,24 @@
+package com.electricity.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide version of the node state this server can show: bumped on
+ * every change to the replicated node cache and every ingest or monitor
+ * write to the nodes table. Readers (the dashboard payload cache) compare
+ * versions instead of re-querying to find out whether anything changed.
+ */
+public final class StateVersion {
+    private static final AtomicLong version = new AtomicLong();
+
+    private StateVersion() {
+    }
+
+    public static long bump() {
+        return version.incrementAndGet();
+    }
+
+    public static long get() {
+        return version.get();
+    }
+}
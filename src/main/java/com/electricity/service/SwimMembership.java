@@ -0,0 +1,633 @@
+package com.electricity.service;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.electricity.model.Peer;
+
+/**
+ * SWIM membership (Das, Gupta, Motivala 2002) - an alternative to the
+ * multicast HELLO beacon for clusters spread over routed networks.
+ *
+ * Every protocol period each member:
+ * - pings ONE member, picked in randomized round-robin order
+ * - if no ACK within the ack timeout, asks K other members to ping it for
+ *   us (SWIM_PING_REQ) and relay the ACK
+ * - if still no ACK by the end of the period, marks it SUSPECT
+ * A suspect that does not refute within the suspicion timeout is declared
+ * DEAD. A member refutes a suspicion about itself by raising its incarnation
+ * number and announcing ALIVE; higher incarnations always win.
+ *
+ * Membership updates (ALIVE / SUSPECT / DEAD) are not broadcast: they are
+ * piggybacked on the pings and ACKs that are sent anyway, each update a
+ * bounded number of times (infection-style dissemination). So the messages a
+ * member sends per period stay constant as the cluster grows. A periodic
+ * full-state push-pull with one random member (as in practical SWIM
+ * implementations) catches up on anything the piggybacks missed.
+ *
+ * Wire format (UDP datagrams, or any Transport):
+ *   SWIM_PING|seq|sender|updates
+ *   SWIM_ACK|seq|sender|updates
+ *   SWIM_PING_REQ|seq|sender|targetId|updates
+ *   SWIM_JOIN|sender
+ *   SWIM_SYNC_REQ|sender|members   (push-pull, every pushPullMs)
+ *   SWIM_SYNC|sender|members
+ * sender = id,host,swimPort,tcpPort,incarnation ; updates = A:sender;S:...;D:...
+ *
+ * Time is supplied by the caller (tick / receive), so the same code runs
+ * on a real clock (run()) and in the simulation benchmark.
+ * Joins and confirmed deaths go to MembershipTable.Listener, like discovery.
+ */
+public class SwimMembership implements Runnable {
+
+    public interface Transport {
+        void send(String host, int port, String msg);
+    }
+
+    public enum State {
+        ALIVE, SUSPECT, DEAD
+    }
+
+    private static final long PERIOD_MS = Long.getLong("electricity.swim.periodMs", 1000);
+    private static final long ACK_TIMEOUT_MS = Long.getLong("electricity.swim.ackTimeoutMs", PERIOD_MS / 5);
+    private static final int INDIRECT_K = Integer.getInteger("electricity.swim.k", 3);
+    private static final int SUSPICION_MULT = Integer.getInteger("electricity.swim.suspicionMult", 4);
+    private static final int RETRANSMIT_MULT = 3;
+    // Piggybacked updates per datagram, sized to stay inside one Ethernet MTU
+    private static final int MAX_PIGGYBACK_BYTES = 1200;
+    private static final long PUSH_PULL_MS = Long.getLong("electricity.swim.pushPullMs", 10 * PERIOD_MS);
+    private static final long TICK_MS = Math.max(10, ACK_TIMEOUT_MS / 4);
+    private static final long SWEEP_MS = Math.max(TICK_MS, PERIOD_MS / 4);
+    private static final long DEAD_RETAIN_MS = 60 * PERIOD_MS;
+
+    private static final class Member {
+        final int id;
+        String host;
+        int swimPort;
+        int tcpPort;
+        int incarnation;
+        State state = State.ALIVE;
+        long stateSince;
+
+        Member(int id) {
+            this.id = id;
+        }
+
+        String token() {
+            return id + "," + host + "," + swimPort + "," + tcpPort + "," + incarnation;
+        }
+
+        Peer peer() {
+            return new Peer(id, host, tcpPort);
+        }
+    }
+
+    /** An update being disseminated, and how often it has been piggybacked. */
+    private static final class Update {
+        final String encoded;
+        int transmissions;
+
+        Update(String encoded) {
+            this.encoded = encoded;
+        }
+    }
+
+    private static final class Relay {
+        final String host;
+        final int port;
+        final long requesterSeq;
+        final long expiresAt;
+
+        Relay(String host, int port, long requesterSeq, long expiresAt) {
+            this.host = host;
+            this.port = port;
+            this.requesterSeq = requesterSeq;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Member self;
+    private final Transport transport;
+    private final Random random;
+    private final Map<Integer, Member> members = new HashMap<>();
+    private final Map<Integer, Update> updates = new HashMap<>();
+    private final Map<Long, Relay> relays = new HashMap<>();
+    private final List<MembershipTable.Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<String> seeds = new ArrayList<>();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong suspicionsRaised = new AtomicLong();
+    private volatile boolean running = true;
+    private boolean verbose = true;
+
+    // Current probe (one per period)
+    private final List<Integer> probeOrder = new ArrayList<>();
+    private int probeIndex = 0;
+    private int probeTarget = -1;
+    private long probeSeq;
+    private long probeSentAt;
+    private boolean probeAcked;
+    private boolean indirectSent;
+    private long nextProbeAt = 0;
+    private long seqCounter = 0;
+    private long nextSweepAt = 0;
+    private long nextPushPullAt = 0;
+
+    private boolean joined;
+    private long nextJoinAt = 0;
+
+    public SwimMembership(int myId, String host, int swimPort, int tcpPort, Transport transport, long seed) {
+        this.self = new Member(myId);
+        self.host = host;
+        self.swimPort = swimPort;
+        self.tcpPort = tcpPort;
+        this.transport = transport;
+        this.random = new Random(seed);
+    }
+
+    public void addListener(MembershipTable.Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Members to contact first (host:swimPort). With no seeds we are the
+     * first member and the cluster starts here.
+     */
+    public synchronized void setSeeds(List<String> seedAddresses) {
+        seeds.clear();
+        seeds.addAll(seedAddresses);
+        joined = seeds.isEmpty();
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Real-time mode: drive the protocol from the wall clock.
+     */
+    @Override
+    public void run() {
+        Thread t = new Thread(() -> {
+            while (running) {
+                tick(System.currentTimeMillis());
+                try {
+                    Thread.sleep(TICK_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }, "swim-protocol");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Advance the protocol to time now: join retries, probe timeouts,
+     * the next probe, suspicion expiry.
+     */
+    public synchronized void tick(long now) {
+        if (!running)
+            return;
+        if (!joined && now >= nextJoinAt) {
+            for (String seed : seeds) {
+                String[] hp = seed.split(":");
+                send(hp[0], Integer.parseInt(hp[1]), "SWIM_JOIN|" + self.token());
+            }
+            nextJoinAt = now + PERIOD_MS;
+        }
+
+        if (probeTarget != -1 && !probeAcked && !indirectSent && now - probeSentAt >= ACK_TIMEOUT_MS) {
+            sendIndirectProbes(now);
+        }
+        if (now >= nextProbeAt) {
+            if (probeTarget != -1 && !probeAcked)
+                suspect(probeTarget, now);
+            startProbe(now);
+            nextProbeAt = now + PERIOD_MS;
+        }
+
+        if (joined && now >= nextPushPullAt) {
+            pushPull();
+            nextPushPullAt = now + PUSH_PULL_MS;
+        }
+
+        if (now < nextSweepAt)
+            return;
+        nextSweepAt = now + SWEEP_MS;
+        long suspicionTimeout = suspicionTimeoutMs();
+        List<Integer> purge = new ArrayList<>();
+        for (Member m : members.values()) {
+            if (m.state == State.SUSPECT && now - m.stateSince > suspicionTimeout) {
+                declareDead(m, now);
+            } else if (m.state == State.DEAD && now - m.stateSince > DEAD_RETAIN_MS) {
+                purge.add(m.id);
+            }
+        }
+        for (int id : purge) {
+            members.remove(id);
+        }
+        relays.values().removeIf(r -> r.expiresAt < now);
+    }
+
+    /**
+     * Handle one datagram.
+     */
+    public synchronized void receive(String msg, long now) {
+        if (!running)
+            return;
+        String[] parts = msg.split("\\|", -1);
+        try {
+            switch (parts[0]) {
+                case "SWIM_PING": {
+                    Member from = learn(parts[2], now);
+                    applyUpdates(parts[3], now);
+                    if (from != null)
+                        send(from.host, from.swimPort,
+                                "SWIM_ACK|" + parts[1] + "|" + self.token() + "|" + withRumour(from, piggyback()));
+                    break;
+                }
+                case "SWIM_ACK": {
+                    learn(parts[2], now);
+                    applyUpdates(parts[3], now);
+                    long seq = Long.parseLong(parts[1]);
+                    if (seq == probeSeq) {
+                        probeAcked = true;
+                    } else {
+                        Relay relay = relays.remove(seq);
+                        if (relay != null) {
+                            send(relay.host, relay.port,
+                                    "SWIM_ACK|" + relay.requesterSeq + "|" + self.token() + "|" + piggyback());
+                        }
+                    }
+                    break;
+                }
+                case "SWIM_PING_REQ": {
+                    // Ping the target on the requester's behalf; relay its ACK
+                    Member from = learn(parts[2], now);
+                    applyUpdates(parts[4], now);
+                    Member target = members.get(Integer.parseInt(parts[3]));
+                    if (from != null && target != null && target.state != State.DEAD) {
+                        long seq = ++seqCounter;
+                        relays.put(seq, new Relay(from.host, from.swimPort, Long.parseLong(parts[1]), now + PERIOD_MS));
+                        send(target.host, target.swimPort, "SWIM_PING|" + seq + "|" + self.token() + "|" + piggyback());
+                    }
+                    break;
+                }
+                case "SWIM_JOIN": {
+                    // A new member contacted us as its seed: hand it the full list
+                    Member from = learn(parts[1], now);
+                    if (from != null)
+                        send(from.host, from.swimPort,
+                                "SWIM_SYNC|" + self.token() + "|" + withRumour(from, fullState()));
+                    break;
+                }
+                case "SWIM_SYNC_REQ": {
+                    // Push-pull: merge their full state, answer with ours
+                    Member from = learn(parts[1], now);
+                    applyUpdates(parts[2], now);
+                    if (from != null)
+                        send(from.host, from.swimPort,
+                                "SWIM_SYNC|" + self.token() + "|" + withRumour(from, fullState()));
+                    break;
+                }
+                case "SWIM_SYNC":
+                    learn(parts[1], now);
+                    applyUpdates(parts[2], now);
+                    joined = true;
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // ignore malformed datagrams
+        }
+    }
+
+    private void startProbe(long now) {
+        probeTarget = nextProbeTarget();
+        probeAcked = false;
+        indirectSent = false;
+        if (probeTarget == -1)
+            return;
+        Member target = members.get(probeTarget);
+        probeSeq = ++seqCounter;
+        probeSentAt = now;
+        send(target.host, target.swimPort,
+                "SWIM_PING|" + probeSeq + "|" + self.token() + "|" + withRumour(target, piggyback()));
+    }
+
+    /**
+     * Tell a suspected (or dead) member what we think of it, so it can
+     * refute straight away instead of waiting for the rumour to reach it.
+     */
+    private String withRumour(Member m, String updates) {
+        if (m.state == State.ALIVE)
+            return updates;
+        String rumour = (m.state == State.SUSPECT ? "S:" : "D:") + m.token();
+        return updates.isEmpty() ? rumour : rumour + ";" + updates;
+    }
+
+    /**
+     * Randomized round-robin: shuffle the members, walk the list, reshuffle
+     * when it is used up. Every member is probed within 2n periods at worst.
+     */
+    private int nextProbeTarget() {
+        for (int attempts = 0; attempts < 2; attempts++) {
+            while (probeIndex < probeOrder.size()) {
+                Member m = members.get(probeOrder.get(probeIndex++));
+                if (m != null && m.state != State.DEAD)
+                    return m.id;
+            }
+            probeOrder.clear();
+            probeOrder.addAll(members.keySet());
+            Collections.shuffle(probeOrder, random);
+            probeIndex = 0;
+        }
+        return -1;
+    }
+
+    private void sendIndirectProbes(long now) {
+        indirectSent = true;
+        List<Member> helpers = new ArrayList<>();
+        for (Member m : members.values()) {
+            if (m.id != probeTarget && m.state == State.ALIVE)
+                helpers.add(m);
+        }
+        Collections.shuffle(helpers, random);
+        for (int i = 0; i < Math.min(INDIRECT_K, helpers.size()); i++) {
+            Member h = helpers.get(i);
+            send(h.host, h.swimPort,
+                    "SWIM_PING_REQ|" + probeSeq + "|" + self.token() + "|" + probeTarget + "|" + piggyback());
+        }
+    }
+
+    /**
+     * Anti-entropy: exchange full state with one random live member, so joins
+     * spread even when many arrive at once and piggyback space runs short.
+     */
+    private void pushPull() {
+        List<Member> alive = new ArrayList<>();
+        for (Member m : members.values()) {
+            if (m.state == State.ALIVE)
+                alive.add(m);
+        }
+        if (alive.isEmpty())
+            return;
+        Member m = alive.get(random.nextInt(alive.size()));
+        send(m.host, m.swimPort, "SWIM_SYNC_REQ|" + self.token() + "|" + fullState());
+    }
+
+    private void suspect(int id, long now) {
+        Member m = members.get(id);
+        if (m == null || m.state != State.ALIVE)
+            return;
+        m.state = State.SUSPECT;
+        m.stateSince = now;
+        enqueue(m, 'S');
+        suspicionsRaised.incrementAndGet();
+        log("[SWIM] Suspect member " + id + " (no ack, incarnation " + m.incarnation + ")");
+    }
+
+    private void declareDead(Member m, long now) {
+        m.state = State.DEAD;
+        m.stateSince = now;
+        enqueue(m, 'D');
+        log("[SWIM] Member " + m.id + " confirmed dead");
+        for (MembershipTable.Listener l : listeners) {
+            l.onLeave(m.peer());
+        }
+    }
+
+    /**
+     * The sender of every message is itself alive at its stated incarnation.
+     * Returns its entry (possibly SUSPECT or DEAD, if the sender has not
+     * refuted yet).
+     */
+    private Member learn(String token, long now) {
+        applyUpdate('A', token, now);
+        return members.get(Integer.parseInt(token.substring(0, token.indexOf(','))));
+    }
+
+    private void applyUpdates(String encoded, long now) {
+        if (encoded.isEmpty())
+            return;
+        for (String u : encoded.split(";")) {
+            if (u.length() > 2)
+                applyUpdate(u.charAt(0), u.substring(2), now);
+        }
+    }
+
+    /**
+     * SWIM precedence rules. Higher incarnation always wins; at the same
+     * incarnation SUSPECT overrides ALIVE and DEAD overrides both.
+     */
+    private Member applyUpdate(char kind, String token, long now) {
+        String[] f = token.split(",");
+        int id = Integer.parseInt(f[0]);
+        int incarnation = Integer.parseInt(f[4]);
+
+        if (id == self.id) {
+            if (kind != 'A' && incarnation >= self.incarnation) {
+                // Refute: we are alive, with a newer incarnation than the rumour
+                self.incarnation = incarnation + 1;
+                enqueue(self, 'A');
+                log("[SWIM] Refuting " + (kind == 'S' ? "suspicion" : "death") + ", incarnation now "
+                        + self.incarnation);
+            }
+            return null;
+        }
+
+        Member m = members.get(id);
+        switch (kind) {
+            case 'A':
+                if (m == null) {
+                    m = new Member(id);
+                    members.put(id, m);
+                } else if (incarnation <= m.incarnation) {
+                    return m;
+                }
+                boolean joining = m.state == State.DEAD || m.host == null;
+                m.host = f[1];
+                m.swimPort = Integer.parseInt(f[2]);
+                m.tcpPort = Integer.parseInt(f[3]);
+                m.incarnation = incarnation;
+                m.state = State.ALIVE;
+                m.stateSince = now;
+                enqueue(m, 'A');
+                if (joining) {
+                    log("[SWIM] Member " + id + " joined (" + m.host + ":" + m.tcpPort + ")");
+                    for (MembershipTable.Listener l : listeners) {
+                        l.onJoin(m.peer());
+                    }
+                }
+                return m;
+            case 'S':
+                if (m == null || m.state == State.DEAD)
+                    return null;
+                if ((m.state == State.ALIVE && incarnation >= m.incarnation)
+                        || (m.state == State.SUSPECT && incarnation > m.incarnation)) {
+                    m.incarnation = incarnation;
+                    m.state = State.SUSPECT;
+                    m.stateSince = now;
+                    enqueue(m, 'S');
+                }
+                return m;
+            case 'D':
+                if (m == null || m.state == State.DEAD || incarnation < m.incarnation)
+                    return null;
+                m.incarnation = incarnation;
+                declareDead(m, now);
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private void enqueue(Member m, char kind) {
+        // A newer update about the same member replaces the older one
+        updates.put(m.id, new Update(kind + ":" + m.token()));
+    }
+
+    /**
+     * Updates up to MAX_PIGGYBACK_BYTES, least-sent first; each is retired after
+     * RETRANSMIT_MULT * log(n) transmissions, enough to reach every member
+     * with high probability.
+     */
+    private String piggyback() {
+        if (updates.isEmpty())
+            return "";
+        List<Map.Entry<Integer, Update>> pending = new ArrayList<>(updates.entrySet());
+        pending.sort((a, b) -> Integer.compare(a.getValue().transmissions, b.getValue().transmissions));
+        int limit = RETRANSMIT_MULT * (int) Math.ceil(Math.log10(members.size() + 2));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pending.size(); i++) {
+            Update u = pending.get(i).getValue();
+            if (sb.length() + u.encoded.length() + 1 > MAX_PIGGYBACK_BYTES)
+                break;
+            if (sb.length() > 0)
+                sb.append(';');
+            sb.append(u.encoded);
+            if (++u.transmissions >= limit)
+                updates.remove(pending.get(i).getKey());
+        }
+        return sb.toString();
+    }
+
+    private String fullState() {
+        StringBuilder sb = new StringBuilder("A:").append(self.token());
+        for (Member m : members.values()) {
+            if (m.state != State.DEAD)
+                sb.append(';').append(m.state == State.ALIVE ? 'A' : 'S').append(':').append(m.token());
+        }
+        return sb.toString();
+    }
+
+    private long suspicionTimeoutMs() {
+        double scale = Math.max(1.0, Math.log10(members.size() + 1));
+        return (long) (SUSPICION_MULT * scale * PERIOD_MS);
+    }
+
+    private void send(String host, int port, String msg) {
+        messagesSent.incrementAndGet();
+        transport.send(host, port, msg);
+    }
+
+    private void log(String line) {
+        if (verbose)
+            System.out.println(line);
+    }
+
+    public synchronized List<Peer> getAliveMembers() {
+        List<Peer> alive = new ArrayList<>();
+        for (Member m : members.values()) {
+            if (m.state != State.DEAD)
+                alive.add(m.peer());
+        }
+        return alive;
+    }
+
+    public synchronized State getState(int id) {
+        Member m = members.get(id);
+        return m == null ? null : m.state;
+    }
+
+    public synchronized int getIncarnation() {
+        return self.incarnation;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * Suspicions this member started itself (failed direct and indirect probe).
+     */
+    public long getSuspicionsRaised() {
+        return suspicionsRaised.get();
+    }
+
+    public static long getPeriodMs() {
+        return PERIOD_MS;
+    }
+
+    /**
+     * UDP transport: one DatagramSocket for sending and receiving.
+     */
+    public static class UdpTransport implements Transport {
+        private final DatagramSocket socket;
+
+        public UdpTransport(int port) throws IOException {
+            this.socket = new DatagramSocket(port);
+        }
+
+        /**
+         * Feed received datagrams to swim until the socket is closed.
+         */
+        public void start(SwimMembership swim) {
+            Thread t = new Thread(() -> {
+                byte[] buf = new byte[65507];
+                while (!socket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                        socket.receive(packet);
+                        swim.receive(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8),
+                                System.currentTimeMillis());
+                    } catch (IOException e) {
+                        break;
+                    }
+                }
+            }, "swim-udp");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void send(String host, int port, String msg) {
+            try {
+                byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+                socket.send(new DatagramPacket(data, data.length, InetAddress.getByName(host), port));
+            } catch (IOException e) {
+                // UDP is best effort; the protocol tolerates loss
+            }
+        }
+
+        public void close() {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.electricity.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid Logical Clock (HLC)
+ *
+ * Combines wall-clock time with a logical counter so that timestamps:
+ * - respect causality like a Lamport clock (receive = max + 1)
+ * - stay close to physical time, so they can be compared across servers
+ *   and stored as event times
+ *
+ * Packed into one long: upper 48 bits = physical millis, lower 16 bits = logical counter.
+ * 48 bits of milliseconds last until the year 10889, so unlike the int
+ * LamportClock it does not overflow in a long-running cluster.
+ *
+ * Lock-free: tick and receive-merge are a compare-and-set loop on an
+ * AtomicLong, so request threads never queue on a monitor.
+ */
+public class HybridLogicalClock {
+    private static final int LOGICAL_BITS = 16;
+    private static final long LOGICAL_MASK = (1L << LOGICAL_BITS) - 1;
+
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * Timestamp for a local or send event.
+     */
+    public long now() {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        while (true) {
+            long prev = last.get();
+            long next = physical > prev ? physical : prev + 1;
+            if (last.compareAndSet(prev, next))
+                return next;
+        }
+    }
+
+    /**
+     * Merge a timestamp received from another server.
+     */
+    public long update(long remote) {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        while (true) {
+            long prev = last.get();
+            long max = Math.max(prev, remote);
+            long next = physical > max ? physical : max + 1;
+            if (last.compareAndSet(prev, next))
+                return next;
+        }
+    }
+
+    /**
+     * Latest timestamp issued, without advancing the clock.
+     */
+    public long current() {
+        return last.get();
+    }
+
+    public static long physicalMillis(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    public static int logical(long timestamp) {
+        return (int) (timestamp & LOGICAL_MASK);
+    }
+
+    @Override
+    public String toString() {
+        long t = last.get();
+        return "HLC:" + physicalMillis(t) + "." + logical(t);
+    }
+}
@@ -5,7 +5,13 @@ package com.electricity.sync;
  * 
  * This implements the Lamport logical clock algorithm for maintaining
  * causal ordering of events in the distributed system.
+ *
+ * Superseded by HybridLogicalClock (64-bit, lock-free, tied to wall time);
+ * kept as the baseline for test/ClockBenchmark.
+ *
+ * @deprecated use {@link HybridLogicalClock}
  */
+@Deprecated
 public class LamportClock {
     private int counter;
 
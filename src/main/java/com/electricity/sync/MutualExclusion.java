@@ -8,16 +8,22 @@ import java.util.concurrent.*;
  * 
  * This implements distributed mutual exclusion for coordinating
  * access to shared resources (like database) across servers.
+ *
+ * In-memory only (REQUEST/REPLY are not sent). The cluster uses TokenMutex,
+ * which runs over the peer channels.
+ *
+ * @deprecated use {@link TokenMutex} (ElectionManager.getLock)
  */
+@Deprecated
 public class MutualExclusion {
     private final int nodeId;
-    private final LamportClock clock;
+    private final HybridLogicalClock clock;
     private final Set<Integer> peerIds;
 
     // State
     private volatile boolean requesting = false;
     private volatile boolean inCriticalSection = false;
-    private int requestTimestamp;
+    private long requestTimestamp;
 
     // Track replies received
     private final Set<Integer> repliesReceived = new ConcurrentHashMap<Integer, Boolean>().keySet(true);
@@ -25,7 +31,7 @@ public class MutualExclusion {
     // Deferred requests queue
     private final Queue<Request> deferredQueue = new ConcurrentLinkedQueue<>();
 
-    public MutualExclusion(int nodeId, LamportClock clock, Set<Integer> peerIds) {
+    public MutualExclusion(int nodeId, HybridLogicalClock clock, Set<Integer> peerIds) {
         this.nodeId = nodeId;
         this.clock = clock;
         this.peerIds = new HashSet<>(peerIds);
@@ -37,7 +43,7 @@ public class MutualExclusion {
      */
     public synchronized void requestCriticalSection() {
         requesting = true;
-        requestTimestamp = clock.sendTimestamp();
+        requestTimestamp = clock.now();
         repliesReceived.clear();
 
         System.out.println("[MutEx] Node " + nodeId + " requesting CS at T=" + requestTimestamp);
@@ -50,7 +56,7 @@ public class MutualExclusion {
      * Handle REQUEST from another node
      * Returns true if we should send REPLY
      */
-    public synchronized boolean handleRequest(int senderId, int timestamp) {
+    public synchronized boolean handleRequest(int senderId, long timestamp) {
         clock.update(timestamp);
 
         // If not requesting or in CS, always grant
@@ -113,7 +119,7 @@ public class MutualExclusion {
         }
 
         inCriticalSection = false;
-        clock.tick();
+        clock.now();
 
         System.out.println("[MutEx] Node " + nodeId + " EXITED critical section");
 
@@ -135,7 +141,7 @@ public class MutualExclusion {
     /**
      * Get current request timestamp
      */
-    public int getRequestTimestamp() {
+    public long getRequestTimestamp() {
         return requestTimestamp;
     }
 
@@ -150,9 +156,9 @@ public class MutualExclusion {
     // Helper class to represent a request
     private static class Request {
         final int senderId;
-        final int timestamp;
+        final long timestamp;
 
-        Request(int senderId, int timestamp) {
+        Request(int senderId, long timestamp) {
             this.senderId = senderId;
             this.timestamp = timestamp;
         }
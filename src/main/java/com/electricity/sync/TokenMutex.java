@@ -0,0 +1,392 @@
+package com.electricity.sync;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Lab 6 (revisited): Token-based distributed mutual exclusion (Suzuki-Kasami)
+ *
+ * Whoever holds the single token may enter the critical section.
+ * - Request: broadcast SK_REQ with our request number, wait for the token
+ *   (N-1 requests + 1 token message, vs 2(N-1) for Ricart-Agrawala)
+ * - Re-entry while still holding the token costs no messages at all
+ * - Release: the token carries LN (last granted request per server) and a
+ *   FIFO queue; any server whose request number is ahead of LN is queued
+ *   and the token goes to the head of the queue
+ *
+ * Failure handling:
+ * - Lease: a holder that does not release within leaseMs loses the lock and
+ *   the token moves on (isHeld() turns false)
+ * - Regeneration: a requester that waits longer than the lease probes all
+ *   servers. If a majority answers and none holds (or just passed) the token,
+ *   the lowest-id live server creates a new token with a higher epoch.
+ *   Tokens and requests from older epochs are discarded, so a holder that
+ *   comes back after a partition cannot bring a second token with it.
+ * - There is no initial token: the first acquire regenerates it (epoch 1).
+ *
+ * Messages (transport is the peer channels; name identifies the lock):
+ *   SK_REQ|name|from|requestNumber|epoch
+ *   SK_TOKEN|name|from|epoch|id:ln,id:ln|id,id
+ *   SK_PROBE|name|from|epoch          -> SK_PROBE_RESP|name|id|epoch|holding
+ *   SK_REGEN|name|from|epoch          (ask the lowest-id server to regenerate)
+ */
+public class TokenMutex {
+    private static final long PROBE_WINDOW_MS = 300;
+    private static final long TRANSIT_GRACE_MS = 1000; // token just sent counts as held
+    private static final long WATCHDOG_INTERVAL_MS = 20;
+
+    private final String name;
+    private final int myId;
+    private final Supplier<Collection<Integer>> peerIds;
+    private final BiConsumer<Integer, String> transport;
+    private final long leaseMs;
+    private final long regenTimeoutMs;
+
+    // Suzuki-Kasami state
+    private final Map<Integer, Long> rn = new HashMap<>(); // highest request number seen per server
+    private Map<Integer, Long> ln = new HashMap<>(); // token's LN (last copy seen when not holding)
+    private Deque<Integer> queue = new ArrayDeque<>(); // token's waiting queue
+    private boolean hasToken = false;
+    private boolean inCs = false;
+    private boolean requesting = false;
+    private long epoch = 0; // highest epoch seen
+    private long tokenEpoch = 0; // epoch of the token we hold
+    private long leaseExpiresAt = 0;
+    private long tokenPassedAt = 0;
+
+    // Regeneration probe
+    private boolean probeActive = false;
+    private long probeDeadline = 0;
+    private final Set<Integer> probeAlive = new HashSet<>();
+    private boolean probeHolderSeen = false;
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private volatile boolean running = false;
+
+    public TokenMutex(String name, int myId, Supplier<Collection<Integer>> peerIds,
+            BiConsumer<Integer, String> transport, long leaseMs) {
+        this.name = name;
+        this.myId = myId;
+        this.peerIds = peerIds;
+        this.transport = transport;
+        this.leaseMs = leaseMs;
+        this.regenTimeoutMs = leaseMs + 1000;
+    }
+
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        Thread t = new Thread(this::watchdogLoop, "mutex-" + name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Block until we hold the lock or timeoutMs passes. The lock is held
+     * until release() or until the lease runs out, whichever comes first.
+     */
+    public synchronized boolean acquire(long timeoutMs) throws InterruptedException {
+        if (inCs)
+            throw new IllegalStateException("Lock '" + name + "' is already held by this server");
+        long now = System.currentTimeMillis();
+        long deadline = now + timeoutMs;
+        if (!hasToken) {
+            requesting = true;
+            try {
+                long n = rn.merge(myId, 1L, Long::sum);
+                broadcast("SK_REQ|" + name + "|" + myId + "|" + n + "|" + epoch);
+                long nextProbe = epoch == 0 ? now : now + regenTimeoutMs; // no token yet: create one
+                while (!hasToken) {
+                    now = System.currentTimeMillis();
+                    if (now >= deadline)
+                        return false; // a late token is passed on (we are no longer requesting)
+                    if (now >= nextProbe) {
+                        startProbe();
+                        nextProbe = now + regenTimeoutMs;
+                    }
+                    wait(Math.max(1, Math.min(deadline, nextProbe) - now));
+                }
+            } finally {
+                requesting = false;
+            }
+        }
+        inCs = true;
+        leaseExpiresAt = System.currentTimeMillis() + leaseMs;
+        return true;
+    }
+
+    public synchronized void release() {
+        if (!inCs)
+            return; // lease already expired
+        exitCriticalSection();
+    }
+
+    private void exitCriticalSection() {
+        inCs = false;
+        markOwnRequestDone();
+        passTokenIfWanted();
+    }
+
+    /**
+     * Our request is served (or abandoned), so the token must not be queued
+     * back to us for it.
+     */
+    private void markOwnRequestDone() {
+        ln.put(myId, rn.getOrDefault(myId, 0L));
+    }
+
+    /**
+     * True while we are inside the critical section and the lease is valid.
+     */
+    public synchronized boolean isHeld() {
+        return inCs && System.currentTimeMillis() < leaseExpiresAt;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Handle an SK_* message from a peer; returns the response line.
+     */
+    public synchronized String handleMessage(String msg) {
+        String[] p = msg.split("\\|", -1);
+        switch (p[0]) {
+            case "SK_REQ": {
+                int from = Integer.parseInt(p[2]);
+                long n = Long.parseLong(p[3]);
+                seeEpoch(Long.parseLong(p[4]));
+                rn.merge(from, n, Math::max);
+                if (hasToken && !inCs && tokenEpoch == epoch && n > ln.getOrDefault(from, 0L)) {
+                    passTokenIfWanted();
+                }
+                return "OK|SK";
+            }
+            case "SK_TOKEN":
+                receiveToken(Long.parseLong(p[3]), p[4], p[5]);
+                return "OK|SK";
+
+            case "SK_PROBE":
+                seeEpoch(Long.parseLong(p[3]));
+                messagesSent.incrementAndGet(); // the response is a message too
+                return "SK_PROBE_RESP|" + name + "|" + myId + "|" + epoch + "|" + (holdingOrInTransit() ? 1 : 0);
+
+            case "SK_REGEN":
+                seeEpoch(Long.parseLong(p[3]));
+                if (!hasToken)
+                    startProbe();
+                return "OK|SK";
+
+            default:
+                return "ERR|SK|UnknownType";
+        }
+    }
+
+    /**
+     * Handle a response to one of our messages (SK_PROBE_RESP).
+     */
+    public synchronized void handleResponse(String msg) {
+        String[] p = msg.split("\\|", -1);
+        if (!"SK_PROBE_RESP".equals(p[0]) || !probeActive)
+            return;
+        long theirEpoch = Long.parseLong(p[3]);
+        probeAlive.add(Integer.parseInt(p[2]));
+        if (theirEpoch > epoch || "1".equals(p[4]))
+            probeHolderSeen = true; // a token exists (possibly a newer one)
+        seeEpoch(theirEpoch);
+    }
+
+    private void receiveToken(long tokenEpochIn, String encodedLn, String encodedQueue) {
+        if (tokenEpochIn < epoch) {
+            System.out.println("[MUTEX] Discarding stale token for '" + name + "' (epoch " + tokenEpochIn + " < "
+                    + epoch + ")");
+            return;
+        }
+        epoch = tokenEpochIn;
+        tokenEpoch = tokenEpochIn;
+        hasToken = true;
+        ln = decodeLn(encodedLn);
+        queue = decodeQueue(encodedQueue);
+        queue.remove(myId);
+        probeActive = false;
+        if (requesting) {
+            notifyAll();
+        } else {
+            markOwnRequestDone(); // we gave up waiting: pass it on
+            passTokenIfWanted();
+        }
+    }
+
+    /**
+     * Idle holder: queue every server whose request is ahead of LN and send
+     * the token to the head of the queue.
+     */
+    private void passTokenIfWanted() {
+        if (!hasToken || inCs)
+            return;
+        if (tokenEpoch < epoch) {
+            hasToken = false; // superseded by a regenerated token
+            return;
+        }
+        for (Map.Entry<Integer, Long> e : rn.entrySet()) {
+            int j = e.getKey();
+            if (j != myId && e.getValue() > ln.getOrDefault(j, 0L) && !queue.contains(j))
+                queue.addLast(j);
+        }
+        Integer next = queue.pollFirst();
+        if (next == null)
+            return;
+        hasToken = false;
+        tokenPassedAt = System.currentTimeMillis();
+        send(next, "SK_TOKEN|" + name + "|" + myId + "|" + tokenEpoch + "|" + encodeLn(ln) + "|"
+                + encodeQueue(queue));
+    }
+
+    private void startProbe() {
+        if (probeActive || hasToken)
+            return;
+        probeActive = true;
+        probeDeadline = System.currentTimeMillis() + PROBE_WINDOW_MS;
+        probeAlive.clear();
+        probeAlive.add(myId);
+        probeHolderSeen = false;
+        broadcast("SK_PROBE|" + name + "|" + myId + "|" + epoch);
+    }
+
+    private void finishProbe() {
+        probeActive = false;
+        if (hasToken || probeHolderSeen)
+            return;
+        int clusterSize = peerIds.get().size() + 1;
+        if (probeAlive.size() <= clusterSize / 2) {
+            System.err.println("[MUTEX] No majority for '" + name + "' (" + probeAlive.size() + "/" + clusterSize
+                    + "), not regenerating token");
+            return;
+        }
+        int lowest = probeAlive.stream().min(Integer::compare).get();
+        if (lowest != myId) {
+            send(lowest, "SK_REGEN|" + name + "|" + myId + "|" + epoch);
+            return;
+        }
+        epoch++;
+        tokenEpoch = epoch;
+        hasToken = true;
+        queue.clear();
+        // Servers that did not answer are presumed down: don't hand them the new token
+        for (Map.Entry<Integer, Long> e : rn.entrySet()) {
+            if (!probeAlive.contains(e.getKey()))
+                ln.put(e.getKey(), e.getValue());
+        }
+        System.out.println("[MUTEX] Token for '" + name + "' regenerated by Node " + myId + " (epoch " + epoch + ")");
+        if (requesting) {
+            notifyAll();
+        } else {
+            markOwnRequestDone();
+            passTokenIfWanted();
+        }
+    }
+
+    private void seeEpoch(long e) {
+        if (e > epoch) {
+            epoch = e;
+            if (hasToken && !inCs)
+                hasToken = false; // our token is from an older epoch
+        }
+    }
+
+    private boolean holdingOrInTransit() {
+        return (hasToken && tokenEpoch == epoch)
+                || System.currentTimeMillis() - tokenPassedAt < TRANSIT_GRACE_MS;
+    }
+
+    private void watchdogLoop() {
+        while (running) {
+            try {
+                Thread.sleep(WATCHDOG_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (inCs && now >= leaseExpiresAt) {
+                    System.err.println("[MUTEX] Lease on '" + name + "' expired at Node " + myId + ", releasing");
+                    exitCriticalSection();
+                }
+                if (probeActive && now >= probeDeadline)
+                    finishProbe();
+            }
+        }
+    }
+
+    private void broadcast(String msg) {
+        for (Integer peer : peerIds.get()) {
+            send(peer, msg);
+        }
+    }
+
+    private void send(int peer, String msg) {
+        messagesSent.incrementAndGet();
+        transport.accept(peer, msg);
+    }
+
+    private static String encodeLn(Map<Integer, Long> ln) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, Long> e : ln.entrySet()) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(e.getKey()).append(':').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static Map<Integer, Long> decodeLn(String s) {
+        Map<Integer, Long> result = new HashMap<>();
+        for (String item : s.split(",")) {
+            if (item.isEmpty())
+                continue;
+            int colon = item.indexOf(':');
+            result.put(Integer.parseInt(item.substring(0, colon)), Long.parseLong(item.substring(colon + 1)));
+        }
+        return result;
+    }
+
+    private static String encodeQueue(Deque<Integer> queue) {
+        StringBuilder sb = new StringBuilder();
+        for (Integer id : queue) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    private static Deque<Integer> decodeQueue(String s) {
+        Deque<Integer> result = new ArrayDeque<>();
+        for (String item : s.split(",")) {
+            if (!item.isEmpty())
+                result.addLast(Integer.parseInt(item));
+        }
+        return result;
+    }
+}
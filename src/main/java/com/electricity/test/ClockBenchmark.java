@@ -0,0 +1,87 @@
+package com.electricity.test;
+
+import com.electricity.sync.HybridLogicalClock;
+import com.electricity.sync.LamportClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Contended throughput of the logical clocks:
+ * synchronized int LamportClock vs lock-free (CAS) HybridLogicalClock.
+ *
+ * Every thread ticks the same shared clock as fast as it can; the table shows
+ * total ticks per second for 1..N threads. Each run is preceded by a warm-up
+ * so the JIT has compiled both paths.
+ *
+ * Usage: ClockBenchmark [maxThreads] [secondsPerRun]
+ */
+@SuppressWarnings("deprecation")
+public class ClockBenchmark {
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        System.out.println("=== Logical Clock Benchmark (" + seconds + "s per run) ===\n");
+        System.out.printf("%-8s %18s %18s %8s%n", "threads", "Lamport ops/s", "HLC ops/s", "ratio");
+
+        // Powers of two below maxThreads, then maxThreads itself
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2)
+            threadCounts.add(threads);
+        threadCounts.add(Math.max(1, maxThreads));
+
+        for (int threads : threadCounts) {
+            LamportClock lamport = new LamportClock();
+            HybridLogicalClock hlc = new HybridLogicalClock();
+
+            run(threads, 1, lamport::tick); // warm-up
+            double lamportOps = run(threads, seconds, lamport::tick);
+            run(threads, 1, hlc::now);
+            double hlcOps = run(threads, seconds, hlc::now);
+
+            System.out.printf("%-8d %18.0f %18.0f %7.2fx%n", threads, lamportOps, hlcOps, hlcOps / lamportOps);
+        }
+
+        System.out.println("\n=== Benchmark Complete ===");
+    }
+
+    private static double run(int threads, int seconds, LongSupplier tick) throws InterruptedException {
+        LongAdder total = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] sink = new long[threads];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L + 50_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long ops = 0;
+                long last = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 1000; i++) {
+                        last = tick.getAsLong();
+                    }
+                    ops += 1000;
+                }
+                sink[index] = last; // keep the result observable
+                total.add(ops);
+                done.countDown();
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        return total.sum() / elapsed;
+    }
+}
@@ -0,0 +1,189 @@
+package com.electricity.test;
+
+import com.electricity.model.Peer;
+import com.electricity.monitor.NodeMonitor;
+import com.electricity.server.ClientHandler;
+import com.electricity.service.ElectionManager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Leader failover benchmark (Bully election with leader leases).
+ *
+ * Runs an in-process cluster of N servers, each with its own listening socket
+ * and peer channels, then repeatedly kills the current leader: its
+ * ElectionManager is shut down and every socket it owns is closed, like a
+ * crashed process. The time until all survivors agree on a new leader is the
+ * failover time, compared against the configured SLO. The killed server is
+ * restarted before the next round, so it rejoins (and, being the highest id,
+ * takes leadership back).
+ *
+ * Tune with -Delectricity.lease.ms, -Delectricity.election.timeoutMs and
+ * -Delectricity.failover.sloMs, exactly as on a real server.
+ *
+ * Usage: FailoverBenchmark [servers] [rounds] [basePort]
+ */
+public class FailoverBenchmark {
+    private static final long SETTLE_TIMEOUT_MS = 30000;
+
+    public static void main(String[] args) throws Exception {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int basePort = args.length > 2 ? Integer.parseInt(args[2]) : 9500;
+
+        Node[] nodes = new Node[servers + 1];
+        for (int id = 1; id <= servers; id++) {
+            nodes[id] = new Node(id, servers, basePort);
+        }
+        long slo = nodes[1].election.getFailoverSloMs();
+
+        System.out.println("=== Failover Benchmark (" + servers + " servers, " + rounds + " rounds, SLO " + slo
+                + "ms) ===\n");
+        int leader = settle(nodes, slo);
+        if (leader < 0) {
+            System.out.println("Cluster never elected a leader");
+            System.exit(1);
+        }
+        System.out.println("Initial leader: Node " + leader);
+
+        List<Long> failovers = new ArrayList<>();
+        int missed = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long killedAt = System.currentTimeMillis();
+            nodes[leader].kill();
+            int newLeader = awaitLeader(nodes, leader);
+            long failoverMs = System.currentTimeMillis() - killedAt;
+
+            if (newLeader < 0) {
+                System.out.printf("round %2d: killed Node %d, no leader after %dms%n", round, leader, failoverMs);
+                missed++;
+            } else {
+                failovers.add(failoverMs);
+                if (failoverMs > slo)
+                    missed++;
+                System.out.printf("round %2d: killed Node %d -> Node %d in %5dms %s%n", round, leader, newLeader,
+                        failoverMs, failoverMs > slo ? "(SLO MISSED)" : "");
+            }
+
+            // Bring the killed server back and let the cluster settle again
+            nodes[leader] = new Node(leader, servers, basePort);
+            leader = settle(nodes, slo);
+            if (leader < 0) {
+                System.out.println("Cluster did not settle after restart");
+                break;
+            }
+        }
+
+        Collections.sort(failovers);
+        System.out.println();
+        if (!failovers.isEmpty()) {
+            System.out.printf("failover ms: min %d, p50 %d, max %d%n", failovers.get(0),
+                    failovers.get(failovers.size() / 2), failovers.get(failovers.size() - 1));
+        }
+        System.out.println("within SLO:  " + (rounds - missed) + "/" + rounds);
+        System.out.println("\n=== Benchmark Complete ===");
+        System.exit(missed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Leader after start-up churn (several servers may briefly claim
+     * leadership before their channels connect) has died down.
+     */
+    private static int settle(Node[] nodes, long slo) throws InterruptedException {
+        if (awaitLeader(nodes, -1) < 0)
+            return -1;
+        Thread.sleep(slo);
+        return awaitLeader(nodes, -1);
+    }
+
+    /**
+     * Wait until every live server names the same leader, that leader claims
+     * leadership itself, and it is not the excluded (killed) id.
+     */
+    private static int awaitLeader(Node[] nodes, int excluded) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            int agreed = -1;
+            boolean consistent = true;
+            for (int id = 1; id < nodes.length && consistent; id++) {
+                if (!nodes[id].alive)
+                    continue;
+                int seen = nodes[id].election.getLeaderId();
+                if (agreed == -1)
+                    agreed = seen;
+                consistent = seen == agreed;
+            }
+            if (consistent && agreed > 0 && agreed != excluded && nodes[agreed].alive
+                    && nodes[agreed].election.isLeader()) {
+                return agreed;
+            }
+            Thread.sleep(5);
+        }
+        return -1;
+    }
+
+    /**
+     * One server: listening socket, accept loop and ElectionManager.
+     */
+    private static class Node {
+        final ElectionManager election;
+        final ServerSocket server;
+        final List<Socket> accepted = new CopyOnWriteArrayList<>();
+        volatile boolean alive = true;
+
+        Node(int id, int servers, int basePort) throws IOException {
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress("127.0.0.1", basePort + id));
+            election = new ElectionManager(id, new NodeMonitor());
+
+            Thread acceptor = new Thread(() -> {
+                int clients = 0;
+                while (alive) {
+                    try {
+                        Socket s = server.accept();
+                        accepted.add(s);
+                        Thread handler = new Thread(new ClientHandler(s, ++clients, election));
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        break;
+                    }
+                }
+            }, "accept-" + id);
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            for (int peer = 1; peer <= servers; peer++) {
+                if (peer != id)
+                    election.addPeer(new Peer(peer, "127.0.0.1", basePort + peer));
+            }
+            election.startElection();
+        }
+
+        /**
+         * Crash: stop answering and drop every connection at once.
+         */
+        void kill() {
+            alive = false;
+            election.shutdown();
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+            for (Socket s : accepted) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,624 @@
+package com.electricity.test;
+
+import com.electricity.client.Backoff;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * District load generator: simulates many districts from one process.
+ *
+ * Each district is a real TCP connection speaking the client protocol
+ * (AUTH, then REPORT / OUTAGE). All connections share one NIO selector
+ * thread. A district costs a socket and a small state object, not a thread
+ * and a web server like HeadlessClient, so one JVM can drive hundreds of
+ * thousands.
+ *
+ * Options (-D):
+ * - electricity.load.rate: reports per district per second (default 0.1,
+ *   as a periodic client)
+ * - electricity.load.protocol: report (REPORT with keepalive, default),
+ *   report-v1 (no keepalive field) or heartbeat (legacy HEARTBEAT)
+ * - electricity.load.window: requests in flight per connection (default 1;
+ *   more pipelines)
+ * - electricity.load.connectRate: new connections per second during the
+ *   ramp (default 5000)
+ * - electricity.load.outageStorm=atSec:fraction: that share of districts
+ *   sends OUTAGE_START at once, then OUTAGE_END 10s later
+ * - electricity.load.reconnectStorm=atSec:fraction: that share of
+ *   connections is dropped and reconnects at once
+ * - electricity.load.bind: comma-separated local addresses to spread
+ *   connections over (e.g. 127.0.0.2,127.0.0.3), past the ~28k ephemeral
+ *   ports one address gets per server
+ * - electricity.load.report: JSON report file (default load-report.json)
+ *
+ * Progress is printed every 5s. At the end a JSON report (config, totals,
+ * ACK latency percentiles, errors by code, 5s timeline) is printed and
+ * written to the report file.
+ *
+ * Raise the open file limit (ulimit -n) to at least districts + 100.
+ *
+ * Usage: LoadGenerator [host:port[,host:port...]] [districts] [seconds]
+ */
+public class LoadGenerator {
+    private static final double RATE = Double.parseDouble(System.getProperty("electricity.load.rate", "0.1"));
+    private static final String PROTOCOL = System.getProperty("electricity.load.protocol", "report");
+    private static final int WINDOW = Integer.getInteger("electricity.load.window", 1);
+    private static final int CONNECT_RATE = Integer.getInteger("electricity.load.connectRate", 5000);
+    private static final String OUTAGE_STORM = System.getProperty("electricity.load.outageStorm");
+    private static final String RECONNECT_STORM = System.getProperty("electricity.load.reconnectStorm");
+    private static final String BIND = System.getProperty("electricity.load.bind");
+    private static final String REPORT_FILE = System.getProperty("electricity.load.report", "load-report.json");
+    private static final long PROGRESS_MS = 5000;
+    private static final long OUTAGE_LENGTH_MS = 10000;
+    // ERR|MOVED followed at once this many times in a row, then with backoff (as HeadlessClient)
+    private static final int MAX_REDIRECTS = 3;
+    private static final DateTimeFormatter DF = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    // Timer kinds
+    private static final int CONNECT = 0;
+    private static final int REPORT = 1;
+    private static final int OUTAGE_END = 2;
+
+    private static final int DISCONNECTED = 0;
+    private static final int CONNECTING = 1;
+    private static final int AUTHENTICATING = 2;
+    private static final int READY = 3;
+
+    private final List<InetSocketAddress> targets = new ArrayList<>();
+    private final List<InetSocketAddress> bindAddresses = new ArrayList<>();
+    private final District[] districts;
+    private final long durationMs;
+    private final Selector selector;
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final Random random = new Random();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private LatencyHistogram windowLatency = new LatencyHistogram();
+    private final Map<String, Long> errors = new TreeMap<>();
+    private final List<String> timeline = new ArrayList<>();
+    private long sent, acked, failed, throttled, connects, connectFailures, disconnects, redirects, outagesSent;
+    private long windowAcked;
+    private int connected;
+
+    private static final class District {
+        final int index;
+        final String nodeId;
+        SocketChannel channel;
+        InetSocketAddress target;
+        int state = DISCONNECTED;
+        int epoch; // bumped per connection, so report timers of a dead one lapse
+        long connectStartedAt;
+        // Send times (nanos) of requests in flight, answered in order
+        final long[] inFlight = new long[WINDOW];
+        int inFlightHead, inFlightCount;
+        ByteBuffer pendingWrite;
+        StringBuilder partialLine;
+        int redirectsInARow; // reset once a request is acknowledged
+        Backoff redirectBackoff; // only for districts that got bounced around
+
+        District(int index) {
+            this.index = index;
+            this.nodeId = String.format("load_%06d", index);
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long dueAt;
+        final int kind;
+        final District district;
+        final int epoch;
+
+        Timer(long dueAt, int kind, District district) {
+            this.dueAt = dueAt;
+            this.kind = kind;
+            this.district = district;
+            this.epoch = district.epoch;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return Long.compare(dueAt, o.dueAt);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String targets = args.length > 0 ? args[0] : "127.0.0.1:9000";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        new LoadGenerator(targets, count, seconds * 1000L).run();
+    }
+
+    public LoadGenerator(String targetList, int count, long durationMs) throws IOException {
+        for (String t : targetList.split(",")) {
+            int colon = t.lastIndexOf(':');
+            targets.add(new InetSocketAddress(t.substring(0, colon).trim(), Integer.parseInt(t.substring(colon + 1))));
+        }
+        if (BIND != null) {
+            for (String b : BIND.split(","))
+                bindAddresses.add(new InetSocketAddress(b.trim(), 0));
+        }
+        this.districts = new District[count];
+        for (int i = 0; i < count; i++) {
+            districts[i] = new District(i + 1);
+        }
+        this.durationMs = durationMs;
+        this.selector = Selector.open();
+    }
+
+    public void run() throws IOException {
+        System.out.println("=== District Load Generator (" + districts.length + " districts -> " + targets + ", "
+                + durationMs / 1000 + "s, " + RATE + " reports/s each, protocol " + PROTOCOL + ", window " + WINDOW
+                + ") ===\n");
+
+        long start = System.currentTimeMillis();
+        // Ramp: spread the connects at CONNECT_RATE per second
+        for (District d : districts) {
+            timers.add(new Timer(start + (long) (d.index - 1) * 1000 / CONNECT_RATE, CONNECT, d));
+        }
+        long outageStormAt = stormTime(OUTAGE_STORM, start);
+        long reconnectStormAt = stormTime(RECONNECT_STORM, start);
+        long nextProgress = start + PROGRESS_MS;
+        long lastProgress = start;
+        long end = start + durationMs;
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now >= end)
+                break;
+            if (now >= outageStormAt) {
+                outageStorm(stormFraction(OUTAGE_STORM), now);
+                outageStormAt = Long.MAX_VALUE;
+            }
+            if (now >= reconnectStormAt) {
+                reconnectStorm(stormFraction(RECONNECT_STORM), now);
+                reconnectStormAt = Long.MAX_VALUE;
+            }
+            if (now >= nextProgress) {
+                progress(now - start, now - lastProgress);
+                lastProgress = now;
+                nextProgress += PROGRESS_MS;
+            }
+            while (!timers.isEmpty() && timers.peek().dueAt <= now) {
+                fire(timers.poll(), now);
+            }
+
+            long wait = Math.min(nextProgress, end) - now;
+            if (!timers.isEmpty())
+                wait = Math.min(wait, timers.peek().dueAt - now);
+            if (wait > 0)
+                selector.select(wait);
+            else
+                selector.selectNow();
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                District d = (District) key.attachment();
+                try {
+                    if (!key.isValid())
+                        continue;
+                    if (key.isConnectable())
+                        finishConnect(d, key);
+                    else {
+                        if (key.isWritable())
+                            flush(d, key);
+                        if (key.isValid() && key.isReadable())
+                            read(d);
+                    }
+                } catch (IOException e) {
+                    lost(d, System.currentTimeMillis(), "io");
+                }
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        String json = reportJson(elapsed);
+        for (District d : districts) {
+            close(d);
+        }
+        System.out.println("\n" + json);
+        try (PrintWriter w = new PrintWriter(REPORT_FILE, StandardCharsets.UTF_8)) {
+            w.println(json);
+        }
+        System.out.println("\nReport written to " + REPORT_FILE);
+        System.out.println("=== Load Generation Complete ===");
+    }
+
+    private static long stormTime(String spec, long start) {
+        return spec == null ? Long.MAX_VALUE : start + (long) (Double.parseDouble(spec.split(":")[0]) * 1000);
+    }
+
+    private static double stormFraction(String spec) {
+        String[] f = spec.split(":");
+        return f.length > 1 ? Double.parseDouble(f[1]) : 1.0;
+    }
+
+    private void fire(Timer t, long now) {
+        District d = t.district;
+        switch (t.kind) {
+            case CONNECT:
+                if (d.state == DISCONNECTED)
+                    connect(d, d.target != null ? d.target : targets.get(d.index % targets.size()), now);
+                break;
+            case REPORT:
+                if (d.state != READY || t.epoch != d.epoch)
+                    break; // rescheduled once the connection is back
+                if (d.inFlightCount == WINDOW)
+                    throttled++;
+                else
+                    request(d, reportLine(d), now);
+                scheduleReport(d, now);
+                break;
+            case OUTAGE_END:
+                if (d.state == READY && d.inFlightCount < WINDOW)
+                    request(d, outageLine(d, "OUTAGE_END", "restored"), now);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void scheduleReport(District d, long now) {
+        if (RATE <= 0)
+            return;
+        // Exponential inter-arrival: districts do not report in lockstep
+        long gap = (long) (-Math.log(1 - random.nextDouble()) * 1000 / RATE);
+        timers.add(new Timer(now + Math.max(1, gap), REPORT, d));
+    }
+
+    private void connect(District d, InetSocketAddress target, long now) {
+        try {
+            SocketChannel ch = SocketChannel.open();
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (!bindAddresses.isEmpty())
+                ch.bind(bindAddresses.get(d.index % bindAddresses.size()));
+            d.channel = ch;
+            d.target = target;
+            d.state = CONNECTING;
+            d.connectStartedAt = System.nanoTime();
+            if (ch.connect(target))
+                finishConnect(d, ch.register(selector, SelectionKey.OP_READ, d));
+            else
+                ch.register(selector, SelectionKey.OP_CONNECT, d);
+        } catch (IOException e) {
+            connectFailures++;
+            close(d);
+            timers.add(new Timer(now + 1000 + random.nextInt(1000), CONNECT, d));
+        }
+    }
+
+    private void finishConnect(District d, SelectionKey key) throws IOException {
+        if (d.channel.isConnectionPending()) {
+            try {
+                d.channel.finishConnect();
+            } catch (IOException e) {
+                connectFailures++;
+                close(d);
+                timers.add(new Timer(System.currentTimeMillis() + 1000 + random.nextInt(1000), CONNECT, d));
+                return;
+            }
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        d.state = AUTHENTICATING;
+        write(d, "AUTH|GRID_SEC_2025|" + d.nodeId + "\n");
+    }
+
+    private void request(District d, String line, long now) {
+        d.inFlight[(d.inFlightHead + d.inFlightCount) % WINDOW] = System.nanoTime();
+        d.inFlightCount++;
+        sent++;
+        try {
+            write(d, line + "\n");
+        } catch (IOException e) {
+            lost(d, now, "io");
+        }
+    }
+
+    private void write(District d, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        SelectionKey key = d.channel.keyFor(selector);
+        if (d.pendingWrite != null) {
+            ByteBuffer merged = ByteBuffer.allocate(d.pendingWrite.remaining() + buf.remaining());
+            merged.put(d.pendingWrite).put(buf).flip();
+            d.pendingWrite = merged;
+            return;
+        }
+        d.channel.write(buf);
+        if (buf.hasRemaining()) {
+            d.pendingWrite = buf;
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void flush(District d, SelectionKey key) throws IOException {
+        if (d.pendingWrite != null) {
+            d.channel.write(d.pendingWrite);
+            if (d.pendingWrite.hasRemaining())
+                return;
+            d.pendingWrite = null;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read(District d) throws IOException {
+        readBuffer.clear();
+        int n = d.channel.read(readBuffer);
+        if (n < 0) {
+            lost(d, System.currentTimeMillis(), "closed");
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            char c = (char) (readBuffer.get() & 0xff); // responses are ASCII
+            if (c == '\n') {
+                String line = d.partialLine == null ? "" : d.partialLine.toString();
+                d.partialLine = null;
+                response(d, line.trim());
+                if (d.state == DISCONNECTED)
+                    return;
+            } else {
+                if (d.partialLine == null)
+                    d.partialLine = new StringBuilder(32);
+                d.partialLine.append(c);
+            }
+        }
+    }
+
+    private void response(District d, String line) {
+        long now = System.currentTimeMillis();
+        if (line.startsWith("ERR|MOVED|")) {
+            redirects++;
+            String target = line.substring("ERR|MOVED|".length());
+            int colon = target.lastIndexOf(':');
+            close(d);
+            d.target = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+            long delay = 0;
+            if (++d.redirectsInARow > MAX_REDIRECTS) {
+                if (d.redirectBackoff == null)
+                    d.redirectBackoff = new Backoff(500, 30000);
+                delay = d.redirectBackoff.next();
+            }
+            timers.add(new Timer(now + delay, CONNECT, d));
+            return;
+        }
+        if (d.state == AUTHENTICATING) {
+            if ("AUTH_OK".equals(line)) {
+                d.state = READY;
+                connected++;
+                connects++;
+                connectLatency.record((System.nanoTime() - d.connectStartedAt) / 1000);
+                scheduleReport(d, now);
+            } else {
+                countError(line);
+                lost(d, now, null);
+            }
+            return;
+        }
+        if (d.inFlightCount == 0) {
+            countError("UNSOLICITED|" + line);
+            return;
+        }
+        long sentAt = d.inFlight[d.inFlightHead];
+        d.inFlightHead = (d.inFlightHead + 1) % WINDOW;
+        d.inFlightCount--;
+        if (line.startsWith("OK|")) {
+            long micros = (System.nanoTime() - sentAt) / 1000;
+            latency.record(micros);
+            windowLatency.record(micros);
+            acked++;
+            if (d.redirectsInARow > 0) {
+                d.redirectsInARow = 0;
+                if (d.redirectBackoff != null)
+                    d.redirectBackoff.reset();
+            }
+            windowAcked++;
+        } else {
+            failed++;
+            countError(line);
+        }
+    }
+
+    private void countError(String line) {
+        String[] f = line.split("\\|");
+        String code = f.length > 1 ? f[0] + "|" + f[1] : line;
+        errors.merge(code, 1L, Long::sum);
+    }
+
+    /**
+     * Connection gone: count it and reconnect after a short jittered pause.
+     */
+    private void lost(District d, long now, String reason) {
+        if (d.state == DISCONNECTED)
+            return;
+        disconnects++;
+        if (reason != null)
+            errors.merge("DISCONNECT|" + reason, 1L, Long::sum);
+        close(d);
+        timers.add(new Timer(now + 500 + random.nextInt(1500), CONNECT, d));
+    }
+
+    private void close(District d) {
+        if (d.state == READY)
+            connected--;
+        d.state = DISCONNECTED;
+        d.epoch++;
+        d.inFlightCount = 0;
+        d.pendingWrite = null;
+        d.partialLine = null;
+        if (d.channel != null) {
+            try {
+                d.channel.close();
+            } catch (IOException ignored) {
+            }
+            d.channel = null;
+        }
+    }
+
+    private void outageStorm(double fraction, long now) {
+        int n = 0;
+        for (District d : districts) {
+            if (d.state == READY && d.inFlightCount < WINDOW && random.nextDouble() < fraction) {
+                request(d, outageLine(d, "OUTAGE_START", "line_fault"), now);
+                timers.add(new Timer(now + OUTAGE_LENGTH_MS, OUTAGE_END, d));
+                n++;
+            }
+        }
+        outagesSent += n;
+        System.out.println("[LOAD] Outage storm: " + n + " districts reported OUTAGE_START");
+    }
+
+    private void reconnectStorm(double fraction, long now) {
+        int n = 0;
+        for (District d : districts) {
+            if (d.state == READY && random.nextDouble() < fraction) {
+                close(d);
+                disconnects++;
+                timers.add(new Timer(now, CONNECT, d));
+                n++;
+            }
+        }
+        System.out.println("[LOAD] Reconnect storm: dropped " + n + " connections, all reconnecting now");
+    }
+
+    private String reportLine(District d) {
+        double voltage = 220.0 + random.nextGaussian();
+        switch (PROTOCOL) {
+            case "report-v1":
+                return String.format("REPORT|%s|%.1f|NORMAL", d.nodeId, voltage);
+            case "heartbeat":
+                return "HEARTBEAT|" + d.nodeId + "|NORMAL|0|OK";
+            default:
+                return String.format("REPORT|%s|%.1f|NORMAL|%d", d.nodeId, voltage, (int) Math.ceil(1 / RATE));
+        }
+    }
+
+    private String outageLine(District d, String type, String meta) {
+        return "OUTAGE|" + UUID.randomUUID() + "|" + d.nodeId + "|" + type + "|" + LocalDateTime.now().format(DF) + "|"
+                + meta;
+    }
+
+    private void progress(long elapsedMs, long windowMs) {
+        double rate = windowAcked * 1000.0 / Math.max(1, windowMs);
+        System.out.printf("t=%4ds connected=%7d acked/s=%9.1f p99=%8.2fms sent=%d acked=%d errors=%d%n",
+                elapsedMs / 1000, connected, rate, windowLatency.percentile(99) / 1000.0, sent, acked,
+                failed + connectFailures);
+        timeline.add(String.format("{\"t\": %d, \"connected\": %d, \"ackedPerSec\": %.1f, \"p50Ms\": %.3f, "
+                + "\"p99Ms\": %.3f}", elapsedMs / 1000, connected, rate, windowLatency.percentile(50) / 1000.0,
+                windowLatency.percentile(99) / 1000.0));
+        windowAcked = 0;
+        windowLatency = new LatencyHistogram();
+    }
+
+    private String reportJson(long elapsedMs) {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"config\": {\"targets\": \"").append(targets).append("\", \"districts\": ").append(districts.length)
+                .append(", \"durationSec\": ").append(durationMs / 1000).append(", \"ratePerDistrict\": ").append(RATE)
+                .append(", \"protocol\": \"").append(PROTOCOL).append("\", \"window\": ").append(WINDOW)
+                .append(", \"outageStorm\": ").append(OUTAGE_STORM == null ? "null" : "\"" + OUTAGE_STORM + "\"")
+                .append(", \"reconnectStorm\": ")
+                .append(RECONNECT_STORM == null ? "null" : "\"" + RECONNECT_STORM + "\"").append("},\n");
+        sb.append("  \"elapsedSec\": ").append(String.format("%.1f", elapsedMs / 1000.0)).append(",\n");
+        sb.append("  \"connected\": ").append(connected).append(",\n");
+        sb.append("  \"connects\": ").append(connects).append(",\n");
+        sb.append("  \"connectFailures\": ").append(connectFailures).append(",\n");
+        sb.append("  \"disconnects\": ").append(disconnects).append(",\n");
+        sb.append("  \"redirects\": ").append(redirects).append(",\n");
+        sb.append("  \"sent\": ").append(sent).append(",\n");
+        sb.append("  \"acked\": ").append(acked).append(",\n");
+        sb.append("  \"failed\": ").append(failed).append(",\n");
+        sb.append("  \"throttled\": ").append(throttled).append(",\n");
+        sb.append("  \"outagesSent\": ").append(outagesSent).append(",\n");
+        sb.append("  \"ackedPerSec\": ").append(String.format("%.1f", acked * 1000.0 / Math.max(1, elapsedMs)))
+                .append(",\n");
+        sb.append("  \"ackLatencyMs\": ").append(latency.toJson()).append(",\n");
+        sb.append("  \"connectLatencyMs\": ").append(connectLatency.toJson()).append(",\n");
+        sb.append("  \"errors\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> e : errors.entrySet()) {
+            sb.append(first ? "" : ", ").append("\"").append(e.getKey().replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\": ").append(e.getValue());
+            first = false;
+        }
+        sb.append("},\n");
+        sb.append("  \"timeline\": [\n    ").append(String.join(",\n    ", timeline)).append("\n  ]\n}");
+        return sb.toString();
+    }
+
+    /**
+     * Log-linear latency histogram in microseconds: 32 sub-buckets per power
+     * of two (about 3% resolution) up to ~2^40us, in a fixed long array.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BITS;
+        private static final int BUCKETS = (MAX_SHIFT + 2) * SUB;
+        private final long[] counts = new long[BUCKETS];
+        private long total, max, sum;
+
+        void record(long micros) {
+            long v = Math.max(0, micros);
+            counts[index(v)]++;
+            total++;
+            sum += v;
+            max = Math.max(max, v);
+        }
+
+        // [0, SUB) exact; above, values with the same top SUB_BITS+1 bits share a bucket
+        private static int index(long v) {
+            if (v < SUB)
+                return (int) v;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(v) - SUB_BITS);
+            return Math.min(BUCKETS - 1, (shift + 1) * SUB + (int) (v >>> shift) - SUB);
+        }
+
+        private static long lowerBound(int idx) {
+            if (idx < SUB)
+                return idx;
+            int shift = idx / SUB - 1;
+            return (long) (idx % SUB + SUB) << shift;
+        }
+
+        long percentile(double p) {
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * p / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(max, lowerBound(i));
+            }
+            return max;
+        }
+
+        String toJson() {
+            return String.format("{\"count\": %d, \"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f, "
+                    + "\"p999\": %.3f, \"max\": %.3f}", total, total == 0 ? 0.0 : sum / 1000.0 / total,
+                    percentile(50) / 1000.0, percentile(90) / 1000.0, percentile(99) / 1000.0,
+                    percentile(99.9) / 1000.0, max / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.electricity.test;
+
+import com.electricity.sync.TokenMutex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Distributed lock benchmark: TokenMutex (Suzuki-Kasami) on an in-memory
+ * cluster of N servers.
+ *
+ * Each server has an inbox drained by its own thread (like a peer channel),
+ * so delivery is asynchronous and responses travel back to the sender.
+ * Every server loops acquire/hold/release for the run; the table shows
+ * acquisition latency and protocol messages per acquisition as N grows,
+ * next to the 2(N-1) that Ricart-Agrawala needs for every entry.
+ * A mutual-exclusion violation (two holders at once) is counted and reported.
+ *
+ * Usage: MutexBenchmark [secondsPerRun] [holdMicros]
+ */
+public class MutexBenchmark {
+    private static final int[] CLUSTER_SIZES = { 3, 5, 7, 9 };
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int holdMicros = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        System.out.println("=== Token Mutex Benchmark (" + seconds + "s per run, hold " + holdMicros + "us) ===\n");
+        System.out.printf("%-4s %10s %10s %10s %10s %12s %10s %10s%n", "N", "acquires", "p50 ms", "p99 ms",
+                "max ms", "msgs/acq", "RA msgs", "violations");
+
+        for (int n : CLUSTER_SIZES) {
+            runCluster(n, seconds, holdMicros);
+        }
+
+        System.out.println("\nmsgs/acq counts every SK_* message and probe response.");
+        System.out.println("=== Benchmark Complete ===");
+    }
+
+    private static void runCluster(int n, int seconds, int holdMicros) throws Exception {
+        List<LinkedBlockingQueue<String[]>> inboxes = new ArrayList<>();
+        List<TokenMutex> nodes = new ArrayList<>();
+        AtomicLong messages = new AtomicLong();
+
+        for (int i = 0; i < n; i++) {
+            inboxes.add(new LinkedBlockingQueue<>());
+        }
+        for (int i = 0; i < n; i++) {
+            final int me = i + 1;
+            List<Integer> others = IntStream.rangeClosed(1, n).filter(id -> id != me).boxed()
+                    .collect(Collectors.toList());
+            TokenMutex node = new TokenMutex("bench", me, () -> others, (to, msg) -> {
+                messages.incrementAndGet();
+                inboxes.get(to - 1).add(new String[] { String.valueOf(me), msg });
+            }, 5000);
+            nodes.add(node);
+        }
+
+        // Delivery threads: handle the message, route any real response back to the sender
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            Thread t = new Thread(() -> {
+                try {
+                    while (true) {
+                        String[] envelope = inboxes.get(index).take();
+                        String response = nodes.get(index).handleMessage(envelope[1]);
+                        if (response.startsWith("SK_")) {
+                            messages.incrementAndGet();
+                            nodes.get(Integer.parseInt(envelope[0]) - 1).handleResponse(response);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // run finished
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        for (TokenMutex node : nodes) {
+            node.start();
+        }
+
+        // Warm-up: creates the token and lets the JIT settle
+        long warmupEnd = System.currentTimeMillis() + 1000;
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        long runEnd = warmupEnd + seconds * 1000L;
+
+        List<Thread> workers = new ArrayList<>();
+        for (TokenMutex node : nodes) {
+            Thread w = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < runEnd) {
+                        long start = System.nanoTime();
+                        if (!node.acquire(10000))
+                            continue;
+                        long waited = System.nanoTime() - start;
+                        try {
+                            if (holders.incrementAndGet() > 1)
+                                violations.incrementAndGet();
+                            long holdUntil = System.nanoTime() + holdMicros * 1000L;
+                            while (System.nanoTime() < holdUntil) {
+                                Thread.onSpinWait();
+                            }
+                            holders.decrementAndGet();
+                        } finally {
+                            node.release();
+                        }
+                        if (System.currentTimeMillis() >= warmupEnd)
+                            latencies.add(waited);
+                    }
+                } catch (InterruptedException e) {
+                    // stop
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+
+        Thread.sleep(Math.max(0, warmupEnd - System.currentTimeMillis()));
+        long messagesAtStart = messages.get();
+        for (Thread w : workers) {
+            w.join();
+        }
+        long protocolMessages = messages.get() - messagesAtStart;
+        int acquires = latencies.size();
+
+        for (TokenMutex node : nodes) {
+            node.stop();
+        }
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf("%-4d %10d %10.3f %10.3f %10.3f %12.2f %10d %10d%n", n, acquires,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0),
+                acquires == 0 ? 0.0 : (double) protocolMessages / acquires, 2 * (n - 1), violations.get());
+    }
+
+    private static double percentile(List<Long> sortedNanos, double q) {
+        if (sortedNanos.isEmpty())
+            return 0;
+        int index = (int) Math.min(sortedNanos.size() - 1, Math.ceil(q * sortedNanos.size()) - 1);
+        return sortedNanos.get(Math.max(0, index)) / 1e6;
+    }
+}
@@ -0,0 +1,213 @@
+package com.electricity.test;
+
+import com.electricity.model.Peer;
+import com.electricity.service.MembershipTable;
+import com.electricity.service.SwimMembership;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * SWIM membership simulation: N members on a simulated network with random
+ * latency and packet loss, driven on a simulated clock so hundreds of members
+ * run in seconds.
+ *
+ * For each cluster size:
+ * 1. members join one after another through member 1 (the seed)
+ * 2. steady state: messages per member per protocol period, and false
+ *    positives (suspicions raised / deaths declared while nobody failed)
+ * 3. one member crashes: time until the first member declares it dead,
+ *    and until every survivor has
+ *
+ * Usage: SwimSimulation [lossPercent] [steadySeconds]
+ */
+public class SwimSimulation {
+    private static final int[] CLUSTER_SIZES = { 10, 50, 100, 250, 500 };
+    private static final long STEP_MS = 10;
+    private static final long JOIN_STAGGER_MS = 20;
+    private static final long MAX_PHASE_MS = 300_000;
+
+    public static void main(String[] args) {
+        double loss = (args.length > 0 ? Double.parseDouble(args[0]) : 1.0) / 100.0;
+        int steadySeconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        long period = SwimMembership.getPeriodMs();
+
+        System.out.println("=== SWIM Membership Simulation (loss " + (loss * 100) + "%, period " + period
+                + "ms, steady " + steadySeconds + "s) ===\n");
+        System.out.printf("%-5s %10s %12s %12s %10s %12s %12s%n", "N", "join s", "msgs/mbr/T", "false susp",
+                "false dead", "detect s", "all aware s");
+
+        for (int n : CLUSTER_SIZES) {
+            new Cluster(n, loss).run(steadySeconds * 1000L, period);
+        }
+        System.out.println("\nmsgs/mbr/T = datagrams sent per member per protocol period (ping, ack, ping-req, relay).");
+        System.out.println("=== Simulation Complete ===");
+    }
+
+    private static final class Datagram implements Comparable<Datagram> {
+        final long deliverAt;
+        final long order;
+        final int to;
+        final String msg;
+
+        Datagram(long deliverAt, long order, int to, String msg) {
+            this.deliverAt = deliverAt;
+            this.order = order;
+            this.to = to;
+            this.msg = msg;
+        }
+
+        @Override
+        public int compareTo(Datagram o) {
+            return deliverAt != o.deliverAt ? Long.compare(deliverAt, o.deliverAt) : Long.compare(order, o.order);
+        }
+    }
+
+    private static final class Cluster {
+        final int n;
+        final double loss;
+        final Random random = new Random(42);
+        final PriorityQueue<Datagram> network = new PriorityQueue<>();
+        final List<SwimMembership> members = new ArrayList<>();
+        final boolean[] crashed;
+        final boolean[] started;
+        final long[] deadSeenAt;
+        long now = 0;
+        long order = 0;
+        int crashedId = -1;
+        int falseDeaths = 0;
+        boolean countFalseDeaths = false;
+
+        Cluster(int n, double loss) {
+            this.n = n;
+            this.loss = loss;
+            this.crashed = new boolean[n + 1];
+            this.started = new boolean[n + 1];
+            this.deadSeenAt = new long[n + 1];
+            for (int id = 1; id <= n; id++) {
+                final int me = id;
+                SwimMembership swim = new SwimMembership(id, "sim", id, 9000 + id, (host, port, msg) -> {
+                    if (random.nextDouble() < loss)
+                        return;
+                    long latency = 1 + random.nextInt(10);
+                    network.add(new Datagram(now + latency, order++, port, msg));
+                }, id);
+                swim.setVerbose(false);
+                swim.setSeeds(id == 1 ? new ArrayList<>() : List.of("sim:1"));
+                swim.addListener(new MembershipTable.Listener() {
+                    @Override
+                    public void onJoin(Peer peer) {
+                    }
+
+                    @Override
+                    public void onLeave(Peer peer) {
+                        if (peer.getId() == crashedId) {
+                            if (deadSeenAt[me] == 0)
+                                deadSeenAt[me] = now;
+                        } else if (countFalseDeaths) {
+                            falseDeaths++;
+                        }
+                    }
+                });
+                members.add(swim);
+            }
+        }
+
+        SwimMembership member(int id) {
+            return members.get(id - 1);
+        }
+
+        void step() {
+            now += STEP_MS;
+            for (int id = 1; id <= n; id++) {
+                if (!started[id] && now >= (id - 1) * JOIN_STAGGER_MS)
+                    started[id] = true;
+            }
+            while (!network.isEmpty() && network.peek().deliverAt <= now) {
+                Datagram d = network.poll();
+                if (started[d.to] && !crashed[d.to])
+                    member(d.to).receive(d.msg, d.deliverAt);
+            }
+            for (int id = 1; id <= n; id++) {
+                if (started[id] && !crashed[id])
+                    member(id).tick(now);
+            }
+        }
+
+        boolean converged() {
+            for (int id = 1; id <= n; id++) {
+                if (!started[id] || member(id).getAliveMembers().size() != n - 1)
+                    return false;
+            }
+            return true;
+        }
+
+        void run(long steadyMs, long period) {
+            // 1. Join
+            while (!converged() && now < MAX_PHASE_MS) {
+                step();
+            }
+            double joinSeconds = now / 1000.0;
+            if (!converged()) {
+                System.out.printf("%-5d did not converge in %ds%n", n, MAX_PHASE_MS / 1000);
+                return;
+            }
+
+            // 2. Steady state
+            long sentBefore = totalSent();
+            long suspicionsBefore = totalSuspicions();
+            countFalseDeaths = true;
+            long steadyEnd = now + steadyMs;
+            while (now < steadyEnd) {
+                step();
+            }
+            countFalseDeaths = false;
+            double msgsPerMemberPeriod = (double) (totalSent() - sentBefore) / n / (steadyMs / (double) period);
+            long falseSuspicions = totalSuspicions() - suspicionsBefore;
+
+            // 3. Crash one member (not the seed)
+            crashedId = 2 + random.nextInt(n - 1);
+            crashed[crashedId] = true;
+            member(crashedId).stop();
+            long crashAt = now;
+            while (!allAware() && now - crashAt < MAX_PHASE_MS) {
+                step();
+            }
+            long first = Long.MAX_VALUE;
+            long last = 0;
+            for (int id = 1; id <= n; id++) {
+                if (id == crashedId || deadSeenAt[id] == 0)
+                    continue;
+                first = Math.min(first, deadSeenAt[id]);
+                last = Math.max(last, deadSeenAt[id]);
+            }
+            System.out.printf("%-5d %10.1f %12.2f %12d %10d %12.1f %12s%n", n, joinSeconds, msgsPerMemberPeriod,
+                    falseSuspicions, falseDeaths, first == Long.MAX_VALUE ? -1.0 : (first - crashAt) / 1000.0,
+                    allAware() ? String.format("%.1f", (last - crashAt) / 1000.0) : "timeout");
+        }
+
+        boolean allAware() {
+            for (int id = 1; id <= n; id++) {
+                if (id != crashedId && deadSeenAt[id] == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        long totalSent() {
+            long sum = 0;
+            for (SwimMembership m : members)
+                sum += m.getMessagesSent();
+            return sum;
+        }
+
+        long totalSuspicions() {
+            long sum = 0;
+            for (SwimMembership m : members)
+                sum += m.getSuspicionsRaised();
+            return sum;
+        }
+    }
+}
@@ -1,4 +1,6 @@
 const API = '/api';
+const MAX_LOG_LINES = 200;
+let logCursor = 0; // seq of the newest log line shown
 
 async function refresh() {
     try {
@@ -6,11 +8,34 @@ async function refresh() {
         const data = await res.json();
 
         updateUI(data);
+        await refreshLogs();
     } catch (e) {
         console.error(e);
     }
 }
 
+// Only fetches lines newer than the cursor; the page keeps the rest
+async function refreshLogs() {
+    const res = await fetch(`${API}/logs?after=${logCursor}`);
+    const data = await res.json();
+    const logContainer = document.getElementById('log-container');
+    if (data.last < logCursor) {
+        logContainer.innerHTML = ''; // client restarted
+    }
+    logCursor = data.last;
+
+    // Newest first
+    data.logs.forEach(log => {
+        const div = document.createElement('div');
+        div.className = 'log-entry';
+        div.textContent = log;
+        logContainer.insertBefore(div, logContainer.firstChild);
+    });
+    while (logContainer.childElementCount > MAX_LOG_LINES) {
+        logContainer.removeChild(logContainer.lastChild);
+    }
+}
+
 function updateUI(data) {
     const badge = document.getElementById('status-badge');
     if (data.connected) {
@@ -24,15 +49,6 @@ function updateUI(data) {
         document.getElementById('btn-connect').disabled = false;
         document.getElementById('btn-disconnect').disabled = true;
     }
-
-    const logContainer = document.getElementById('log-container');
-    logContainer.innerHTML = '';
-    data.logs.slice().reverse().forEach(log => {
-        const div = document.createElement('div');
-        div.className = 'log-entry';
-        div.textContent = log;
-        logContainer.appendChild(div);
-    });
 }
 
 async function action(act) {
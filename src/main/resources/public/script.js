@@ -1,35 +1,114 @@
-// Poll API every 2 seconds
+// Live updates are pushed over /api/stream; polling is the fallback
 const API_URL = '/api/nodes';
+const STREAM_URL = '/api/stream';
+const SUMMARY_URL = '/api/summary';
+const MAX_EVENTS = 50;
+const HISTORY_POINTS = 240;
+let lastEtag = null; // nothing changed since this version: server answers 304
+let summaryEtag = null;
 
 async function fetchData() {
     try {
-        const response = await fetch(API_URL);
+        const headers = lastEtag ? { 'If-None-Match': lastEtag } : {};
+        const response = await fetch(API_URL, { headers, cache: 'no-store' });
+        if (response.status === 304) {
+            return; // dashboard already shows this data
+        }
         const nodes = await response.json();
+        lastEtag = response.headers.get('ETag');
         updateDashboard(nodes);
+        showDataSource(response.headers.get('X-Data-Source'), response.headers.get('X-Data-Staleness-Ms'));
     } catch (error) {
         console.error('Error fetching data:', error);
-        document.getElementById('sys-status').textContent = 'System Offline';
-        document.getElementById('sys-status').style.color = '#ef4444';
-        document.getElementById('sys-status').style.background = 'rgba(239, 68, 68, 0.2)';
+        showOffline();
     }
 }
 
-function updateDashboard(nodes) {
-    // Helper to calculate stats
-    let totalNodes = nodes.length;
-    let peakLoad = 0;
-    let outageCount = 0;
+// Header widgets come from the server's per-region counters, not the node list
+async function fetchSummary() {
+    try {
+        const headers = summaryEtag ? { 'If-None-Match': summaryEtag } : {};
+        const response = await fetch(SUMMARY_URL, { headers, cache: 'no-store' });
+        if (response.status === 304) {
+            return;
+        }
+        const summary = await response.json();
+        summaryEtag = response.headers.get('ETag');
+        updateSummary(summary);
+    } catch (error) {
+        console.error('Error fetching summary:', error);
+    }
+}
+
+function updateSummary(summary) {
+    if (!summary.total) return;
+    const total = summary.total;
+    const volts = v => v === null ? '-' : v.toFixed(1) + 'V';
+    const nodeCount = document.getElementById('node-count');
+    nodeCount.textContent = total.online;
+    nodeCount.title = `${total.suspected} suspected, ${total.offline} offline of ${total.nodes}`;
+    const voltage = document.getElementById('avg-voltage');
+    voltage.textContent = volts(total.avgVoltage);
+    voltage.title = `Lowest: ${volts(total.minVoltage)}`;
+    const outages = document.getElementById('outage-count');
+    outages.textContent = total.outages;
+    outages.title = summary.regions.filter(r => r.outages > 0)
+        .map(r => `${r.region}: ${r.outages}`).join('\n');
+}
+
+function showOffline() {
+    document.getElementById('sys-status').textContent = 'System Offline';
+    document.getElementById('sys-status').style.color = '#ef4444';
+    document.getElementById('sys-status').style.background = 'rgba(239, 68, 68, 0.2)';
+}
+
+// Node id -> node, kept current by the stream's snapshot and delta frames
+const liveNodes = new Map();
+
+function renderLiveNodes(data) {
+    const nodes = Array.from(liveNodes.values()).sort((a, b) => a.id.localeCompare(b.id));
+    updateDashboard(nodes);
+    showDataSource(data.source, data.stalenessMs);
+}
+
+function connectStream() {
+    const stream = new EventSource(STREAM_URL);
+    stream.addEventListener('snapshot', e => {
+        const data = JSON.parse(e.data);
+        liveNodes.clear();
+        data.nodes.forEach(node => liveNodes.set(node.id, node));
+        renderLiveNodes(data);
+    });
+    stream.addEventListener('nodes', e => {
+        const data = JSON.parse(e.data);
+        data.changed.forEach(node => liveNodes.set(node.id, node));
+        data.removed.forEach(id => liveNodes.delete(id));
+        renderLiveNodes(data);
+    });
+    stream.addEventListener('event', e => addEvent(JSON.parse(e.data)));
+    // EventSource reconnects by itself and gets a fresh snapshot
+    stream.onerror = showOffline;
+}
 
+function addEvent(event) {
+    const list = document.getElementById('event-feed');
+    const li = document.createElement('li');
+    li.className = /_END$/.test(event.type) ? 'event-clear' : 'event-alert';
+    li.textContent = `${event.time} · ${event.node} · ${event.type}${event.meta ? ' (' + event.meta + ')' : ''}`;
+    list.insertBefore(li, list.firstChild);
+    while (list.children.length > MAX_EVENTS) {
+        list.removeChild(list.lastChild);
+    }
+}
+
+function updateDashboard(nodes) {
     const tbody = document.getElementById('node-table-body');
     tbody.innerHTML = ''; // Clear current rows
 
     nodes.forEach(node => {
-        // Stats
-        if (node.load > peakLoad) peakLoad = node.load;
-        if (node.power.toLowerCase() === 'off') outageCount++;
-
         // Render Row
         const tr = document.createElement('tr');
+        tr.addEventListener('click', () => showHistory(node.id));
 
         // ID / District
         const tdId = document.createElement('td');
@@ -84,11 +163,6 @@ function updateDashboard(nodes) {
         tbody.appendChild(tr);
     });
 
-    // Update Stats Cards
-    document.getElementById('node-count').textContent = totalNodes;
-    document.getElementById('peak-load').textContent = peakLoad + '%';
-    document.getElementById('outage-count').textContent = outageCount;
-
     // Status Badge
     const badge = document.getElementById('sys-status');
     badge.textContent = 'System Online';
@@ -96,6 +170,61 @@ function updateDashboard(nodes) {
     badge.style.background = 'rgba(34, 197, 94, 0.2)';
 }
 
-// Start Polling
-fetchData();
-setInterval(fetchData, 2000);
+// Which copy of the data this server answered from (replicated cache or database)
+function showDataSource(source, stalenessMs) {
+    const badge = document.getElementById('sys-status');
+    if (source === 'cache') {
+        const seconds = (parseInt(stalenessMs, 10) || 0) / 1000;
+        badge.title = `Served from replicated cache, at most ${seconds.toFixed(1)}s behind`;
+        badge.textContent = `System Online · ${seconds < 1 ? 'live' : seconds.toFixed(1) + 's behind'}`;
+    } else if (source === 'database') {
+        badge.title = 'Served from the central database';
+    }
+}
+
+// Last 24h of a district's voltage: min/max band with the average on top
+async function showHistory(nodeId) {
+    const card = document.getElementById('history-card');
+    const chart = document.getElementById('history-chart');
+    const note = document.getElementById('history-note');
+    card.hidden = false;
+    document.getElementById('history-title').textContent = `Voltage History · ${nodeId} · last 24h`;
+    try {
+        const response = await fetch(`/api/nodes/${encodeURIComponent(nodeId)}/history?points=${HISTORY_POINTS}`);
+        const history = await response.json();
+        if (history.error) throw new Error(history.error);
+        chart.innerHTML = '';
+        note.textContent = `${history.points.length} points · ${history.bucketMs / 1000}s buckets · from ${history.source}`;
+        if (history.points.length === 0) {
+            note.textContent = 'No readings recorded for this district in the last 24h';
+            return;
+        }
+        const lo = Math.min(...history.points.map(p => p[1])) - 5;
+        const hi = Math.max(...history.points.map(p => p[3])) + 5;
+        const x = t => ((t - history.from) / (history.to - history.from)) * 800;
+        const y = v => 200 - ((v - lo) / (hi - lo)) * 200;
+        const top = history.points.map(p => `${x(p[0])},${y(p[3])}`);
+        const bottom = history.points.map(p => `${x(p[0])},${y(p[1])}`).reverse();
+        const band = document.createElementNS('http://www.w3.org/2000/svg', 'polygon');
+        band.setAttribute('class', 'history-band');
+        band.setAttribute('points', top.concat(bottom).join(' '));
+        const avg = document.createElementNS('http://www.w3.org/2000/svg', 'polyline');
+        avg.setAttribute('class', 'history-avg');
+        avg.setAttribute('points', history.points.map(p => `${x(p[0])},${y(p[2])}`).join(' '));
+        chart.appendChild(band);
+        chart.appendChild(avg);
+    } catch (error) {
+        console.error('Error fetching history:', error);
+        note.textContent = 'History unavailable';
+    }
+}
+
+// Start
+fetchSummary();
+setInterval(fetchSummary, 2000);
+if (window.EventSource) {
+    connectStream();
+} else {
+    fetchData();
+    setInterval(fetchData, 2000);
+}
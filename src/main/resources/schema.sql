@@ -9,6 +9,7 @@ CREATE TABLE IF NOT EXISTS nodes (
     last_power_state VARCHAR(10),
     last_load_percent INT,
     transformer_health VARCHAR(20),
+    keepalive_sec INT, -- longest silence that is normal for this district (NULL = reports every 10s)
     status VARCHAR(20)
 );
 
@@ -19,8 +20,45 @@ CREATE TABLE IF NOT EXISTS events (
     timestamp DATETIME,
     metadata TEXT,
     processed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    hlc BIGINT, -- hybrid logical clock time the event was recorded at (cross-server order)
     FOREIGN KEY (node_id) REFERENCES nodes(node_id) ON DELETE SET NULL
 );
 
+-- Voltage history (ReadingRecorder): raw reports plus per-minute and per-hour
+-- rollups; ts is epoch milliseconds (bucket start for the rollups)
+CREATE TABLE IF NOT EXISTS node_readings (
+    node_id VARCHAR(100) NOT NULL,
+    ts BIGINT NOT NULL,
+    voltage DOUBLE,
+    power_state VARCHAR(10),
+    PRIMARY KEY (node_id, ts),
+    KEY idx_readings_ts (ts)
+);
+
+CREATE TABLE IF NOT EXISTS node_readings_1m (
+    node_id VARCHAR(100) NOT NULL,
+    ts BIGINT NOT NULL,
+    samples INT NOT NULL,
+    v_min DOUBLE,
+    v_max DOUBLE,
+    v_sum DOUBLE,
+    PRIMARY KEY (node_id, ts),
+    KEY idx_readings_1m_ts (ts)
+);
+
+CREATE TABLE IF NOT EXISTS node_readings_1h (
+    node_id VARCHAR(100) NOT NULL,
+    ts BIGINT NOT NULL,
+    samples INT NOT NULL,
+    v_min DOUBLE,
+    v_max DOUBLE,
+    v_sum DOUBLE,
+    PRIMARY KEY (node_id, ts),
+    KEY idx_readings_1h_ts (ts)
+);
+
 -- Optional: simple index for queries
 CREATE INDEX idx_events_node ON events(node_id);
+
+-- Dashboard pages filtered by status, in node id order (keyset pagination)
+CREATE INDEX idx_nodes_status ON nodes(status, node_id);